@@ -0,0 +1,39 @@
+package edu.grinnell.celestialvisualizer.benchmarks;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+
+/**
+ * Helpers for setting up the bodies of a benchmark.
+ */
+class Bodies {
+
+    /** @return a square box holding every body of the store */
+    static BoundingBox boundingBox(BodyStore store) {
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < store.size(); i++) {
+            x0 = Math.min(x0, store.getXs()[i]);
+            y0 = Math.min(y0, store.getYs()[i]);
+            x1 = Math.max(x1, store.getXs()[i]);
+            y1 = Math.max(y1, store.getYs()[i]);
+        }
+        double half = Math.max(x1 - x0, y1 - y0) * 0.5 * 1.01;
+        double mx = (x0 + x1) / 2;
+        double my = (y0 + y1) / 2;
+        return new BoundingBox(mx - half, my - half, mx + half, my + half);
+    }
+
+    /** @return a simulation over a copy of the bodies of the store */
+    static NBody simulation(BodyStore store) {
+        BodyStore copy = new BodyStore(store.size());
+        for (int i = 0; i < store.size(); i++) {
+            copy.add(store.getMasses()[i], store.getXs()[i], store.getYs()[i],
+                    store.getVelocityXs()[i], store.getVelocityYs()[i]);
+        }
+        return new NBody(copy);
+    }
+}
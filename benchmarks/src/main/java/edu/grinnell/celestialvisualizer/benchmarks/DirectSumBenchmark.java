@@ -0,0 +1,62 @@
+package edu.grinnell.celestialvisualizer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+
+/**
+ * A full step of a simulation with update, which sums the pull of every
+ * body on every other.  The sizes stop at 100000: a step of a million
+ * bodies is 10^12 interactions, which is more than a benchmark run can
+ * afford.  Pass -p n=1000000 to measure it anyway.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DirectSumBenchmark {
+
+    /** The time step of CelestialVisualizer. */
+    private static final double ELAPSED_TIME = 50.0;
+
+    @Param({ "1000", "10000", "100000" })
+    public int n;
+
+    @Param({ "UNIFORM", "GAUSSIAN", "COLLISION" })
+    public Distribution distribution;
+
+    private BodyStore bodies;
+    private NBody simulation;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        bodies = distribution.create(n, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        simulation = Bodies.simulation(bodies);
+    }
+
+    @Benchmark
+    public NBody update() {
+        simulation.update(ELAPSED_TIME);
+        return simulation;
+    }
+}
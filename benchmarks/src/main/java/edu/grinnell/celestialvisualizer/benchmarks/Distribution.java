@@ -0,0 +1,37 @@
+package edu.grinnell.celestialvisualizer.benchmarks;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+
+/**
+ * The ways the bodies of a benchmark are laid out.  Every layout is
+ * generated by a Scenario from a seed, so the same size and seed always
+ * give the same bodies.
+ */
+public enum Distribution {
+
+    /** Bodies spread evenly over a square, at rest. */
+    UNIFORM(Scenario.UNIFORM),
+
+    /** Bodies in a single Gaussian blob around a sun, on circular orbits. */
+    GAUSSIAN(Scenario.GALAXY),
+
+    /** Two Gaussian blobs around a sun and a lighter star passing each
+     *  other, laid out as NBodyExamples.collision. */
+    COLLISION(Scenario.COLLISION);
+
+    private final Scenario scenario;
+
+    Distribution(Scenario scenario) {
+        this.scenario = scenario;
+    }
+
+    /**
+     * @return a store of n bodies laid out this way, counting the stars
+     * @param n the number of bodies
+     * @param seed the seed of the generator
+     */
+    public BodyStore create(int n, long seed) {
+        return scenario.create(n, seed);
+    }
+}
@@ -0,0 +1,96 @@
+package edu.grinnell.celestialvisualizer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.quadtree.FlatQuadTree;
+import edu.grinnell.celestialvisualizer.quadtree.QuadTree;
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.Point;
+
+/**
+ * Building quad trees over all the bodies, and calculating accelerations
+ * with them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class QuadTreeBenchmark {
+
+    /** The number of bodies whose accelerations are calculated per call. */
+    private static final int SAMPLE = 1024;
+
+    /** The opening distance NBody uses with the legacy quad tree. */
+    private static final double THRESHOLD = 1000000.0;
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int n;
+
+    @Param({ "UNIFORM", "GAUSSIAN", "COLLISION" })
+    public Distribution distribution;
+
+    private BodyStore store;
+    private BoundingBox box;
+    private QuadTree tree;
+    private FlatQuadTree flat;
+    private Point[] sample;
+
+    @Setup
+    public void setUp() {
+        store = distribution.create(n, 42);
+        box = Bodies.boundingBox(store);
+        tree = insert();
+        flat = new FlatQuadTree();
+        sample = new Point[SAMPLE];
+        for (int k = 0; k < SAMPLE; k++) {
+            int i = (int) ((long) n * k / SAMPLE);
+            sample[k] = new Point(store.getXs()[i], store.getYs()[i]);
+        }
+    }
+
+    /** Builds the legacy quad tree a body at a time. */
+    @Benchmark
+    public QuadTree insert() {
+        double[] mass = store.getMasses();
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        QuadTree t = new QuadTree();
+        for (int i = 0; i < n; i++) {
+            t.insert(mass[i], new Point(x[i], y[i]), box);
+        }
+        return t;
+    }
+
+    /** Builds the flat quad tree in bulk, on the calling thread. */
+    @Benchmark
+    public FlatQuadTree build() {
+        flat.build(store.getMasses(), store.getXs(), store.getYs(), n, box, null);
+        return flat;
+    }
+
+    /** Calculates the acceleration on one body with the legacy quad tree. */
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE)
+    public void calculateAcceleration(Blackhole bh) {
+        for (Point p : sample) {
+            bh.consume(tree.calculateAcceleration(p, box, THRESHOLD));
+        }
+    }
+}
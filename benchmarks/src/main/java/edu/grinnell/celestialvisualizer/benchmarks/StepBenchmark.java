@@ -0,0 +1,72 @@
+package edu.grinnell.celestialvisualizer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.grinnell.celestialvisualizer.integrator.BlockTimesteps;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+
+/**
+ * A full step of a simulation with updateWithQuadTree: the tree build, the
+ * force calculation and the integration.  Every iteration starts again from
+ * the same bodies, so the iterations measure the same work.  The step is
+ * taken with Euler, or with BlockTimesteps, whose substeps share one tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class StepBenchmark {
+
+    /** The time step of CelestialVisualizer. */
+    private static final double ELAPSED_TIME = 50.0;
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int n;
+
+    @Param({ "UNIFORM", "GAUSSIAN", "COLLISION" })
+    public Distribution distribution;
+
+    @Param({ "false", "true" })
+    public boolean blockTimesteps;
+
+    private BodyStore bodies;
+    private NBody simulation;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        bodies = distribution.create(n, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        simulation = Bodies.simulation(bodies);
+        if (blockTimesteps) {
+            // The first step puts every body on the shortest substep, so
+            // take it here and measure the steps after the levels settle.
+            simulation.setIntegrator(new BlockTimesteps());
+            simulation.updateWithQuadTree(ELAPSED_TIME);
+        }
+    }
+
+    @Benchmark
+    public NBody updateWithQuadTree() {
+        simulation.updateWithQuadTree(ELAPSED_TIME);
+        return simulation;
+    }
+}
@@ -0,0 +1,262 @@
+package edu.grinnell.celestialvisualizer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.simulation.Snapshot;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+
+/**
+ * A BodyRaster draws the bodies of a snapshot as single pixels straight
+ * into the int[] raster of a BufferedImage, so that a frame of a million
+ * bodies costs a few passes over arrays and one drawImage rather than a
+ * million calls to fillOval.
+ *
+ * The bodies landing on each pixel are counted, and the counts are turned
+ * into brightness in one of two ways (see Mode): additively, so that every
+ * body adds the same amount of light until the pixel saturates, or as a
+ * density, on a logarithmic scale up to the most crowded pixel of the frame.
+ *
+ * The image is split into horizontal strips that can be drawn in parallel.
+ * The bodies are first sorted by strip with a counting sort over a fixed
+ * number of chunks, so every strip writes only to its own rows and the
+ * image does not depend on the pool.
+ */
+public class BodyRaster {
+
+    /** The ways the number of bodies on a pixel is turned into brightness. */
+    public enum Mode {
+        /** Every body adds the same brightness, up to white. */
+        ADDITIVE,
+        /** The brightness grows with the logarithm of the number of bodies,
+         *  reaching white at the most crowded pixel. */
+        DENSITY
+    }
+
+    /** The default brightness a body adds in ADDITIVE mode, out of 255. */
+    public static final int DEFAULT_GAIN = 96;
+
+    /** The number of chunks the bodies are split into. */
+    private static final int CHUNKS = 64;
+    /** The number of strips the image is split into. */
+    private static final int STRIPS = 64;
+    /** The fewest bodies worth splitting over the pool. */
+    private static final int MIN_PARALLEL = 16384;
+
+    private final int width;
+    private final int height;
+    private final int rowsPerStrip;
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final int[] counts;
+
+    private Mode mode = Mode.ADDITIVE;
+    private int gain = DEFAULT_GAIN;
+
+    // The pixel of every body, or -1 if it is off the image, and the
+    // pixels sorted by strip.
+    private int[] pixelOf = new int[0];
+    private int[] sorted = new int[0];
+    // The number of bodies of each chunk in each strip, then the index in
+    // sorted the bodies of each chunk in each strip start at.
+    private final int[][] chunkStrip = new int[CHUNKS][STRIPS];
+    private final int[] stripStart = new int[STRIPS + 1];
+    private final int[] stripMax = new int[STRIPS];
+
+    // The state of the current frame, read by the loop bodies.
+    private Snapshot snapshot;
+    private double scale;
+    private double offsetX;
+    private double offsetY;
+    private double logMax;
+
+    private final Parallel.RangeAction locate = this::locate;
+    private final Parallel.RangeAction scatter = this::scatter;
+    private final Parallel.RangeAction accumulate = this::accumulate;
+    private final Parallel.RangeAction shade = this::shade;
+
+    /**
+     * Constructs a raster of the given size.
+     * @param width the width of the image in pixels
+     * @param height the height of the image in pixels
+     */
+    public BodyRaster(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Size must be positive: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.rowsPerStrip = (height + STRIPS - 1) / STRIPS;
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.counts = new int[width * height];
+    }
+
+    /** @return the image the bodies are drawn into */
+    public BufferedImage getImage() { return image; }
+
+    /** @return the way the counts are turned into brightness */
+    public Mode getMode() { return mode; }
+
+    /**
+     * Sets the way the number of bodies on a pixel is turned into
+     * brightness.  By default this is ADDITIVE.
+     * @param mode the mode to use
+     * @return this raster
+     */
+    public BodyRaster setMode(Mode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Mode must not be null");
+        }
+        this.mode = mode;
+        return this;
+    }
+
+    /** @return the brightness a body adds in ADDITIVE mode */
+    public int getGain() { return gain; }
+
+    /**
+     * Sets the brightness, out of 255, each body adds in ADDITIVE mode.
+     * @param gain the brightness, from 1 to 255
+     * @return this raster
+     */
+    public BodyRaster setGain(int gain) {
+        if (gain < 1 || gain > 255) {
+            throw new IllegalArgumentException("Gain must be between 1 and 255: " + gain);
+        }
+        this.gain = gain;
+        return this;
+    }
+
+    /** @return the number of bodies drawn to the given pixel by the last
+     *  call to render */
+    public int getCount(int px, int py) { return counts[py * width + px]; }
+
+    /**
+     * Draws the bodies of the given snapshot into the image, replacing what
+     * was there.  The body at world position (x, y) lands on the pixel
+     * (x * scale + offsetX, y * scale + offsetY).
+     * @param snapshot the bodies to draw
+     * @param scale the number of pixels per unit of distance
+     * @param offsetX the pixel column of the world origin
+     * @param offsetY the pixel row of the world origin
+     * @param pool the pool to run on, or null to run on the calling thread
+     */
+    public void render(Snapshot snapshot, double scale, double offsetX, double offsetY,
+            ForkJoinPool pool) {
+        int n = snapshot.size();
+        if (pixelOf.length < n) {
+            pixelOf = new int[n];
+            sorted = new int[n];
+        }
+        this.snapshot = snapshot;
+        this.scale = scale;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        ForkJoinPool p = n < MIN_PARALLEL ? null : pool;
+
+        // Find the pixel of every body, and sort them by strip.
+        Parallel.forRange(p, CHUNKS, 1, locate);
+        int start = 0;
+        for (int s = 0; s < STRIPS; s++) {
+            stripStart[s] = start;
+            for (int c = 0; c < CHUNKS; c++) {
+                int count = chunkStrip[c][s];
+                chunkStrip[c][s] = start;
+                start += count;
+            }
+        }
+        stripStart[STRIPS] = start;
+        Parallel.forRange(p, CHUNKS, 1, scatter);
+
+        // Count the bodies on every pixel, then shade the pixels.
+        Parallel.forRange(pool, STRIPS, 1, accumulate);
+        int max = 0;
+        for (int s = 0; s < STRIPS; s++) {
+            max = Math.max(max, stripMax[s]);
+        }
+        logMax = Math.log1p(max);
+        Parallel.forRange(pool, STRIPS, 1, shade);
+        this.snapshot = null;
+    }
+
+    /** @return the index of the first body of the given chunk */
+    private int chunkStart(int chunk) {
+        return (int) ((long) snapshot.size() * chunk / CHUNKS);
+    }
+
+    /** Finds the pixels of the bodies of the chunks from (inclusive) to to
+     *  (exclusive), and counts them by strip. */
+    private void locate(int from, int to) {
+        for (int c = from; c < to; c++) {
+            int[] perStrip = chunkStrip[c];
+            Arrays.fill(perStrip, 0);
+            for (int i = chunkStart(c); i < chunkStart(c + 1); i++) {
+                double px = snapshot.getX(i) * scale + offsetX;
+                double py = snapshot.getY(i) * scale + offsetY;
+                // Written so that NaN positions fall off the image.
+                if (px >= 0 && px < width && py >= 0 && py < height) {
+                    int row = (int) py;
+                    pixelOf[i] = row * width + (int) px;
+                    perStrip[row / rowsPerStrip]++;
+                } else {
+                    pixelOf[i] = -1;
+                }
+            }
+        }
+    }
+
+    /** Copies the pixels of the bodies of the chunks from (inclusive) to to
+     *  (exclusive) to their places in sorted. */
+    private void scatter(int from, int to) {
+        for (int c = from; c < to; c++) {
+            int[] next = chunkStrip[c];
+            for (int i = chunkStart(c); i < chunkStart(c + 1); i++) {
+                int pixel = pixelOf[i];
+                if (pixel >= 0) {
+                    sorted[next[pixel / width / rowsPerStrip]++] = pixel;
+                }
+            }
+        }
+    }
+
+    /** @return the index of the first pixel of the given strip */
+    private int stripPixel(int strip) {
+        return Math.min(height, strip * rowsPerStrip) * width;
+    }
+
+    /** Counts the bodies on the pixels of the strips from (inclusive) to to
+     *  (exclusive). */
+    private void accumulate(int from, int to) {
+        for (int s = from; s < to; s++) {
+            Arrays.fill(counts, stripPixel(s), stripPixel(s + 1), 0);
+            int max = 0;
+            for (int k = stripStart[s]; k < stripStart[s + 1]; k++) {
+                max = Math.max(max, ++counts[sorted[k]]);
+            }
+            stripMax[s] = max;
+        }
+    }
+
+    /** Turns the counts of the pixels of the strips from (inclusive) to to
+     *  (exclusive) into grey levels. */
+    private void shade(int from, int to) {
+        boolean additive = mode == Mode.ADDITIVE;
+        for (int s = from; s < to; s++) {
+            for (int p = stripPixel(s); p < stripPixel(s + 1); p++) {
+                int count = counts[p];
+                int level;
+                if (count == 0) {
+                    level = 0;
+                } else if (additive) {
+                    level = (int) Math.min(255L, (long) count * gain);
+                } else {
+                    level = (int) (255 * Math.log1p(count) / logMax);
+                }
+                pixels[p] = level << 16 | level << 8 | level;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package edu.grinnell.celestialvisualizer;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.simulation.Snapshot;
+import edu.grinnell.celestialvisualizer.simulation.SnapshotExchange;
+
+public class BodyRasterTest {
+
+    private static Snapshot snapshotOf(BodyStore store) {
+        SnapshotExchange exchange = new SnapshotExchange();
+        exchange.publish(store, 0, 0.0);
+        return exchange.latest();
+    }
+
+    private static int[] pixels(BodyRaster raster) {
+        return raster.getImage().getRGB(0, 0, 100, 100, null, 0, 100);
+    }
+
+    @Test
+    public void testCountsAndShading() {
+        BodyStore store = new BodyStore();
+        for (int i = 0; i < 3; i++) {
+            store.add(1.0, 10.5, 20.5, 0.0, 0.0);
+        }
+        store.add(1.0, 30.0, 40.0, 0.0, 0.0);
+        store.add(1.0, -1.0, 0.0, 0.0, 0.0);
+        store.add(1.0, Double.NaN, 0.0, 0.0, 0.0);
+        BodyRaster raster = new BodyRaster(100, 100).setGain(100);
+        raster.render(snapshotOf(store), 1.0, 0.0, 0.0, null);
+        assertEquals(3, raster.getCount(10, 20));
+        assertEquals(1, raster.getCount(30, 40));
+        assertEquals(0, raster.getCount(0, 0));
+        // Three bodies saturate; one adds the gain.
+        assertEquals(0xFFFFFF, raster.getImage().getRGB(10, 20) & 0xFFFFFF);
+        assertEquals(100, raster.getImage().getRGB(30, 40) & 0xFF);
+
+        raster.setMode(BodyRaster.Mode.DENSITY).render(snapshotOf(store), 1.0, 0.0, 0.0, null);
+        assertEquals(255, raster.getImage().getRGB(10, 20) & 0xFF);
+        assertEquals((int) (255 * Math.log(2) / Math.log(4)), raster.getImage().getRGB(30, 40) & 0xFF);
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        Random random = new Random(7);
+        BodyStore store = new BodyStore();
+        for (int i = 0; i < 50000; i++) {
+            store.add(1.0, random.nextGaussian() * 30, random.nextGaussian() * 30, 0.0, 0.0);
+        }
+        Snapshot snapshot = snapshotOf(store);
+        BodyRaster raster = new BodyRaster(100, 100).setMode(BodyRaster.Mode.DENSITY);
+        raster.render(snapshot, 1.0, 50.0, 50.0, null);
+        int[] serial = pixels(raster);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            raster.render(snapshot, 1.0, 50.0, 50.0, pool);
+            assertTrue(Arrays.equals(serial, pixels(raster)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
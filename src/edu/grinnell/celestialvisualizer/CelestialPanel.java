@@ -4,14 +4,21 @@ package edu.grinnell.celestialvisualizer;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.JPanel;
 
-import edu.grinnell.celestialvisualizer.physics.Body;
-import edu.grinnell.celestialvisualizer.physics.NBody;
+import edu.grinnell.celestialvisualizer.simulation.Snapshot;
+import edu.grinnell.celestialvisualizer.simulation.SnapshotExchange;
 
 /**
- * The CelestialPanel renders a NBody simulation to the screen.
+ * The CelestialPanel renders a NBody simulation to the screen.  It draws the
+ * latest snapshot published to a SnapshotExchange, so it never touches the
+ * bodies while the simulation is moving them.
+ *
+ * Small systems are drawn a body at a time, as circles sized by mass.
+ * Systems of at least getRasterThreshold() bodies are drawn a pixel per
+ * body into a BodyRaster, which is then drawn to the screen in one go.
  */
 public class CelestialPanel extends JPanel {
 
@@ -20,25 +27,68 @@ public class CelestialPanel extends JPanel {
     /** The width and height of the panel. */
     public static final int DIMENSION = 1000;
 
-    private NBody model;
+    /** The default number of bodies from which the panel draws pixels
+     *  rather than circles. */
+    public static final int DEFAULT_RASTER_THRESHOLD = 10000;
+
+    /** The number of threads of the pool the panel draws the raster on by
+     *  default. */
+    public static final int RASTER_THREADS = 2;
+
+    private SnapshotExchange snapshots;
     private int width;
     private int height;
+    private final BodyRaster raster = new BodyRaster(DIMENSION, DIMENSION);
+    private int rasterThreshold = DEFAULT_RASTER_THRESHOLD;
+    // A pool of the panel's own, so that drawing neither waits behind the
+    // force calculations in the common pool nor takes threads from them.
+    // Its idle threads exit by themselves, so it is never shut down.
+    private ForkJoinPool rasterPool = new ForkJoinPool(RASTER_THREADS);
     
-    public CelestialPanel(NBody model) {
-        this.model = model;
+    public CelestialPanel(SnapshotExchange snapshots) {
+        this.snapshots = snapshots;
         this.width = DIMENSION;
         this.height = DIMENSION;
         setPreferredSize(new Dimension(width, height));
     }
     
+    /** @return the raster large systems are drawn with */
+    public BodyRaster getRaster() { return raster; }
+
+    /** @return the number of bodies from which the panel draws pixels */
+    public int getRasterThreshold() { return rasterThreshold; }
+
+    /**
+     * Sets the number of bodies from which the panel draws a pixel per body
+     * rather than a circle per body.
+     * @param threshold the number of bodies, or 0 to always draw pixels
+     */
+    public void setRasterThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative: " + threshold);
+        }
+        this.rasterThreshold = threshold;
+    }
+
+    /**
+     * Sets the pool the raster is drawn on.  By default this is a pool of
+     * RASTER_THREADS threads of the panel's own.  The common pool is the
+     * one the simulation calculates forces on, so drawing on it slows the
+     * simulation and waits for it.
+     * @param pool the pool to use, or null to draw on the event thread
+     */
+    public void setRasterPool(ForkJoinPool pool) {
+        this.rasterPool = pool;
+    }
+
     public static double worldToScreen(double d) {
         return d / NBodyExamples.DISTANCE * (DIMENSION / 2.0) + (DIMENSION / 2.0);
     }
     
-    private static void drawBody(Body b, Color c, Graphics g) {
-         double x = worldToScreen(b.getPosition().getX());
-         double y = worldToScreen(b.getPosition().getY());
-         double m = b.getMass();
+    private static void drawBody(Snapshot s, int i, Color c, Graphics g) {
+         double x = worldToScreen(s.getX(i));
+         double y = worldToScreen(s.getY(i));
+         double m = s.getMass(i);
          double r = m > 2.0e28 ? 10 : Math.max(Math.min(m / 2.0e18, 4), 2);
          g.setColor(c);
          g.fillOval((int) (x - r), (int) (y - r), (int) r * 2, (int) r * 2);
@@ -46,10 +96,20 @@ public class CelestialPanel extends JPanel {
     
     @Override
     public void paintComponent(Graphics g) {
+        Snapshot s = snapshots.latest();
+        if (s != null && s.size() >= rasterThreshold) {
+            double scale = (DIMENSION / 2.0) / NBodyExamples.DISTANCE;
+            raster.render(s, scale, DIMENSION / 2.0, DIMENSION / 2.0, rasterPool);
+            g.drawImage(raster.getImage(), 0, 0, null);
+            return;
+        }
         g.setColor(Color.BLACK);
         g.fillRect(0, 0, width, height);
-        for (Body b : model.getBodies()) {
-            drawBody(b, Color.WHITE, g);
+        if (s == null) {
+            return;
+        }
+        for (int i = 0; i < s.size(); i++) {
+            drawBody(s, i, Color.WHITE, g);
         }
     }
 }
@@ -1,14 +1,29 @@
 package edu.grinnell.celestialvisualizer;
 
+import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 import javax.swing.JFrame;
+import javax.swing.Timer;
 
+import edu.grinnell.celestialvisualizer.io.TrajectoryReader;
 import edu.grinnell.celestialvisualizer.physics.NBody;
+import edu.grinnell.celestialvisualizer.simulation.SimulationThread;
+import edu.grinnell.celestialvisualizer.simulation.SnapshotExchange;
+import edu.grinnell.celestialvisualizer.simulation.TrajectoryPlayer;
+import edu.grinnell.celestialvisualizer.solver.DirectSum;
 
+/**
+ * The visualizer shows NBodyExamples.collision as it is simulated, or,
+ * when given the path of a trajectory recorded by a TrajectoryRecorder,
+ * plays that back without simulating anything.  In playback the space bar
+ * pauses and resumes, the left and right arrows seek back and forward by a
+ * twentieth of the recording, the up and down arrows double and halve the
+ * speed, and I turns interpolation between frames on and off.
+ */
 public class CelestialVisualizer {
     
     /** The time step used for the simulation.  Every update will be made
@@ -19,23 +34,29 @@ public class CelestialVisualizer {
      * the naive updating algorithm. */
     private static final boolean USE_QTREE = true;
     
-    /** The NBody model that we will use for the simulation */
-    private static final NBody MODEL = NBodyExamples.COLLISION;
-    
-    /** The frames per second of the simulation, i.e., how often we update */
+    /** The frames per second of the display, i.e., how often we repaint */
     private static final int FPS = 60;
     
-    public static void main(String[] args) {
-        // Construct our frame and panel and make it all visible.
-        final JFrame frame = new JFrame();
-        final NBody simulation = MODEL;
-        CelestialPanel panel = new CelestialPanel(simulation);
-        frame.setTitle("Celestial Visualizer");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.add(panel);
-        frame.pack();
-        frame.setResizable(false);
-        frame.setVisible(true);
+    /** The updates per second the simulation aims for, or 0 to update as
+     * fast as possible.  The simulation runs on a thread of its own, so
+     * this is independent of FPS. */
+    private static final double STEPS_PER_SECOND = 0.0;
+    
+    /** The seconds a recording takes to play back at the starting speed. */
+    private static final double PLAYBACK_SECONDS = 60.0;
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            play(args[0]);
+            return;
+        }
+        
+        // Built only now, since playback simulates nothing.
+        final NBody simulation = NBodyExamples.collision();
+        final SimulationThread runner = new SimulationThread(simulation,
+                USE_QTREE ? simulation.getBarnesHut() : new DirectSum(), ELAPSED_TIME)
+                .setTargetRate(STEPS_PER_SECOND);
+        final JFrame frame = show(runner.getSnapshots());
         
         // Add a key listener so that we'll start the simulation when
         // the user presses the space bar.
@@ -51,21 +72,84 @@ public class CelestialVisualizer {
             public void keyReleased(KeyEvent e) {
                 if (!startedSimulation && e.getKeyCode() == KeyEvent.VK_SPACE) {
                     startedSimulation = true;
-                    Timer timer = new Timer();
-                    timer.schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            if (USE_QTREE) {
-                                simulation.updateWithQuadTree(ELAPSED_TIME);
-                            } else {
-                                simulation.update(ELAPSED_TIME);
-                            }
-                            frame.repaint();
-                        }
-                    }, 0,  1000 / FPS);
+                    runner.start();
                 }
             }
         });
 
     }
+    
+    /**
+     * Plays back the trajectory recorded in the given file.
+     * @param path the file holding the trajectory
+     * @throws IOException if the trajectory cannot be read
+     */
+    private static void play(String path) throws IOException {
+        final TrajectoryReader reader = new TrajectoryReader(Paths.get(path));
+        final TrajectoryPlayer player = new TrajectoryPlayer(reader)
+                .setFrameRate(FPS);
+        final double duration = player.getEndTime() - player.getStartTime();
+        final double startSpeed = duration / PLAYBACK_SECONDS;
+        final JFrame frame = show(player.getSnapshots());
+        frame.addKeyListener(new KeyAdapter() {
+            private double speed = startSpeed;
+            
+            @Override
+            public void keyReleased(KeyEvent e) {
+                switch (e.getKeyCode()) {
+                case KeyEvent.VK_SPACE:
+                    player.setSpeed(player.getSpeed() > 0 ? 0.0 : speed);
+                    break;
+                case KeyEvent.VK_LEFT:
+                    player.seek(player.getTime() - duration / 20);
+                    break;
+                case KeyEvent.VK_RIGHT:
+                    player.seek(player.getTime() + duration / 20);
+                    break;
+                case KeyEvent.VK_UP:
+                    speed *= 2;
+                    player.setSpeed(player.getSpeed() > 0 ? speed : 0.0);
+                    break;
+                case KeyEvent.VK_DOWN:
+                    speed /= 2;
+                    player.setSpeed(player.getSpeed() > 0 ? speed : 0.0);
+                    break;
+                case KeyEvent.VK_I:
+                    player.setInterpolating(!player.isInterpolating());
+                    break;
+                default:
+                    break;
+                }
+            }
+        });
+        player.start();
+    }
+    
+    /**
+     * Makes a window showing the snapshots published to the given exchange
+     * visible.
+     * @param snapshots the exchange to show the latest snapshot of
+     * @return the window
+     */
+    private static JFrame show(final SnapshotExchange snapshots) {
+        // Construct our frame and panel and make it all visible.
+        final JFrame frame = new JFrame();
+        CelestialPanel panel = new CelestialPanel(snapshots);
+        frame.setTitle("Celestial Visualizer");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.add(panel);
+        frame.pack();
+        frame.setResizable(false);
+        frame.setVisible(true);
+        
+        // Repaint at a steady rate whatever the simulation is doing, when
+        // it has published something new.  Each repaint draws the latest
+        // snapshot.
+        new Timer(1000 / FPS, e -> {
+            if (snapshots.hasFresh()) {
+                frame.repaint();
+            }
+        }).start();
+        return frame;
+    }
 }
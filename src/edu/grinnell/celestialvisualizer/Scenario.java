@@ -0,0 +1,223 @@
+package edu.grinnell.celestialvisualizer;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.Body;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.Physics;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+
+/**
+ * The layouts of bodies that sample systems are generated from, at any
+ * number of bodies.  Every layout is drawn from a seeded generator, so the
+ * same number of bodies and seed always give the same bodies, bit for bit.
+ *
+ * The bodies are generated straight into the columns of a BodyStore, in
+ * chunks of CHUNK_SIZE bodies that are filled in parallel.  Each chunk
+ * draws from a generator of its own, split from the seeded one in the order
+ * of the chunks, so the bodies do not depend on the pool or on which thread
+ * fills which chunk.
+ */
+public enum Scenario {
+
+    /** Light bodies spread evenly over a square, at rest. */
+    UNIFORM {
+        @Override
+        void fill(int from, int to, int n, SplittableRandom random, Columns c) {
+            double side = NBodyExamples.DISTANCE;
+            for (int i = from; i < to; i++) {
+                c.set(i, lightMass(random), (random.nextDouble() - 0.5) * side,
+                        (random.nextDouble() - 0.5) * side, 0.0, 0.0);
+            }
+        }
+    },
+
+    /** A sun at the origin with light bodies in a roughly Gaussian blob
+     *  around it on circular orbits, as made by makeLots of old. */
+    GALAXY {
+        @Override
+        void fill(int from, int to, int n, SplittableRandom random, Columns c) {
+            for (int i = from; i < to; i++) {
+                galaxy(i, i, SUN_MASS, 0.0, 0.0, 0.0, 0.0, random, c);
+            }
+        }
+    },
+
+    /** The sun and planets of NBodyExamples.SOLAR_SYSTEM, with any further
+     *  bodies in an asteroid belt between Mars and Jupiter. */
+    SOLAR_SYSTEM {
+        @Override
+        void fill(int from, int to, int n, SplittableRandom random, Columns c) {
+            Body[] planets = NBodyExamples.SOLAR_BODIES;
+            for (int i = from; i < to; i++) {
+                if (i < planets.length) {
+                    Body b = planets[i];
+                    c.set(i, b.getMass(), b.getPosition().getX(), b.getPosition().getY(),
+                            b.getVelocity().getX(), b.getVelocity().getY());
+                } else {
+                    double r = BELT_INNER + random.nextDouble() * (BELT_OUTER - BELT_INNER);
+                    double theta = random.nextDouble() * 2 * Math.PI;
+                    double x = r * Math.cos(theta);
+                    double y = r * Math.sin(theta);
+                    double m = lightMass(random);
+                    double v = orbitalSpeed(m, SUN_MASS, r);
+                    c.set(i, m, x, y, -v * y / r, v * x / r);
+                }
+            }
+        }
+    },
+
+    /** Two galaxies, around a sun and a lighter star passing each other,
+     *  with the bodies split between them as in NBodyExamples.collision. */
+    COLLISION {
+        @Override
+        void fill(int from, int to, int n, SplittableRandom random, Columns c) {
+            double starMass = SUN_MASS * 0.1;
+            double d = NBodyExamples.DISTANCE / 4;
+            // The star's galaxy moves at 0.9 times the circular speed
+            // around the sun, along the tangent to the line between them.
+            double dx = 2 * d;
+            double dy = d;
+            double r = Math.sqrt(dx * dx + dy * dy);
+            double v = 0.9 * orbitalSpeed(starMass, SUN_MASS, r);
+            // The 1001 bodies of the sun's galaxy to the star's 301.
+            int sunBodies = (int) (n * 10L / 13);
+            for (int i = from; i < to; i++) {
+                if (i < sunBodies) {
+                    galaxy(i, i, SUN_MASS, d, 0.0, 0.0, 0.0, random, c);
+                } else {
+                    galaxy(i, i - sunBodies, starMass, -d, -d, -v * dy / r, v * dx / r, random, c);
+                }
+            }
+        }
+    };
+
+    /** The number of bodies generated from each split of the generator. */
+    public static final int CHUNK_SIZE = 1 << 16;
+
+    private static final double SUN_MASS = 2.0e30;
+    /** The number of uniform samples summed for each Gaussian one. */
+    private static final int NUM_GAUSSIAN_ITERS = 10;
+    /** The spread of the positions in a galaxy. */
+    private static final double GALAXY_SPREAD = NBodyExamples.DISTANCE * 2;
+    private static final double BELT_INNER = 3.0e8;
+    private static final double BELT_OUTER = 6.0e8;
+
+    /** The columns of the store being filled, written by the chunks. */
+    static final class Columns {
+        private final double[] mass;
+        private final double[] x;
+        private final double[] y;
+        private final double[] vx;
+        private final double[] vy;
+
+        Columns(int n) {
+            mass = new double[n];
+            x = new double[n];
+            y = new double[n];
+            vx = new double[n];
+            vy = new double[n];
+        }
+
+        /** Sets the state of the ith body. */
+        void set(int i, double m, double px, double py, double pvx, double pvy) {
+            mass[i] = m;
+            x[i] = px;
+            y[i] = py;
+            vx[i] = pvx;
+            vy[i] = pvy;
+        }
+    }
+
+    /**
+     * @return a store of n bodies laid out this way, generated on the
+     * common pool
+     * @param n the number of bodies, counting any suns and stars
+     * @param seed the seed of the generator
+     */
+    public BodyStore create(int n, long seed) {
+        return create(n, seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return a store of n bodies laid out this way
+     * @param n the number of bodies, counting any suns and stars
+     * @param seed the seed of the generator
+     * @param pool the pool to generate on, or null to generate on the
+     * calling thread; the bodies are the same either way
+     */
+    public BodyStore create(int n, long seed, ForkJoinPool pool) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Number of bodies must not be negative: " + n);
+        }
+        int chunks = (int) (((long) n + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for (int k = 0; k < chunks; k++) {
+            randoms[k] = root.split();
+        }
+        Columns c = new Columns(n);
+        Parallel.forRange(pool, chunks, 1, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                int start = k * CHUNK_SIZE;
+                fill(start, Math.min(n, start + CHUNK_SIZE), n, randoms[k], c);
+            }
+        });
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+        }
+        return new BodyStore(n, c.mass, c.x, c.y, c.vx, c.vy, ids);
+    }
+
+    /**
+     * Generates the bodies from (inclusive) to to (exclusive) of n.
+     * @param random the generator of the chunk
+     * @param c the columns to write the bodies to
+     */
+    abstract void fill(int from, int to, int n, SplittableRandom random, Columns c);
+
+    /**
+     * Generates the ith body of the store as the kth body of a galaxy
+     * around a star at (cx, cy) moving with velocity (vx, vy): the star
+     * itself if k is 0, or else a light body on a circular orbit around it.
+     */
+    private static void galaxy(int i, int k, double starMass, double cx, double cy,
+            double vx, double vy, SplittableRandom random, Columns c) {
+        if (k == 0) {
+            c.set(i, starMass, cx, cy, vx, vy);
+            return;
+        }
+        double m = lightMass(random);
+        double x = sampleGaussian(GALAXY_SPREAD, random);
+        double y = sampleGaussian(GALAXY_SPREAD, random);
+        double r = Math.sqrt(x * x + y * y);
+        double w = r > 0 ? orbitalSpeed(m, starMass, r) / r : 0.0;
+        c.set(i, m, cx + x, cy + y, vx - w * y, vy + w * x);
+    }
+
+    /** @return the mass of a light body */
+    private static double lightMass(SplittableRandom random) {
+        return random.nextDouble(1000.0) * 1e13;
+    }
+
+    /** @return a sample from a roughly Gaussian distribution of the given
+     *  width centered at 0, the sum of a few uniform samples */
+    private static double sampleGaussian(double d, SplittableRandom random) {
+        double k = d / NUM_GAUSSIAN_ITERS;
+        double acc = 0.0;
+        for (int i = 0; i < NUM_GAUSSIAN_ITERS; i++) {
+            acc += random.nextDouble(k);
+        }
+        return acc - d / 2;
+    }
+
+    /**
+     * @return the speed needed to put a body of mass m into a circular
+     * orbit around a star of mass starMass at radius r
+     */
+    private static double orbitalSpeed(double m, double starMass, double r) {
+        return Math.sqrt(starMass * starMass * Physics.G / ((m + starMass) * r));
+    }
+}
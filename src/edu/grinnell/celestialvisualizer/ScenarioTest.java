@@ -0,0 +1,54 @@
+package edu.grinnell.celestialvisualizer;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+
+public class ScenarioTest {
+
+    private static void assertSameBodies(BodyStore expected, BodyStore actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getMasses()[i], actual.getMasses()[i], 0.0);
+            assertEquals(expected.getXs()[i], actual.getXs()[i], 0.0);
+            assertEquals(expected.getYs()[i], actual.getYs()[i], 0.0);
+            assertEquals(expected.getVelocityXs()[i], actual.getVelocityXs()[i], 0.0);
+            assertEquals(expected.getVelocityYs()[i], actual.getVelocityYs()[i], 0.0);
+            assertEquals(i, actual.getId(i));
+        }
+    }
+
+    @Test
+    public void testBodiesDoNotDependOnThePool() {
+        int n = 3 * Scenario.CHUNK_SIZE + 17;
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (Scenario scenario : Scenario.values()) {
+                BodyStore serial = scenario.create(n, 42, null);
+                assertSameBodies(serial, scenario.create(n, 42, pool));
+                assertSameBodies(serial, scenario.create(n, 42, ForkJoinPool.commonPool()));
+                assertNotEquals(serial.getXs()[n - 1], scenario.create(n, 43, null).getXs()[n - 1], 0.0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPresets() {
+        BodyStore collision = NBodyExamples.collision().getStore();
+        assertEquals(NBodyExamples.COLLISION_BODIES, collision.size());
+        // A sun with 1000 bodies, then a star with 300.
+        assertEquals(2.0e30, collision.getMasses()[0], 0.0);
+        assertEquals(2.0e30 * 0.1, collision.getMasses()[1001], 0.0);
+        assertSameBodies(collision, NBodyExamples.collision().getStore());
+
+        BodyStore solar = Scenario.SOLAR_SYSTEM.create(100, 1);
+        assertEquals(NBodyExamples.SOLAR_SYSTEM.getStore().getMasses()[3], solar.getMasses()[3], 0.0);
+        assertEquals(NBodyExamples.SOLAR_SYSTEM.getStore().getXs()[3], solar.getXs()[3], 0.0);
+    }
+}
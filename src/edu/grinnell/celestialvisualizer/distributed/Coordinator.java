@@ -0,0 +1,530 @@
+package edu.grinnell.celestialvisualizer.distributed;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.solver.BarnesHut;
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.SpaceFillingCurve;
+
+/**
+ * A Coordinator runs a simulation split over several Worker processes, one
+ * per domain.  The domains are runs of keys along a space-filling curve
+ * laid over the box the bodies start in, so each is a compact patch of
+ * space, and the bodies move from domain to domain as they cross the
+ * boundaries (see Worker for what happens in a step).
+ *
+ * The workers connect to the coordinator over sockets, and every message
+ * between them is relayed through it: the bodies moving between domains,
+ * the bounding boxes of the domains, and the essential trees each domain
+ * sends the others.  The domains start with equal numbers of bodies.
+ * Every few steps the coordinator moves the boundaries so that each domain
+ * gets an equal share of the cost of the last step, as measured by the
+ * interactions each worker evaluated and spread over a sample of its keys.
+ *
+ * Only Euler steps are taken, and the opening angle is that of BarnesHut.
+ */
+public class Coordinator implements AutoCloseable {
+
+    /** The default number of steps between rebalancings. */
+    public static final int DEFAULT_REBALANCE_INTERVAL = 10;
+
+    /** How long start waits for the workers to connect. */
+    private static final long ACCEPT_TIMEOUT_MILLIS = 60000;
+
+    private final BodyStore bodies;
+    private final int workers;
+    private final double elapsedTime;
+    private double theta = BarnesHut.DEFAULT_THETA;
+    private SpaceFillingCurve curve = SpaceFillingCurve.HILBERT;
+    private int rebalanceInterval = DEFAULT_REBALANCE_INTERVAL;
+
+    private ServerSocketChannel server;
+    private Link[] links;
+    private BoundingBox keyBox;
+    private final long[] splitters;
+    private final long[] costs;
+    private final int[] sizes;
+    private final long[][] samples;
+    private final int[][] segmentOffsets;
+    private final int[][] segmentCounts;
+    private long steps;
+    private int rebalances;
+    private boolean closed;
+
+    /**
+     * Constructs a coordinator of a simulation of the given bodies.
+     * @param bodies the bodies at the start of the simulation, which are
+     * sent to the workers by start and not read again
+     * @param workers the number of workers, one per domain
+     * @param elapsedTime the time step of the simulation
+     */
+    public Coordinator(BodyStore bodies, int workers, double elapsedTime) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + workers);
+        }
+        this.bodies = bodies;
+        this.workers = workers;
+        this.elapsedTime = elapsedTime;
+        this.splitters = new long[workers + 1];
+        this.costs = new long[workers];
+        this.sizes = new int[workers];
+        this.samples = new long[workers][];
+        this.segmentOffsets = new int[workers][workers];
+        this.segmentCounts = new int[workers][workers];
+    }
+
+    /** @return the opening angle */
+    public double getTheta() { return theta; }
+
+    /**
+     * Sets the opening angle the workers walk their trees with and cut
+     * their essential trees by.
+     * @param theta the opening angle, which must not be negative
+     * @return this coordinator
+     */
+    public Coordinator setTheta(double theta) {
+        checkNotStarted();
+        if (!(theta >= 0)) {
+            throw new IllegalArgumentException("Theta must not be negative: " + theta);
+        }
+        this.theta = theta;
+        return this;
+    }
+
+    /** @return the curve the domains are cut along */
+    public SpaceFillingCurve getCurve() { return curve; }
+
+    /**
+     * Sets the curve the domains are cut along.  By default this is
+     * HILBERT, whose runs are more compact than those of MORTON.
+     * @param curve the curve
+     * @return this coordinator
+     */
+    public Coordinator setCurve(SpaceFillingCurve curve) {
+        checkNotStarted();
+        if (curve == null) {
+            throw new IllegalArgumentException("Curve must not be null");
+        }
+        this.curve = curve;
+        return this;
+    }
+
+    /** @return the number of steps between rebalancings */
+    public int getRebalanceInterval() { return rebalanceInterval; }
+
+    /**
+     * Sets how often the domains are rebalanced.
+     * @param interval the number of steps between rebalancings, or 0 to
+     * keep the domains the bodies start in
+     * @return this coordinator
+     */
+    public Coordinator setRebalanceInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Rebalance interval must not be negative: " + interval);
+        }
+        this.rebalanceInterval = interval;
+        return this;
+    }
+
+    /** @return the number of workers */
+    public int getWorkerCount() { return workers; }
+
+    /** @return the number of steps taken */
+    public long getStepCount() { return steps; }
+
+    /** @return the number of times the domains have been rebalanced */
+    public int getRebalanceCount() { return rebalances; }
+
+    /** @return the first key of each domain, followed by one past the last
+     *  key of the last domain */
+    public long[] getSplitters() { return splitters.clone(); }
+
+    /** @return the interactions evaluated by each worker in the last step */
+    public long[] getDomainCosts() { return costs.clone(); }
+
+    /** @return the number of bodies in each domain after the last step */
+    public int[] getDomainSizes() { return sizes.clone(); }
+
+    /**
+     * Starts listening for workers at the given address.
+     * @param address the address to listen at; port 0 picks a free port
+     * @return the address listened at, for the workers to connect to
+     * @throws IOException if the address cannot be bound
+     */
+    public InetSocketAddress bind(InetSocketAddress address) throws IOException {
+        checkNotStarted();
+        if (server != null) {
+            throw new IllegalStateException("Coordinator is already bound");
+        }
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /**
+     * Waits for the workers to connect, splits the bodies into domains of
+     * equal size, and sends each worker its domain.
+     * @throws IOException if the workers do not all connect in time
+     */
+    public void start() throws IOException {
+        checkNotStarted();
+        if (server == null) {
+            throw new IllegalStateException("Coordinator is not bound");
+        }
+        int n = bodies.size();
+        keyBox = keyBox(bodies);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = curve.key(bodies.getXs()[i], bodies.getYs()[i], keyBox);
+        }
+        long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        splitters[0] = 0;
+        splitters[workers] = Long.MAX_VALUE;
+        for (int j = 1; j < workers; j++) {
+            splitters[j] = n == 0 ? Long.MAX_VALUE : sorted[(int) ((long) j * n / workers)];
+        }
+
+        links = accept();
+        for (int j = 0; j < workers; j++) {
+            Link link = links[j];
+            link.putDouble(elapsedTime).putDouble(theta).putInt(curve.ordinal());
+            link.putDouble(keyBox.getMinX()).putDouble(keyBox.getMinY())
+                    .putDouble(keyBox.getMaxX()).putDouble(keyBox.getMaxY());
+            link.putInt(j).putInt(workers);
+            int position = link.position();
+            link.putInt(0);
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                if (Domains.owner(keys[i], splitters) == j) {
+                    Domains.putBody(link, bodies, i, bodies.getId(i));
+                    count++;
+                }
+            }
+            link.setInt(position, count);
+            sizes[j] = count;
+            link.send(Link.INIT);
+        }
+    }
+
+    /**
+     * @return the box the curve is laid over: the box around the bodies,
+     * widened by half its size on every side so that bodies keep distinct
+     * keys as the system spreads out
+     */
+    private static BoundingBox keyBox(BodyStore store) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < store.size(); i++) {
+            minX = Math.min(minX, store.getXs()[i]);
+            minY = Math.min(minY, store.getYs()[i]);
+            maxX = Math.max(maxX, store.getXs()[i]);
+            maxY = Math.max(maxY, store.getYs()[i]);
+        }
+        if (minX > maxX) {
+            return new BoundingBox(-0.5, -0.5, 0.5, 0.5);
+        }
+        double margin = Math.max(Math.max(maxX - minX, maxY - minY) / 2, 1.0);
+        return new BoundingBox(minX - margin, minY - margin, maxX + margin, maxY + margin);
+    }
+
+    /** @return links to the workers, once they have all connected */
+    private Link[] accept() throws IOException {
+        Link[] accepted = new Link[workers];
+        long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT_MILLIS;
+        server.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            int count = 0;
+            while (count < workers) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    for (int j = 0; j < count; j++) {
+                        accepted[j].close();
+                    }
+                    throw new IOException("Only " + count + " of " + workers
+                            + " workers connected");
+                }
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+                SocketChannel channel;
+                while (count < workers && (channel = server.accept()) != null) {
+                    accepted[count++] = new Link(channel);
+                }
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Takes one step of the simulation, rebalancing the domains afterwards
+     * if it is time to.
+     * @throws IOException if a worker fails
+     */
+    public void step() throws IOException {
+        checkStarted();
+        for (Link link : links) {
+            for (long s : splitters) {
+                link.putLong(s);
+            }
+            link.send(Link.STEP);
+        }
+
+        // Pass on the bodies that have left their domains.
+        receiveSegments(Link.MIGRATE, Domains.BODY_BYTES);
+        relaySegments(Link.ARRIVALS, Domains.BODY_BYTES);
+
+        // Pass on the boxes of the domains, then the essential trees cut
+        // to fit them.
+        for (Link link : links) {
+            link.receive(Link.BOX);
+        }
+        for (Link link : links) {
+            for (Link from : links) {
+                link.putBytes(from.incoming().duplicate());
+            }
+            link.send(Link.BOXES);
+        }
+        receiveSegments(Link.EXPORT, Domains.PARTICLE_BYTES);
+        relaySegments(Link.IMPORT, Domains.PARTICLE_BYTES);
+
+        for (int j = 0; j < workers; j++) {
+            ByteBuffer in = links[j].receive(Link.DONE);
+            costs[j] = in.getLong();
+            sizes[j] = in.getInt();
+            samples[j] = new long[in.getInt()];
+            in.asLongBuffer().get(samples[j]);
+        }
+        steps++;
+        if (rebalanceInterval > 0 && steps % rebalanceInterval == 0) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Receives from every worker a message of one segment per worker, each
+     * a count followed by that many records of the given size, and notes
+     * where the segments lie in the incoming buffers.
+     */
+    private void receiveSegments(int type, int recordBytes) throws IOException {
+        for (int i = 0; i < workers; i++) {
+            ByteBuffer in = links[i].receive(type);
+            for (int j = 0; j < workers; j++) {
+                int count = in.getInt();
+                if (count < 0 || (long) count * recordBytes > in.remaining()) {
+                    throw new IOException("Bad segment of " + count + " records from worker " + i);
+                }
+                segmentCounts[i][j] = count;
+                segmentOffsets[i][j] = in.position();
+                in.position(in.position() + count * recordBytes);
+            }
+        }
+    }
+
+    /**
+     * Sends every worker the segments the others addressed to it, as a
+     * count followed by the records.
+     */
+    private void relaySegments(int type, int recordBytes) throws IOException {
+        for (int j = 0; j < workers; j++) {
+            int total = 0;
+            for (int i = 0; i < workers; i++) {
+                total += segmentCounts[i][j];
+            }
+            Link link = links[j];
+            link.putInt(total);
+            for (int i = 0; i < workers; i++) {
+                ByteBuffer segment = links[i].incoming().duplicate();
+                segment.limit(segmentOffsets[i][j] + segmentCounts[i][j] * recordBytes);
+                segment.position(segmentOffsets[i][j]);
+                link.putBytes(segment);
+            }
+            link.send(type);
+        }
+    }
+
+    /**
+     * Moves the splitters so that each domain gets an equal share of the
+     * cost of the last step.  Each worker's cost is spread evenly over its
+     * sampled keys, and the splitters are placed where the running total
+     * of the samples' weights, in key order, crosses each share.
+     */
+    private void rebalance() {
+        int count = 0;
+        for (long[] s : samples) {
+            count += s.length;
+        }
+        long[] keys = new long[count];
+        double[] weights = new double[count];
+        double total = 0;
+        int k = 0;
+        for (int i = 0; i < workers; i++) {
+            for (long key : samples[i]) {
+                keys[k] = key;
+                weights[k] = (double) costs[i] / samples[i].length;
+                total += weights[k];
+                k++;
+            }
+        }
+        if (!(total > 0)) {
+            return;
+        }
+
+        Integer[] order = new Integer[count];
+        for (int a = 0; a < count; a++) {
+            order[a] = a;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+        double sum = 0;
+        int j = 1;
+        for (int a = 0; a < count && j < workers; a++) {
+            sum += weights[order[a]];
+            while (j < workers && sum >= total * j / workers) {
+                splitters[j++] = a + 1 < count ? keys[order[a + 1]] : Long.MAX_VALUE;
+            }
+        }
+        while (j < workers) {
+            splitters[j++] = Long.MAX_VALUE;
+        }
+        rebalances++;
+    }
+
+    /**
+     * @return a store of every body of the simulation, in id order, as the
+     * workers hold them now
+     * @throws IOException if a worker fails
+     */
+    public BodyStore gather() throws IOException {
+        checkStarted();
+        for (Link link : links) {
+            link.send(Link.GATHER);
+        }
+        int n = bodies.size();
+        double[] mass = new double[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] vx = new double[n];
+        double[] vy = new double[n];
+        int[] ids = new int[n];
+        Arrays.fill(ids, -1);
+        int received = 0;
+        for (Link link : links) {
+            ByteBuffer in = link.receive(Link.BODIES);
+            int count = in.getInt();
+            for (int k = 0; k < count; k++) {
+                // Each body goes in the slot of its id.
+                int id = in.getInt(in.position());
+                if (id < 0 || id >= n || ids[id] != -1) {
+                    throw new IOException("Bad or repeated body id " + id);
+                }
+                ids[id] = Domains.getBody(in, id, mass, x, y, vx, vy);
+            }
+            received += count;
+        }
+        if (received != n) {
+            throw new IOException("Workers hold " + received + " of " + n + " bodies");
+        }
+        return new BodyStore(n, mass, x, y, vx, vy, ids);
+    }
+
+    private void checkNotStarted() {
+        if (links != null) {
+            throw new IllegalStateException("Coordinator has already been started");
+        }
+    }
+
+    private void checkStarted() {
+        if (links == null || closed) {
+            throw new IllegalStateException("Coordinator has not been started");
+        }
+    }
+
+    /**
+     * Tells the workers to stop, and closes the connections to them.  Does
+     * nothing if the coordinator is already closed.
+     * @throws IOException if a connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException failure = null;
+        if (links != null) {
+            for (Link link : links) {
+                try {
+                    link.send(Link.STOP);
+                } catch (IOException e) {
+                    // The worker is gone already.
+                }
+                try {
+                    link.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (server != null) {
+            server.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs a distributed simulation on worker processes on this host,
+     * reporting the time and domain sizes of every step.
+     * @param args the number of workers, the number of bodies, the number
+     * of steps, and optionally the Scenario to generate the bodies from
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: Coordinator <workers> <bodies> <steps> [scenario]");
+            System.exit(1);
+        }
+        int workers = Integer.parseInt(args[0]);
+        int n = Integer.parseInt(args[1]);
+        int steps = Integer.parseInt(args[2]);
+        Scenario scenario = args.length > 3 ? Scenario.valueOf(args[3]) : Scenario.GALAXY;
+        BodyStore bodies = scenario.create(n, 0L);
+        Coordinator coordinator = new Coordinator(bodies, workers, 50.0);
+        LocalCluster cluster = null;
+        try {
+            InetSocketAddress address = coordinator.bind(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            cluster = LocalCluster.launch(address, workers);
+            coordinator.start();
+            for (int s = 0; s < steps; s++) {
+                long start = System.nanoTime();
+                coordinator.step();
+                System.out.printf("step %d: %.1f ms, sizes %s, costs %s%n", s + 1,
+                        (System.nanoTime() - start) / 1e6,
+                        Arrays.toString(coordinator.getDomainSizes()),
+                        Arrays.toString(coordinator.getDomainCosts()));
+            }
+        } finally {
+            // Stop the workers before the cluster is torn down.
+            try {
+                coordinator.close();
+            } finally {
+                if (cluster != null) {
+                    cluster.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package edu.grinnell.celestialvisualizer.distributed;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+
+public class DistributedTest {
+
+    @Test
+    public void testWorkersMatchASingleProcess() throws Exception {
+        int n = 3000;
+        int steps = 3;
+        double dt = 50.0;
+        BodyStore start = Scenario.GALAXY.create(n, 5);
+        NBody reference = new NBody(Scenario.GALAXY.create(n, 5));
+        for (int s = 0; s < steps; s++) {
+            reference.update(dt);
+        }
+
+        BodyStore gathered;
+        Coordinator coordinator = new Coordinator(Scenario.GALAXY.create(n, 5), 3, dt)
+                .setTheta(0.3).setRebalanceInterval(1);
+        LocalCluster cluster = null;
+        try {
+            InetSocketAddress address = coordinator.bind(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            cluster = LocalCluster.launch(address, 3);
+            coordinator.start();
+            for (int s = 0; s < steps; s++) {
+                coordinator.step();
+            }
+            gathered = coordinator.gather();
+            assertEquals(steps, coordinator.getRebalanceCount());
+            int total = 0;
+            for (int size : coordinator.getDomainSizes()) {
+                assertTrue(size > 0);
+                total += size;
+            }
+            assertEquals(n, total);
+        } finally {
+            try {
+                coordinator.close();
+            } finally {
+                if (cluster != null) {
+                    cluster.close();
+                }
+            }
+        }
+
+        // The changes in velocity agree with a direct sum to within the
+        // error of the tree walk.
+        BodyStore expected = reference.getStore();
+        double error = 0.0;
+        double scale = 0.0;
+        for (int id = 0; id < n; id++) {
+            int i = expected.indexOf(id);
+            assertEquals(expected.getMasses()[i], gathered.getMasses()[id], 0.0);
+            double ex = expected.getVelocityXs()[i] - start.getVelocityXs()[id];
+            double ey = expected.getVelocityYs()[i] - start.getVelocityYs()[id];
+            double dx = gathered.getVelocityXs()[id] - start.getVelocityXs()[id] - ex;
+            double dy = gathered.getVelocityYs()[id] - start.getVelocityYs()[id] - ey;
+            error += dx * dx + dy * dy;
+            scale += ex * ex + ey * ey;
+        }
+        assertTrue("Relative error " + Math.sqrt(error / scale), error < 1e-4 * scale);
+    }
+}
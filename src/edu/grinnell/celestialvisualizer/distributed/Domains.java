@@ -0,0 +1,82 @@
+package edu.grinnell.celestialvisualizer.distributed;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+
+/**
+ * Helpers shared by the coordinator and the workers for splitting space
+ * into domains along a space-filling curve.
+ *
+ * Domain j holds the bodies whose keys lie from splitters[j] (inclusive)
+ * to splitters[j + 1] (exclusive); splitters[0] is 0, below every key, and
+ * the last splitter is Long.MAX_VALUE, above every key.
+ */
+final class Domains {
+
+    /** The bytes of a body on the wire: its id, mass, position and
+     *  velocity. */
+    static final int BODY_BYTES = Integer.BYTES + 5 * Double.BYTES;
+    /** The bytes of a body or centroid of an essential tree on the wire:
+     *  its mass and position. */
+    static final int PARTICLE_BYTES = 3 * Double.BYTES;
+    /** The most keys a worker samples for rebalancing. */
+    static final int SAMPLES = 256;
+
+    private Domains() { }
+
+    /** @return the domain whose keys include the given key */
+    static int owner(long key, long[] splitters) {
+        int lo = 0;
+        int hi = splitters.length - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (splitters[mid] <= key) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return up to SAMPLES of the given keys, evenly spaced through them
+     * in sorted order; the first n keys are sorted in place
+     */
+    static long[] sample(long[] keys, int n) {
+        Arrays.sort(keys, 0, n);
+        int s = Math.min(n, SAMPLES);
+        long[] samples = new long[s];
+        for (int k = 0; k < s; k++) {
+            samples[k] = keys[(int) ((long) k * n / s)];
+        }
+        return samples;
+    }
+
+    /** Puts the ith body of the store in the message, under the given id. */
+    static void putBody(Link link, BodyStore store, int i, int id) {
+        link.putInt(id)
+                .putDouble(store.getMasses()[i])
+                .putDouble(store.getXs()[i])
+                .putDouble(store.getYs()[i])
+                .putDouble(store.getVelocityXs()[i])
+                .putDouble(store.getVelocityYs()[i]);
+    }
+
+    /**
+     * Reads a body put by putBody into the kth slot of the columns.
+     * @return the id of the body
+     */
+    static int getBody(ByteBuffer in, int k, double[] mass, double[] x, double[] y,
+            double[] vx, double[] vy) {
+        int id = in.getInt();
+        mass[k] = in.getDouble();
+        x[k] = in.getDouble();
+        y[k] = in.getDouble();
+        vx[k] = in.getDouble();
+        vy[k] = in.getDouble();
+        return id;
+    }
+}
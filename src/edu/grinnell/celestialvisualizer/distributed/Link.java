@@ -0,0 +1,174 @@
+package edu.grinnell.celestialvisualizer.distributed;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A Link is one end of the connection between the coordinator and a
+ * worker.  Messages are framed as a type and a length followed by that
+ * many bytes, all little-endian, and are read and written through a
+ * blocking SocketChannel.
+ *
+ * A message is built in the outgoing buffer with the put methods and sent
+ * with send; receive reads a whole message into the incoming buffer, which
+ * the caller reads it from.  Both buffers grow as needed and are reused.
+ */
+final class Link implements AutoCloseable {
+
+    /** Coordinator to worker: the settings and the first bodies. */
+    static final int INIT = 1;
+    /** Coordinator to worker: start a step with the given splitters. */
+    static final int STEP = 2;
+    /** Worker to coordinator: the bodies leaving, by destination. */
+    static final int MIGRATE = 3;
+    /** Coordinator to worker: the bodies arriving. */
+    static final int ARRIVALS = 4;
+    /** Worker to coordinator: the bounding box of the domain. */
+    static final int BOX = 5;
+    /** Coordinator to worker: the bounding boxes of all domains. */
+    static final int BOXES = 6;
+    /** Worker to coordinator: the essential trees, by destination. */
+    static final int EXPORT = 7;
+    /** Coordinator to worker: the essential trees of the other domains. */
+    static final int IMPORT = 8;
+    /** Worker to coordinator: the cost of the step and key samples. */
+    static final int DONE = 9;
+    /** Coordinator to worker: send every body. */
+    static final int GATHER = 10;
+    /** Worker to coordinator: every body of the domain. */
+    static final int BODIES = 11;
+    /** Coordinator to worker: shut down. */
+    static final int STOP = 12;
+
+    private static final int FRAME_BYTES = 8;
+
+    private final SocketChannel channel;
+    private final ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer out = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer in = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    Link(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(true);
+        channel.socket().setTcpNoDelay(true);
+        out.position(FRAME_BYTES);
+    }
+
+    /** Makes room for the given number of bytes in the outgoing buffer. */
+    private void reserve(int bytes) {
+        if (out.remaining() < bytes) {
+            long capacity = Math.max((long) out.capacity() * 2, (long) out.position() + bytes);
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Message too large: " + capacity + " bytes");
+            }
+            ByteBuffer grown = ByteBuffer.allocate((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+            out.flip();
+            grown.put(out);
+            out = grown;
+        }
+    }
+
+    Link putInt(int v) {
+        reserve(Integer.BYTES);
+        out.putInt(v);
+        return this;
+    }
+
+    Link putLong(long v) {
+        reserve(Long.BYTES);
+        out.putLong(v);
+        return this;
+    }
+
+    Link putDouble(double v) {
+        reserve(Double.BYTES);
+        out.putDouble(v);
+        return this;
+    }
+
+    /** Writes the given bytes of a message received on another link. */
+    Link putBytes(ByteBuffer bytes) {
+        reserve(bytes.remaining());
+        out.put(bytes);
+        return this;
+    }
+
+    /** @return the number of bytes put in the message so far */
+    int position() { return out.position() - FRAME_BYTES; }
+
+    /** Overwrites the int put at the given position of the message. */
+    void setInt(int position, int v) {
+        out.putInt(FRAME_BYTES + position, v);
+    }
+
+    /**
+     * Sends the message put so far with the given type, and starts a new
+     * one.
+     */
+    void send(int type) throws IOException {
+        out.putInt(0, type);
+        out.putInt(4, out.position() - FRAME_BYTES);
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+        out.position(FRAME_BYTES);
+    }
+
+    /**
+     * Receives the next message, whatever its type.  The message can then
+     * be read from the incoming buffer (see incoming).
+     * @return the type of the message
+     * @throws IOException if the connection fails
+     */
+    int receive() throws IOException {
+        frame.clear();
+        readFully(frame);
+        int type = frame.getInt(0);
+        int length = frame.getInt(4);
+        if (length < 0) {
+            throw new IOException("Bad message length " + length);
+        }
+        if (in.capacity() < length) {
+            in = ByteBuffer.allocate(Math.max(length, in.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        in.clear().limit(length);
+        readFully(in);
+        in.flip();
+        return type;
+    }
+
+    /**
+     * Receives the next message, which must have the given type.
+     * @return the incoming buffer, positioned at the start of the message
+     * @throws IOException if the connection fails or the message has a
+     * different type
+     */
+    ByteBuffer receive(int type) throws IOException {
+        int actual = receive();
+        if (actual != type) {
+            throw new IOException("Expected message " + type + " but received " + actual);
+        }
+        return in;
+    }
+
+    /** @return the incoming buffer, holding the last message received */
+    ByteBuffer incoming() { return in; }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,99 @@
+package edu.grinnell.celestialvisualizer.distributed;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A LocalCluster is a set of Worker processes on this host, each a JVM of
+ * its own started with the same java command, class path and modules as
+ * this one.  The workers' standard error is passed through to this
+ * process; their standard output is discarded.
+ */
+public class LocalCluster implements AutoCloseable {
+
+    /** How long close waits for the workers to exit before killing them. */
+    private static final long EXIT_TIMEOUT_MILLIS = 5000;
+
+    private final List<Process> processes;
+
+    private LocalCluster(List<Process> processes) {
+        this.processes = processes;
+    }
+
+    /**
+     * Starts the given number of workers, which connect to the coordinator
+     * at the given address.
+     * @param address the address the coordinator listens at
+     * @param workers the number of workers
+     * @return the cluster of the workers
+     * @throws IOException if a worker cannot be started
+     */
+    public static LocalCluster launch(InetSocketAddress address, int workers) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+                .orElseThrow(() -> new IOException("Cannot find the java command")));
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("--add-modules")) {
+                command.add(arg);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Worker.class.getName());
+        command.add(address.getHostString());
+        command.add(Integer.toString(address.getPort()));
+
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT);
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int k = 0; k < workers; k++) {
+                processes.add(builder.start());
+            }
+        } catch (IOException e) {
+            processes.forEach(Process::destroyForcibly);
+            throw e;
+        }
+        return new LocalCluster(processes);
+    }
+
+    /** @return the number of workers still running */
+    public int getRunningCount() {
+        int count = 0;
+        for (Process p : processes) {
+            if (p.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Waits a little for the workers to exit, as they do once the
+     * coordinator stops them, and kills any that have not.
+     */
+    @Override
+    public void close() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EXIT_TIMEOUT_MILLIS);
+        boolean interrupted = false;
+        for (Process p : processes) {
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !p.waitFor(remaining, TimeUnit.NANOSECONDS)) {
+                    p.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                p.destroyForcibly();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
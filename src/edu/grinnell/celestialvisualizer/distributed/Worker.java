@@ -0,0 +1,348 @@
+package edu.grinnell.celestialvisualizer.distributed;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.integrator.Euler;
+import edu.grinnell.celestialvisualizer.physics.BodyBounds;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.quadtree.FlatQuadTree;
+import edu.grinnell.celestialvisualizer.solver.BarnesHut;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.SpaceFillingCurve;
+
+/**
+ * A Worker simulates the bodies of one domain of a distributed simulation,
+ * taking its orders from a Coordinator over a socket.  Each step it
+ *
+ *   1. sends the bodies whose keys have left its domain to the domains
+ *      that now own them, and takes in the bodies that have arrived,
+ *   2. builds a quad tree over its bodies and sends every other domain the
+ *      part of it essential to that domain's bodies (see
+ *      FlatQuadTree.exportEssential): the centroids far enough away, and
+ *      the bodies near the boundary,
+ *   3. calculates the accelerations on its bodies by a Barnes-Hut walk
+ *      over its own bodies and the essential trees of the other domains,
+ *      and moves the bodies by an Euler step, and
+ *   4. reports the cost of the step, counted in interactions, and a sample
+ *      of its keys, from which the coordinator rebalances the domains.
+ *
+ * Every message goes through the coordinator, so workers only ever talk to
+ * it.  A worker keeps the ids the coordinator gave its bodies, but stores
+ * them in whatever order they arrived.
+ */
+public class Worker implements AutoCloseable {
+
+    private final Link link;
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+    private final Euler euler = new Euler();
+    private final BarnesHut barnesHut = new BarnesHut();
+    private final FlatQuadTree tree = new FlatQuadTree();
+    private final BodyBounds bounds = new BodyBounds();
+    private final GravitySolver solver = new EssentialTreeSolver();
+    private final FlatQuadTree.BodySink export = this::export;
+
+    // The settings sent by the coordinator.
+    private double elapsedTime;
+    private double theta;
+    private SpaceFillingCurve curve;
+    private BoundingBox keyBox;
+    private int index;
+    private int workers;
+
+    // The bodies of the domain, and the id each was given by the
+    // coordinator.
+    private BodyStore store = new BodyStore(0);
+    private int[] globalId = new int[0];
+    private int[] owner = new int[0];
+    private long[] keys = new long[0];
+    private final long[] splitters;
+    private final double[] boxes;
+    private long cost;
+
+    // The local bodies followed by the essential trees of the other
+    // domains, the store the accelerations are calculated over, refilled
+    // every step.
+    private final BodyStore all = new BodyStore();
+    private int[] targets = new int[0];
+
+    /**
+     * Connects to the coordinator listening at the given address, and
+     * receives the settings and first bodies of the domain.
+     * @param address the address of the coordinator
+     * @throws IOException if the connection fails
+     */
+    public Worker(InetSocketAddress address) throws IOException {
+        link = new Link(SocketChannel.open(address));
+        ByteBuffer in = link.receive(Link.INIT);
+        elapsedTime = in.getDouble();
+        theta = in.getDouble();
+        curve = SpaceFillingCurve.values()[in.getInt()];
+        keyBox = new BoundingBox(in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble());
+        index = in.getInt();
+        workers = in.getInt();
+        splitters = new long[workers + 1];
+        boxes = new double[4 * workers];
+        barnesHut.setTheta(theta);
+        adopt(0, in, in.getInt());
+    }
+
+    /**
+     * Carries out the orders of the coordinator until it says to stop.
+     * @throws IOException if the connection fails
+     */
+    public void serve() throws IOException {
+        while (true) {
+            int type = link.receive();
+            switch (type) {
+            case Link.STEP:
+                step(link.incoming());
+                break;
+            case Link.GATHER:
+                gather();
+                break;
+            case Link.STOP:
+                return;
+            default:
+                throw new IOException("Unexpected message " + type);
+            }
+        }
+    }
+
+    /** Takes one step with the splitters of the given message. */
+    private void step(ByteBuffer in) throws IOException {
+        for (int j = 0; j <= workers; j++) {
+            splitters[j] = in.getLong();
+        }
+        migrate();
+        cost = 0;
+        try {
+            euler.step(store, solver, pool, elapsedTime);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        int n = store.size();
+        computeKeys();
+        long[] samples = Domains.sample(keys, n);
+        link.putLong(cost).putInt(n).putInt(samples.length);
+        for (long key : samples) {
+            link.putLong(key);
+        }
+        link.send(Link.DONE);
+    }
+
+    /** Computes the keys of the bodies along the curve. */
+    private void computeKeys() {
+        int n = store.size();
+        if (keys.length < n) {
+            keys = new long[n];
+        }
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        for (int i = 0; i < n; i++) {
+            keys[i] = curve.key(x[i], y[i], keyBox);
+        }
+    }
+
+    /**
+     * Sends away the bodies that have left the domain, and rebuilds the
+     * store from the ones that stayed and the ones that arrived.
+     */
+    private void migrate() throws IOException {
+        int n = store.size();
+        computeKeys();
+        if (owner.length < n) {
+            owner = new int[n];
+        }
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            owner[i] = Domains.owner(keys[i], splitters);
+            if (owner[i] == index) {
+                kept++;
+            }
+        }
+        for (int j = 0; j < workers; j++) {
+            int position = link.position();
+            link.putInt(0);
+            if (j == index) {
+                continue;
+            }
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                if (owner[i] == j) {
+                    Domains.putBody(link, store, i, globalId[i]);
+                    count++;
+                }
+            }
+            link.setInt(position, count);
+        }
+        link.send(Link.MIGRATE);
+
+        ByteBuffer in = link.receive(Link.ARRIVALS);
+        adopt(kept, in, in.getInt());
+    }
+
+    /**
+     * Replaces the store with the first kept bodies of the domain, those it
+     * owns, followed by the given number of bodies read from the message.
+     */
+    private void adopt(int kept, ByteBuffer in, int arrivals) {
+        int m = kept + arrivals;
+        double[] mass = new double[m];
+        double[] x = new double[m];
+        double[] y = new double[m];
+        double[] vx = new double[m];
+        double[] vy = new double[m];
+        int[] ids = new int[m];
+        int[] gids = new int[m];
+        int k = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if (owner[i] == index) {
+                mass[k] = store.getMasses()[i];
+                x[k] = store.getXs()[i];
+                y[k] = store.getYs()[i];
+                vx[k] = store.getVelocityXs()[i];
+                vy[k] = store.getVelocityYs()[i];
+                gids[k] = globalId[i];
+                k++;
+            }
+        }
+        for (; k < m; k++) {
+            gids[k] = Domains.getBody(in, k, mass, x, y, vx, vy);
+        }
+        for (int i = 0; i < m; i++) {
+            ids[i] = i;
+        }
+        store = new BodyStore(m, mass, x, y, vx, vy, ids);
+        globalId = gids;
+    }
+
+    /** Sends every body of the domain to the coordinator. */
+    private void gather() throws IOException {
+        int n = store.size();
+        link.putInt(n);
+        for (int i = 0; i < n; i++) {
+            Domains.putBody(link, store, i, globalId[i]);
+        }
+        link.send(Link.BODIES);
+    }
+
+    /** Puts a body or centroid of the essential tree in the message. */
+    private void export(double mass, double x, double y) {
+        link.putDouble(mass).putDouble(x).putDouble(y);
+    }
+
+    /**
+     * The solver the worker steps with, which swaps essential trees with the
+     * other domains through the coordinator every time it is called.  Its
+     * connection failures are thrown as UncheckedIOExceptions, since a
+     * GravitySolver cannot throw IOExceptions.
+     */
+    private class EssentialTreeSolver implements GravitySolver {
+
+        @Override
+        public void computeAccelerations(BodyStore local, ForkJoinPool pool) {
+            try {
+                exchange(local, pool);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void exchange(BodyStore local, ForkJoinPool pool) throws IOException {
+            int n = local.size();
+            double[] mass = local.getMasses();
+            double[] x = local.getXs();
+            double[] y = local.getYs();
+
+            // Swap the bounding boxes of the domains.  An empty domain has
+            // a box that contains nothing.
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                minX = Math.min(minX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxX = Math.max(maxX, x[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+            link.putDouble(minX).putDouble(minY).putDouble(maxX).putDouble(maxY);
+            link.send(Link.BOX);
+            link.receive(Link.BOXES).asDoubleBuffer().get(boxes);
+
+            // Send each other domain the part of the local tree it needs,
+            // and every body left out of the tree.
+            BoundingBox bb = bounds.compute(local, pool);
+            if (bb != null) {
+                tree.build(mass, x, y, n, bb, pool);
+            }
+            for (int j = 0; j < workers; j++) {
+                int position = link.position();
+                link.putInt(0);
+                int b = 4 * j;
+                if (j == index || bb == null || boxes[b] > boxes[b + 2]) {
+                    continue;
+                }
+                int count = tree.exportEssential(theta, boxes[b], boxes[b + 1],
+                        boxes[b + 2], boxes[b + 3], export);
+                int[] outside = tree.getOutsideBodies();
+                for (int k = 0; k < tree.getOutsideCount(); k++) {
+                    export(mass[outside[k]], x[outside[k]], y[outside[k]]);
+                }
+                link.setInt(position, count + tree.getOutsideCount());
+            }
+            link.send(Link.EXPORT);
+
+            // Sum the pull of the local bodies and the imported ones, which
+            // stand still, with a Barnes-Hut walk over them all.
+            ByteBuffer in = link.receive(Link.IMPORT);
+            int imported = in.getInt();
+            all.clear();
+            for (int i = 0; i < n; i++) {
+                all.add(mass[i], x[i], y[i], 0.0, 0.0);
+            }
+            for (int k = 0; k < imported; k++) {
+                all.add(in.getDouble(), in.getDouble(), in.getDouble(), 0.0, 0.0);
+            }
+            if (targets.length < n) {
+                targets = new int[Math.max(n, targets.length * 2)];
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i] = i;
+                }
+            }
+            barnesHut.computeAccelerations(all, targets, n, pool);
+            System.arraycopy(all.getAccelerationXs(), 0, local.getAccelerationXs(), 0, n);
+            System.arraycopy(all.getAccelerationYs(), 0, local.getAccelerationYs(), 0, n);
+            cost += barnesHut.getInteractionCount();
+        }
+
+        @Override
+        public long getInteractionCount() { return cost; }
+    }
+
+    @Override
+    public void close() throws IOException {
+        link.close();
+    }
+
+    /**
+     * Runs a worker for the coordinator at the given host and port.
+     * @param args the host and port of the coordinator
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: Worker <host> <port>");
+            System.exit(1);
+        }
+        try (Worker worker = new Worker(new InetSocketAddress(args[0], Integer.parseInt(args[1])))) {
+            worker.serve();
+        }
+    }
+}
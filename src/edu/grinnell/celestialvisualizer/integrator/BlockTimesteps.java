@@ -0,0 +1,220 @@
+package edu.grinnell.celestialvisualizer.integrator;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+
+/**
+ * BlockTimesteps is a kick-drift-kick leapfrog in which every body takes
+ * steps of its own length: the time step divided by a power of two, from
+ * 1 (level 0) down to 2^-(levels - 1).  The step is split into substeps of
+ * the shortest length.  Every substep drifts all bodies, but only the
+ * bodies whose own steps end there have their accelerations calculated
+ * (see GravitySolver.computeAccelerations(store, targets, count, pool)),
+ * so with a solver that calculates only those, a body on level 0 costs
+ * one force calculation per step however many substeps the step has.
+ * Other solvers calculate every body at every substep; the accelerations
+ * of the bodies not due are ignored.
+ *
+ * At the end of each of its steps a body is given the level whose step
+ * is the longest below eta |a| / |da/dt|, the time its acceleration takes
+ * to change by a fraction eta, with da/dt estimated from the change of the
+ * acceleration over the step.  A body may only move to a longer step
+ * where that step would begin in step with the others.  Bodies start out
+ * on the finest level and work their way up.
+ *
+ * The levels are remembered by body id, so they survive NBody.reorder.
+ */
+public class BlockTimesteps implements Integrator {
+
+    /** The default number of levels, which spans steps 64 times apart. */
+    public static final int DEFAULT_LEVELS = 7;
+    /** The default accuracy parameter. */
+    public static final double DEFAULT_ETA = 0.02;
+    /** The most levels supported. */
+    public static final int MAX_LEVELS = 31;
+
+    /** The fewest bodies worth handing to a thread. */
+    private static final int GRAIN = 4096;
+
+    private final int levels;
+    private final double eta;
+    private final Motion motion = new Motion();
+    private final Warmth warmth = new Warmth();
+
+    // The level of every body, and its acceleration at the start of its
+    // current step, by id.
+    private int[] level = new int[0];
+    private double[] startAx = new double[0];
+    private double[] startAy = new double[0];
+
+    private int[] active = new int[0];
+    private long activeBodies;
+
+    // The state of the current substep, read by the loop bodies.
+    private BodyStore store;
+    private double substep;
+    private int tick;
+    private int ticks;
+
+    private final Parallel.RangeAction openAll = this::openAll;
+    private final Parallel.RangeAction close = this::close;
+
+    /** Constructs an integrator with the default levels and accuracy. */
+    public BlockTimesteps() { this(DEFAULT_LEVELS, DEFAULT_ETA); }
+
+    /**
+     * Constructs an integrator.
+     * @param levels the number of step lengths, from 1 to MAX_LEVELS
+     * @param eta the accuracy parameter; smaller is more accurate and slower
+     */
+    public BlockTimesteps(int levels, double eta) {
+        if (levels < 1 || levels > MAX_LEVELS) {
+            throw new IllegalArgumentException("Levels must be between 1 and " + MAX_LEVELS
+                    + ": " + levels);
+        }
+        if (!(eta > 0)) {
+            throw new IllegalArgumentException("Eta must be positive: " + eta);
+        }
+        this.levels = levels;
+        this.eta = eta;
+    }
+
+    /** @return the number of step lengths */
+    public int getLevels() { return levels; }
+
+    /** @return the accuracy parameter */
+    public double getEta() { return eta; }
+
+    /** @return the level of the body with the given id */
+    public int getLevel(int id) { return level[id]; }
+
+    /**
+     * @return the number of body accelerations calculated by the last step,
+     * which a global step of the shortest length would make the number of
+     * bodies times 2^(levels - 1)
+     */
+    public long getActiveBodies() { return activeBodies; }
+
+    /** @return the number of substeps a step is split into, each of which
+     *  calls the solver if any body is due */
+    @Override
+    public int getForceEvaluations() { return 1 << (levels - 1); }
+
+    @Override
+    public void reset() { warmth.reset(); }
+
+    @Override
+    public void step(BodyStore store, GravitySolver solver, ForkJoinPool pool, double elapsedTime) {
+        int n = store.size();
+        if (active.length < n) {
+            active = new int[n];
+        }
+        this.store = store;
+        ticks = 1 << (levels - 1);
+        substep = elapsedTime / ticks;
+        activeBodies = 0;
+        solver.startStep();
+
+        if (!warmth.isWarm(store, solver)) {
+            if (level.length < n) {
+                level = new int[n];
+                startAx = new double[n];
+                startAy = new double[n];
+            }
+            solver.computeAccelerations(store, pool);
+            activeBodies += n;
+            for (int i = 0; i < n; i++) {
+                level[store.getId(i)] = levels - 1;
+            }
+        }
+
+        // Every body starts a step at the start of the step.
+        tick = 0;
+        Parallel.forRange(pool, n, GRAIN, openAll);
+        for (tick = 1; tick <= ticks; tick++) {
+            motion.drift(store, substep, pool);
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                if (tick % length(level[store.getId(i)]) == 0) {
+                    active[count++] = i;
+                }
+            }
+            if (count > 0) {
+                solver.computeAccelerations(store, active, count, pool);
+                activeBodies += count;
+                Parallel.forRange(pool, count, GRAIN, close);
+            }
+        }
+        this.store = null;
+        warmth.warm(store, solver);
+    }
+
+    /** @return the number of substeps in a step of the given level */
+    private int length(int level) {
+        return ticks >> level;
+    }
+
+    /** Gives the bodies from (inclusive) to to (exclusive) the opening half
+     *  kick of their steps. */
+    private void openAll(int from, int to) {
+        double[] vx = store.getVelocityXs();
+        double[] vy = store.getVelocityYs();
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        for (int i = from; i < to; i++) {
+            int id = store.getId(i);
+            double half = 0.5 * length(level[id]) * substep;
+            vx[i] += ax[i] * half;
+            vy[i] += ay[i] * half;
+            startAx[id] = ax[i];
+            startAy[id] = ay[i];
+        }
+    }
+
+    /**
+     * Gives the active bodies from (inclusive) to to (exclusive) the closing
+     * half kick of their steps, chooses their next levels, and unless the
+     * step is over gives them the opening half kick of their next steps.
+     */
+    private void close(int from, int to) {
+        double[] vx = store.getVelocityXs();
+        double[] vy = store.getVelocityYs();
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        for (int k = from; k < to; k++) {
+            int i = active[k];
+            int id = store.getId(i);
+            double time = length(level[id]) * substep;
+            vx[i] += ax[i] * (0.5 * time);
+            vy[i] += ay[i] * (0.5 * time);
+
+            // The time for the acceleration to change by a fraction eta.
+            double jx = ax[i] - startAx[id];
+            double jy = ay[i] - startAy[id];
+            double change = Math.sqrt(jx * jx + jy * jy);
+            double wanted = change > 0
+                    ? eta * Math.sqrt(ax[i] * ax[i] + ay[i] * ay[i]) * time / change
+                    : Double.POSITIVE_INFINITY;
+            int next = 0;
+            while (next < levels - 1 && length(next) * substep > wanted) {
+                next++;
+            }
+            // A longer step may only begin where it lines up with the others.
+            while (tick % length(next) != 0) {
+                next++;
+            }
+            level[id] = next;
+
+            if (tick < ticks) {
+                double half = 0.5 * length(next) * substep;
+                vx[i] += ax[i] * half;
+                vy[i] += ay[i] * half;
+                startAx[id] = ax[i];
+                startAy[id] = ay[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package edu.grinnell.celestialvisualizer.integrator;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
+
+/**
+ * Euler is the original scheme of the simulation: it calculates the
+ * accelerations at the start of the step and holds them constant over it,
+ * moving the bodies first and then updating their velocities (see
+ * Physics.calculateUpdatedPosition and Physics.calculateUpdatedVelocity).
+ * It is first order and not symplectic, so the energy of an orbit drifts
+ * steadily.
+ */
+public class Euler implements Integrator {
+
+    private final Motion motion = new Motion();
+
+    @Override
+    public void step(BodyStore store, GravitySolver solver, ForkJoinPool pool, double elapsedTime) {
+        solver.computeAccelerations(store, pool);
+        motion.advance(store, elapsedTime, pool);
+    }
+
+    @Override
+    public int getForceEvaluations() { return 1; }
+}
@@ -0,0 +1,37 @@
+package edu.grinnell.celestialvisualizer.integrator;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
+
+/**
+ * An Integrator advances the bodies of a store through time, asking a
+ * GravitySolver for the accelerations at the positions it needs them.
+ *
+ * Integrators may keep the accelerations of the end of one step for the
+ * start of the next.  They notice a change of store, solver or number of
+ * bodies, but not bodies moved by other means (Body.displace, for
+ * instance); call reset after those.
+ */
+public interface Integrator {
+
+    /**
+     * Advances the bodies of the store by the given time, leaving in the
+     * acceleration arrays of the store the accelerations last calculated.
+     * @param store the bodies to advance
+     * @param solver the solver to calculate the accelerations with
+     * @param pool the pool to run on, or null to run on the calling thread
+     * @param elapsedTime the time step
+     */
+    public void step(BodyStore store, GravitySolver solver, ForkJoinPool pool, double elapsedTime);
+
+    /** @return the number of times step calls the solver, once warmed up */
+    public int getForceEvaluations();
+
+    /**
+     * Discards any accelerations kept from the last step, so that the next
+     * step calculates them afresh.
+     */
+    public default void reset() { }
+}
@@ -0,0 +1,144 @@
+package edu.grinnell.celestialvisualizer.integrator;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+import edu.grinnell.celestialvisualizer.physics.Physics;
+import edu.grinnell.celestialvisualizer.solver.DirectSum;
+import edu.grinnell.celestialvisualizer.solver.SymmetricDirectSum;
+
+public class IntegratorTest {
+
+    private static final double DAY = 86400.0;
+    private static final double YEAR = 365.25 * DAY;
+
+    /** @return a sun and a planet on an orbit of eccentricity 0.5 */
+    private static BodyStore makeOrbit() {
+        BodyStore store = new BodyStore();
+        double sun = 2.0e30;
+        double planet = 6.0e24;
+        double r = 1.5e11;
+        double v = Math.sqrt(Physics.G * (sun + planet) / r * 1.5);
+        store.add(sun, 0.0, 0.0, 0.0, -v * planet / sun);
+        store.add(planet, r, 0.0, 0.0, v);
+        return store;
+    }
+
+    private static double energy(BodyStore store) {
+        double[] m = store.getMasses();
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        double[] vx = store.getVelocityXs();
+        double[] vy = store.getVelocityYs();
+        double e = 0.0;
+        for (int i = 0; i < store.size(); i++) {
+            e += 0.5 * m[i] * (vx[i] * vx[i] + vy[i] * vy[i]);
+            for (int j = i + 1; j < store.size(); j++) {
+                double dx = x[j] - x[i];
+                double dy = y[j] - y[i];
+                e -= Physics.G * m[i] * m[j] / Math.sqrt(dx * dx + dy * dy);
+            }
+        }
+        return e;
+    }
+
+    /** @return the largest relative energy error over ten years */
+    private static double energyError(Integrator integrator, double elapsedTime) {
+        NBody sim = new NBody(makeOrbit()).setPool(null).setIntegrator(integrator);
+        double e0 = energy(sim.getStore());
+        double error = 0.0;
+        for (double t = 0.0; t < 10 * YEAR; t += elapsedTime) {
+            sim.update(elapsedTime);
+            error = Math.max(error, Math.abs(energy(sim.getStore()) / e0 - 1));
+        }
+        return error;
+    }
+
+    @Test
+    public void testSymplecticSchemesConserveEnergy() {
+        double euler = energyError(new Euler(), DAY);
+        double leapfrog = energyError(new Leapfrog(), DAY);
+        double yoshida = energyError(new Yoshida(), DAY);
+        assertTrue(leapfrog < euler / 10);
+        assertTrue(yoshida < leapfrog / 10);
+        // Four times the step, still far better than leapfrog.
+        assertTrue(energyError(new Yoshida(), 4 * DAY) < leapfrog);
+    }
+
+    @Test
+    public void testBlockTimestepsFollowTheFastBodies() {
+        // A planet on a tight, eccentric orbit and a giant far out.
+        BodyStore store = new BodyStore();
+        double sun = 2.0e30;
+        double r1 = 0.5e11;
+        double r2 = 7.5e11;
+        store.add(sun, 0.0, 0.0, 0.0, 0.0);
+        store.add(6.0e24, r1, 0.0, 0.0, Math.sqrt(Physics.G * sun / r1 * 1.5));
+        store.add(2.0e27, -r2, 0.0, 0.0, -Math.sqrt(Physics.G * sun / r2));
+
+        BlockTimesteps block = new BlockTimesteps();
+        NBody sim = new NBody(store).setPool(null).setIntegrator(block);
+        double e0 = energy(store);
+        double error = 0.0;
+        long evaluations = 0;
+        for (double t = 0.0; t < 10 * YEAR; t += 16 * DAY) {
+            sim.update(16 * DAY);
+            evaluations += block.getActiveBodies();
+            error = Math.max(error, Math.abs(energy(store) / e0 - 1));
+        }
+        // About as accurate as leapfrog on quarter-day steps, for at most
+        // a third of the work.
+        assertTrue(error < 1.0e-5);
+        assertTrue(evaluations < 3 * 10 * YEAR / (DAY / 4) / 3);
+        assertTrue(block.getLevel(2) < block.getLevel(1));
+    }
+
+    @Test
+    public void testBlockTimestepsWithAFullSolver() {
+        // SymmetricDirectSum only calculates every body at once, so every
+        // substep falls back on that, and gives the same steps.
+        NBody expected = new NBody(makeOrbit()).setPool(null).setIntegrator(new BlockTimesteps());
+        NBody actual = new NBody(makeOrbit()).setPool(null).setIntegrator(new BlockTimesteps());
+        SymmetricDirectSum symmetric = new SymmetricDirectSum();
+        for (int i = 0; i < 20; i++) {
+            expected.update(DAY);
+            actual.update(DAY, symmetric);
+        }
+        BodyStore e = expected.getStore();
+        BodyStore a = actual.getStore();
+        for (int i = 0; i < e.size(); i++) {
+            double r = Math.hypot(e.getXs()[i], e.getYs()[i]);
+            double v = Math.hypot(e.getVelocityXs()[i], e.getVelocityYs()[i]);
+            assertEquals(e.getXs()[i], a.getXs()[i], r * 1e-9);
+            assertEquals(e.getYs()[i], a.getYs()[i], r * 1e-9);
+            assertEquals(e.getVelocityXs()[i], a.getVelocityXs()[i], v * 1e-9);
+            assertEquals(e.getVelocityYs()[i], a.getVelocityYs()[i], v * 1e-9);
+        }
+    }
+
+    @Test
+    public void testAccelerationsAreReused() {
+        int[] calls = new int[1];
+        DirectSum counting = new DirectSum() {
+            @Override
+            public void computeAccelerations(BodyStore store, ForkJoinPool pool) {
+                calls[0]++;
+                super.computeAccelerations(store, pool);
+            }
+        };
+        for (Integrator integrator : new Integrator[] { new Euler(), new Leapfrog(), new Yoshida() }) {
+            NBody sim = new NBody(makeOrbit()).setIntegrator(integrator);
+            calls[0] = 0;
+            for (int i = 0; i < 10; i++) {
+                sim.update(DAY, counting);
+            }
+            int warmUp = integrator instanceof Euler ? 0 : 1;
+            assertEquals(10 * integrator.getForceEvaluations() + warmUp, calls[0]);
+        }
+    }
+}
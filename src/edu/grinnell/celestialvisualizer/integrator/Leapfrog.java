@@ -0,0 +1,40 @@
+package edu.grinnell.celestialvisualizer.integrator;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
+
+/**
+ * Leapfrog is the kick-drift-kick leapfrog scheme: half a step of
+ * velocity change, a full step of movement, and another half step of
+ * velocity change with the accelerations at the new positions.  It is
+ * second order and symplectic, so the energy error of an orbit stays
+ * bounded instead of drifting.
+ *
+ * The accelerations of the closing half kick are those the next step opens
+ * with, so after the first step every step calls the solver once.
+ */
+public class Leapfrog implements Integrator {
+
+    private final Motion motion = new Motion();
+    private final Warmth warmth = new Warmth();
+
+    @Override
+    public void step(BodyStore store, GravitySolver solver, ForkJoinPool pool, double elapsedTime) {
+        if (!warmth.isWarm(store, solver)) {
+            solver.computeAccelerations(store, pool);
+        }
+        motion.kick(store, elapsedTime / 2, pool);
+        motion.drift(store, elapsedTime, pool);
+        solver.computeAccelerations(store, pool);
+        motion.kick(store, elapsedTime / 2, pool);
+        warmth.warm(store, solver);
+    }
+
+    @Override
+    public int getForceEvaluations() { return 1; }
+
+    @Override
+    public void reset() { warmth.reset(); }
+}
@@ -0,0 +1,89 @@
+package edu.grinnell.celestialvisualizer.integrator;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+
+/**
+ * The moves integrators are made of, each run in parallel over the bodies
+ * of a store.  The loop bodies are created once, so a move run on the
+ * calling thread allocates nothing.
+ */
+class Motion {
+
+    /** The fewest bodies worth handing to a thread. */
+    private static final int GRAIN = 4096;
+
+    // The state of the current move, read by the loop bodies.
+    private BodyStore store;
+    private double time;
+
+    private final Parallel.RangeAction kick = this::kick;
+    private final Parallel.RangeAction drift = this::drift;
+    private final Parallel.RangeAction advance = this::advance;
+
+    /** Changes the velocities by the accelerations times the given time. */
+    void kick(BodyStore store, double time, ForkJoinPool pool) {
+        run(store, time, pool, kick);
+    }
+
+    /** Changes the positions by the velocities times the given time. */
+    void drift(BodyStore store, double time, ForkJoinPool pool) {
+        run(store, time, pool, drift);
+    }
+
+    /**
+     * Moves the bodies as if their accelerations were constant over the
+     * given time: the positions by v t + a t^2 / 2, then the velocities by
+     * a t.
+     */
+    void advance(BodyStore store, double time, ForkJoinPool pool) {
+        run(store, time, pool, advance);
+    }
+
+    private void run(BodyStore store, double time, ForkJoinPool pool, Parallel.RangeAction move) {
+        this.store = store;
+        this.time = time;
+        Parallel.forRange(pool, store.size(), GRAIN, move);
+        this.store = null;
+    }
+
+    private void kick(int from, int to) {
+        double[] vx = store.getVelocityXs();
+        double[] vy = store.getVelocityYs();
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        for (int i = from; i < to; i++) {
+            vx[i] += ax[i] * time;
+            vy[i] += ay[i] * time;
+        }
+    }
+
+    private void drift(int from, int to) {
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        double[] vx = store.getVelocityXs();
+        double[] vy = store.getVelocityYs();
+        for (int i = from; i < to; i++) {
+            x[i] += vx[i] * time;
+            y[i] += vy[i] * time;
+        }
+    }
+
+    private void advance(int from, int to) {
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        double[] vx = store.getVelocityXs();
+        double[] vy = store.getVelocityYs();
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        double halfT2 = 0.5 * time * time;
+        for (int i = from; i < to; i++) {
+            x[i] += vx[i] * time + ax[i] * halfT2;
+            y[i] += vy[i] * time + ay[i] * halfT2;
+            vx[i] += ax[i] * time;
+            vy[i] += ay[i] * time;
+        }
+    }
+}
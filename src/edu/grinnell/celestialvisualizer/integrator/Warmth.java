@@ -0,0 +1,39 @@
+package edu.grinnell.celestialvisualizer.integrator;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
+
+/**
+ * Remembers whether the accelerations of a store are those the last step
+ * of an integrator ended with, and so can open the next step.
+ */
+class Warmth {
+
+    private BodyStore store;
+    private GravitySolver solver;
+    private int size;
+    private long modifications;
+
+    /** @return true if the accelerations of the store are those the last
+     *  step ended with, calculated by the same solver, and the store has
+     *  not been modified since */
+    boolean isWarm(BodyStore store, GravitySolver solver) {
+        return store == this.store && solver == this.solver && store.size() == size
+                && store.getModificationCount() == modifications;
+    }
+
+    /** Records that a step has just left the accelerations of the store
+     *  at the positions of its bodies. */
+    void warm(BodyStore store, GravitySolver solver) {
+        this.store = store;
+        this.solver = solver;
+        this.size = store.size();
+        this.modifications = store.getModificationCount();
+    }
+
+    /** Forgets the last step. */
+    void reset() {
+        store = null;
+        solver = null;
+    }
+}
@@ -0,0 +1,54 @@
+package edu.grinnell.celestialvisualizer.integrator;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
+
+/**
+ * Yoshida is Yoshida's fourth-order symplectic scheme: three leapfrog
+ * steps of W1, W0 and W1 times the time step, where the middle one runs
+ * backwards.  The closing half kick of each leapfrog step is merged with
+ * the opening half kick of the next, and the accelerations of the last
+ * are those the next step opens with, so after the first step every step
+ * calls the solver three times.
+ *
+ * Its energy error falls with the fourth power of the time step rather
+ * than the second, so it can take far longer steps than Leapfrog for the
+ * same accuracy.
+ */
+public class Yoshida implements Integrator {
+
+    private static final double CBRT2 = Math.cbrt(2.0);
+    /** The fraction of the step taken by the outer leapfrog steps. */
+    public static final double W1 = 1.0 / (2.0 - CBRT2);
+    /** The fraction of the step taken by the middle leapfrog step. */
+    public static final double W0 = -CBRT2 / (2.0 - CBRT2);
+
+    private final Motion motion = new Motion();
+    private final Warmth warmth = new Warmth();
+
+    @Override
+    public void step(BodyStore store, GravitySolver solver, ForkJoinPool pool, double elapsedTime) {
+        if (!warmth.isWarm(store, solver)) {
+            solver.computeAccelerations(store, pool);
+        }
+        motion.kick(store, W1 / 2 * elapsedTime, pool);
+        motion.drift(store, W1 * elapsedTime, pool);
+        solver.computeAccelerations(store, pool);
+        motion.kick(store, (W1 + W0) / 2 * elapsedTime, pool);
+        motion.drift(store, W0 * elapsedTime, pool);
+        solver.computeAccelerations(store, pool);
+        motion.kick(store, (W0 + W1) / 2 * elapsedTime, pool);
+        motion.drift(store, W1 * elapsedTime, pool);
+        solver.computeAccelerations(store, pool);
+        motion.kick(store, W1 / 2 * elapsedTime, pool);
+        warmth.warm(store, solver);
+    }
+
+    @Override
+    public int getForceEvaluations() { return 3; }
+
+    @Override
+    public void reset() { warmth.reset(); }
+}
@@ -0,0 +1,265 @@
+package edu.grinnell.celestialvisualizer.io;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+
+/**
+ * A Checkpoint is the state of a simulation at the end of a step, which can
+ * be written to a file and read back to restart the simulation where it
+ * left off.
+ *
+ * The file is a 64-byte header followed by the state of the bodies in
+ * columns, all little-endian:
+ *
+ * <pre>
+ *   0  magic     8 bytes, "NBODYCKP"
+ *   8  version   int, currently 1
+ *  12  header    int, the size of the header in bytes
+ *  16  n         long, the number of bodies
+ *  24  step      long, the number of steps taken
+ *  32  time      double, the simulated time
+ *  40  dt        double, the time step
+ *  48  reserved  16 bytes of zeros
+ *  64  mass, x, y, vx, vy   n doubles each
+ *      id                   n ints
+ * </pre>
+ *
+ * The columns are in the order of the store, ids included, so a store that
+ * has been reordered along a space-filling curve comes back in that order.
+ * Both writing and reading go through memory mappings of the file, and
+ * every column is moved with a single bulk copy between the mapping and an
+ * array of the store, so there is no per-body parsing.  Readers must reject
+ * versions they do not know, and may skip a header longer than their own.
+ */
+public class Checkpoint {
+
+    /** The first eight bytes of every checkpoint. */
+    private static final byte[] MAGIC = "NBODYCKP".getBytes(StandardCharsets.US_ASCII);
+    /** The version of the format written. */
+    public static final int VERSION = 1;
+    /** The size of the header written, in bytes. */
+    public static final int HEADER_BYTES = 64;
+
+    /** The most bytes mapped at once, well below the 2 GB limit of a
+     *  mapping and a multiple of the size of every column element. */
+    private static final int MAX_MAPPING = 1 << 30;
+
+    private final BodyStore store;
+    private final long step;
+    private final double time;
+    private final double elapsedTime;
+
+    /**
+     * Constructs a checkpoint of the given store.  The store is not copied,
+     * so it must not change until the checkpoint has been written.
+     * @param store the bodies
+     * @param step the number of steps taken
+     * @param time the simulated time
+     * @param elapsedTime the time step of the simulation
+     */
+    public Checkpoint(BodyStore store, long step, double time, double elapsedTime) {
+        if (step < 0) {
+            throw new IllegalArgumentException("Step must not be negative: " + step);
+        }
+        this.store = store;
+        this.step = step;
+        this.time = time;
+        this.elapsedTime = elapsedTime;
+    }
+
+    /** @return the bodies */
+    public BodyStore getStore() { return store; }
+
+    /** @return the number of steps taken */
+    public long getStep() { return step; }
+
+    /** @return the simulated time */
+    public double getTime() { return time; }
+
+    /** @return the time step of the simulation */
+    public double getElapsedTime() { return elapsedTime; }
+
+    /**
+     * @return a new simulation over the bodies of this checkpoint, with its
+     * step count and time restored
+     */
+    public NBody toSimulation() {
+        return new NBody(store).setStepCount(step).setTime(time);
+    }
+
+    /**
+     * Writes this checkpoint to the given file.  The checkpoint is written
+     * to a temporary file beside it, forced to the disk and then moved into
+     * place, so an interrupted write never leaves a partial checkpoint
+     * behind.
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        int n = store.size();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(HEADER_BYTES);
+            header.putLong(n);
+            header.putLong(step);
+            header.putDouble(time);
+            header.putDouble(elapsedTime);
+            header.force();
+
+            long position = HEADER_BYTES;
+            position = writeColumn(channel, position, store.getMasses(), n);
+            position = writeColumn(channel, position, store.getXs(), n);
+            position = writeColumn(channel, position, store.getYs(), n);
+            position = writeColumn(channel, position, store.getVelocityXs(), n);
+            position = writeColumn(channel, position, store.getVelocityYs(), n);
+            int[] ids = new int[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = store.getId(i);
+            }
+            writeColumn(channel, position, ids, n);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint from the given file.
+     * @param path the file to read
+     * @return the checkpoint
+     * @throws IOException if the file cannot be read or is not a checkpoint
+     * this version understands
+     */
+    public static Checkpoint read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                throw new IOException("Too short to be a checkpoint: " + path);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a checkpoint: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + ": " + path);
+            }
+            int headerBytes = header.getInt();
+            long n = header.getLong();
+            long step = header.getLong();
+            double time = header.getDouble();
+            double elapsedTime = header.getDouble();
+            if (headerBytes < HEADER_BYTES || n < 0 || n > Integer.MAX_VALUE || step < 0) {
+                throw new IOException("Corrupt checkpoint header: " + path);
+            }
+            long expected = headerBytes + n * (5 * Double.BYTES + Integer.BYTES);
+            if (fileSize != expected) {
+                throw new IOException("Checkpoint of " + n + " bodies should be " + expected
+                        + " bytes, not " + fileSize + ": " + path);
+            }
+
+            int count = (int) n;
+            double[] mass = new double[count];
+            double[] x = new double[count];
+            double[] y = new double[count];
+            double[] vx = new double[count];
+            double[] vy = new double[count];
+            int[] ids = new int[count];
+            long position = headerBytes;
+            position = readColumn(channel, position, mass, count);
+            position = readColumn(channel, position, x, count);
+            position = readColumn(channel, position, y, count);
+            position = readColumn(channel, position, vx, count);
+            position = readColumn(channel, position, vy, count);
+            readColumn(channel, position, ids, count);
+
+            BodyStore store;
+            try {
+                store = new BodyStore(count, mass, x, y, vx, vy, ids);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt checkpoint ids: " + path, e);
+            }
+            return new Checkpoint(store, step, time, elapsedTime);
+        }
+    }
+
+    /** Writes the first n values to the channel at the given position.
+     *  @return the position after them */
+    private static long writeColumn(FileChannel channel, long position, double[] values, int n)
+            throws IOException {
+        int perMapping = MAX_MAPPING / Double.BYTES;
+        for (int from = 0; from < n; from += perMapping) {
+            int count = Math.min(perMapping, n - from);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                    (long) count * Double.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(values, from, count);
+            buffer.force();
+            position += (long) count * Double.BYTES;
+        }
+        return position;
+    }
+
+    /** Writes the first n values to the channel at the given position.
+     *  @return the position after them */
+    private static long writeColumn(FileChannel channel, long position, int[] values, int n)
+            throws IOException {
+        int perMapping = MAX_MAPPING / Integer.BYTES;
+        for (int from = 0; from < n; from += perMapping) {
+            int count = Math.min(perMapping, n - from);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                    (long) count * Integer.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(values, from, count);
+            buffer.force();
+            position += (long) count * Integer.BYTES;
+        }
+        return position;
+    }
+
+    /** Reads n values from the channel at the given position.
+     *  @return the position after them */
+    private static long readColumn(FileChannel channel, long position, double[] values, int n)
+            throws IOException {
+        int perMapping = MAX_MAPPING / Double.BYTES;
+        for (int from = 0; from < n; from += perMapping) {
+            int count = Math.min(perMapping, n - from);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    (long) count * Double.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values, from, count);
+            position += (long) count * Double.BYTES;
+        }
+        return position;
+    }
+
+    /** Reads n values from the channel at the given position.
+     *  @return the position after them */
+    private static long readColumn(FileChannel channel, long position, int[] values, int n)
+            throws IOException {
+        int perMapping = MAX_MAPPING / Integer.BYTES;
+        for (int from = 0; from < n; from += perMapping) {
+            int count = Math.min(perMapping, n - from);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    (long) count * Integer.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values, from, count);
+            position += (long) count * Integer.BYTES;
+        }
+        return position;
+    }
+}
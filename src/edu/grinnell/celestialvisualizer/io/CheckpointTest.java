@@ -0,0 +1,73 @@
+package edu.grinnell.celestialvisualizer.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+import edu.grinnell.celestialvisualizer.util.SpaceFillingCurve;
+
+public class CheckpointTest {
+
+    @Test
+    public void testRoundTripKeepsOrderAndIds() throws IOException {
+        BodyStore store = Scenario.GALAXY.create(500, 5);
+        NBody sim = new NBody(store).setPool(null);
+        sim.reorder(SpaceFillingCurve.HILBERT);
+        sim.update(50.0);
+        sim.update(50.0);
+
+        Path file = Files.createTempFile("checkpoint", ".nbody");
+        try {
+            new Checkpoint(store, sim.getStepCount(), 100.0, 50.0).write(file);
+            assertEquals(Checkpoint.HEADER_BYTES + 500L * 44, Files.size(file));
+            Checkpoint read = Checkpoint.read(file);
+            assertEquals(2, read.getStep());
+            assertEquals(100.0, read.getTime(), 0.0);
+            assertEquals(50.0, read.getElapsedTime(), 0.0);
+            BodyStore copy = read.getStore();
+            assertEquals(store.size(), copy.size());
+            for (int i = 0; i < store.size(); i++) {
+                assertEquals(store.getId(i), copy.getId(i));
+                assertEquals(i, copy.indexOf(copy.getId(i)));
+                assertEquals(store.getMasses()[i], copy.getMasses()[i], 0.0);
+                assertEquals(store.getXs()[i], copy.getXs()[i], 0.0);
+                assertEquals(store.getYs()[i], copy.getYs()[i], 0.0);
+                assertEquals(store.getVelocityXs()[i], copy.getVelocityXs()[i], 0.0);
+                assertEquals(store.getVelocityYs()[i], copy.getVelocityYs()[i], 0.0);
+            }
+
+            // The restarted simulation carries on exactly as the original.
+            NBody restarted = read.toSimulation().setPool(null);
+            assertEquals(2, restarted.getStepCount());
+            sim.update(50.0);
+            restarted.update(50.0);
+            assertEquals(store.getXs()[7], copy.getXs()[7], 0.0);
+            assertEquals(3, restarted.getStepCount());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws IOException {
+        Path file = Files.createTempFile("checkpoint", ".nbody");
+        try {
+            Files.write(file, new byte[Checkpoint.HEADER_BYTES]);
+            try {
+                Checkpoint.read(file);
+                fail("Read a file that is not a checkpoint");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Not a checkpoint"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
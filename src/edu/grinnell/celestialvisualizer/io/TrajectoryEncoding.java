@@ -0,0 +1,16 @@
+package edu.grinnell.celestialvisualizer.io;
+
+/**
+ * The ways a TrajectoryRecorder can store the positions of the bodies.
+ */
+public enum TrajectoryEncoding {
+    /** Every coordinate as an 8-byte double, exactly as simulated. */
+    RAW,
+    /** Every coordinate rounded to a multiple of the quantum, and stored as
+     *  a variable-length integer of 1 to 10 bytes. */
+    QUANTIZED,
+    /** As QUANTIZED, but every frame other than a keyframe stores the
+     *  change of each coordinate since the previous frame, which for
+     *  bodies that move a few quanta a step takes a byte or two. */
+    DELTA
+}
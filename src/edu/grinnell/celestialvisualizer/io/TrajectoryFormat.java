@@ -0,0 +1,82 @@
+package edu.grinnell.celestialvisualizer.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The layout of the trajectory files written by TrajectoryRecorder and
+ * read by TrajectoryReader, all little-endian:
+ *
+ * <pre>
+ *   0  magic      8 bytes, "NBODYTRJ"
+ *   8  version    int, currently 1
+ *  12  header     int, the size of the header in bytes
+ *  16  n          long, the number of bodies
+ *  24  encoding   int, the ordinal of the TrajectoryEncoding
+ *  28  keyframes  int, the number of frames between keyframes
+ *  32  quantum    double, the grid quantized coordinates are rounded to
+ *  40  reserved   24 bytes of zeros
+ *  64  mass       n doubles, by body id
+ * </pre>
+ *
+ * followed by one chunk per recorded frame:
+ *
+ * <pre>
+ *   0  step       long
+ *   8  time       double
+ *  16  flags      int, KEYFRAME if the frame depends on no other
+ *  20  xBytes     int, the size of the x column
+ *  24  yBytes     int, the size of the y column
+ *  28  reserved   4 bytes of zeros
+ *  32  x, y       the columns of coordinates, by body id
+ * </pre>
+ *
+ * Quantized coordinates and their changes are written as zigzag varints:
+ * seven bits to a byte, low bits first, with the top bit set on every byte
+ * but the last.
+ */
+final class TrajectoryFormat {
+
+    /** The first eight bytes of every trajectory. */
+    static final byte[] MAGIC = "NBODYTRJ".getBytes(StandardCharsets.US_ASCII);
+    /** The version of the format written. */
+    static final int VERSION = 1;
+    /** The size of the file header written, in bytes. */
+    static final int HEADER_BYTES = 64;
+    /** The size of the header of every frame, in bytes. */
+    static final int FRAME_HEADER_BYTES = 32;
+    /** The flag of a frame that depends on no other. */
+    static final int KEYFRAME = 1;
+    /** The most bytes a coordinate takes in any encoding. */
+    static final int MAX_COORDINATE_BYTES = 10;
+
+    private TrajectoryFormat() { }
+
+    /** @return the given coordinate rounded to the given quantum */
+    static long quantize(double value, double quantum) {
+        return Math.round(value / quantum);
+    }
+
+    /** Writes the given value to the buffer as a zigzag varint. */
+    static void putVarLong(ByteBuffer buffer, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer.put((byte) (zigzag & 0x7F | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    /** @return the zigzag varint read from the buffer */
+    static long getVarLong(ByteBuffer buffer) {
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            zigzag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,285 @@
+package edu.grinnell.celestialvisualizer.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A TrajectoryReader reads back the frames of a file written by a
+ * TrajectoryRecorder.  Opening a trajectory reads the header of every
+ * frame to index them, so any frame can be read in any order; reading a
+ * frame maps its columns into memory and decodes them into arrays indexed
+ * by body id, which are reused from frame to frame.  A frame stored as a
+ * change from the one before (see TrajectoryEncoding.DELTA) is read by
+ * decoding forward from the keyframe before it, unless it directly follows
+ * the current frame.
+ *
+ * A frame cut off at the end of the file, as an interrupted recording may
+ * leave, is ignored.
+ */
+public class TrajectoryReader implements AutoCloseable {
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int n;
+    private final TrajectoryEncoding encoding;
+    private final int keyframeInterval;
+    private final double quantum;
+    private final double[] mass;
+
+    // The index of the frames: the position of each in the file, its step,
+    // its time, and the index of the keyframe it is decoded from.
+    private int frameCount;
+    private long[] framePosition = new long[16];
+    private long[] frameStep = new long[16];
+    private double[] frameTime = new double[16];
+    private int[] frameKeyframe = new int[16];
+
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(TrajectoryFormat.FRAME_HEADER_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final double[] x;
+    private final double[] y;
+    private final long[] quantizedX;
+    private final long[] quantizedY;
+    private int frame = -1;
+
+    /**
+     * Opens the given trajectory and indexes its frames.
+     * @param path the file to read
+     * @throws IOException if the file cannot be read or is not a trajectory
+     * this version understands
+     */
+    public TrajectoryReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, 0);
+            byte[] magic = new byte[TrajectoryFormat.MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, TrajectoryFormat.MAGIC)) {
+                throw new IOException("Not a trajectory: " + path);
+            }
+            int version = header.getInt();
+            if (version != TrajectoryFormat.VERSION) {
+                throw new IOException("Unsupported trajectory version " + version + ": " + path);
+            }
+            int headerBytes = header.getInt();
+            long count = header.getLong();
+            int ordinal = header.getInt();
+            keyframeInterval = header.getInt();
+            quantum = header.getDouble();
+            TrajectoryEncoding[] encodings = TrajectoryEncoding.values();
+            if (headerBytes < TrajectoryFormat.HEADER_BYTES || count < 0
+                    || count * TrajectoryFormat.MAX_COORDINATE_BYTES > Integer.MAX_VALUE
+                    || ordinal < 0 || ordinal >= encodings.length || !(quantum > 0)) {
+                throw new IOException("Corrupt trajectory header: " + path);
+            }
+            n = (int) count;
+            encoding = encodings[ordinal];
+
+            ByteBuffer masses = ByteBuffer.allocate(n * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(masses, headerBytes);
+            mass = new double[n];
+            masses.asDoubleBuffer().get(mass);
+            index(headerBytes + (long) n * Double.BYTES);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        x = new double[n];
+        y = new double[n];
+        quantizedX = new long[n];
+        quantizedY = new long[n];
+    }
+
+    /** Reads the headers of the frames from the given position on. */
+    private void index(long position) throws IOException {
+        long size = channel.size();
+        int keyframe = -1;
+        while (size - position >= TrajectoryFormat.FRAME_HEADER_BYTES) {
+            frameHeader.clear();
+            readFully(frameHeader, position);
+            long step = frameHeader.getLong();
+            double time = frameHeader.getDouble();
+            boolean isKeyframe = (frameHeader.getInt() & TrajectoryFormat.KEYFRAME) != 0;
+            int xBytes = frameHeader.getInt();
+            int yBytes = frameHeader.getInt();
+            long maxBytes = (long) n * TrajectoryFormat.MAX_COORDINATE_BYTES;
+            if (xBytes < 0 || yBytes < 0 || xBytes > maxBytes || yBytes > maxBytes) {
+                throw new IOException("Corrupt trajectory frame at step " + step + ": " + path);
+            }
+            long end = position + TrajectoryFormat.FRAME_HEADER_BYTES + xBytes + yBytes;
+            if (end > size) {
+                break;
+            }
+            if (isKeyframe) {
+                keyframe = frameCount;
+            } else if (keyframe < 0) {
+                throw new IOException("Trajectory starts without a keyframe: " + path);
+            }
+            if (frameCount == framePosition.length) {
+                int capacity = frameCount * 2;
+                framePosition = Arrays.copyOf(framePosition, capacity);
+                frameStep = Arrays.copyOf(frameStep, capacity);
+                frameTime = Arrays.copyOf(frameTime, capacity);
+                frameKeyframe = Arrays.copyOf(frameKeyframe, capacity);
+            }
+            framePosition[frameCount] = position;
+            frameStep[frameCount] = step;
+            frameTime[frameCount] = time;
+            frameKeyframe[frameCount] = keyframe;
+            frameCount++;
+            position = end;
+        }
+    }
+
+    /** @return the number of bodies */
+    public int getBodyCount() { return n; }
+
+    /** @return the way the positions are stored */
+    public TrajectoryEncoding getEncoding() { return encoding; }
+
+    /** @return the number of frames from one keyframe to the next */
+    public int getKeyframeInterval() { return keyframeInterval; }
+
+    /** @return the grid quantized coordinates were rounded to */
+    public double getQuantum() { return quantum; }
+
+    /** @return the mass of the body with the given id */
+    public double getMass(int id) { return mass[id]; }
+
+    /** @return the number of frames in the trajectory */
+    public int getFrameCount() { return frameCount; }
+
+    /** @return the number of steps the simulation had taken at the given
+     *  frame */
+    public long getStep(int frame) { return frameStep[frame]; }
+
+    /** @return the simulated time at the given frame */
+    public double getTime(int frame) { return frameTime[frame]; }
+
+    /**
+     * @return the index of the last frame at or before the given time, or
+     * -1 if every frame is later
+     */
+    public int frameAt(double time) {
+        int lo = 0;
+        int hi = frameCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (frameTime[mid] <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    /** @return the index of the frame last read, or -1 if none has been */
+    public int getFrame() { return frame; }
+
+    /** @return the x coordinates of the frame last read, by body id; the
+     *  array is overwritten by the next read */
+    public double[] getXs() { return x; }
+
+    /** @return the y coordinates of the frame last read, by body id; the
+     *  array is overwritten by the next read */
+    public double[] getYs() { return y; }
+
+    /**
+     * Reads the frame after the one last read.
+     * @return true if a frame was read, or false if the last frame had
+     * already been read
+     * @throws IOException if the file cannot be read
+     */
+    public boolean next() throws IOException {
+        if (frame + 1 >= frameCount) {
+            return false;
+        }
+        read(frame + 1);
+        return true;
+    }
+
+    /**
+     * Reads the given frame.
+     * @param target the index of the frame
+     * @throws IOException if the file cannot be read
+     */
+    public void read(int target) throws IOException {
+        if (target < 0 || target >= frameCount) {
+            throw new IndexOutOfBoundsException("No frame " + target + " of " + frameCount);
+        }
+        int from = frameKeyframe[target];
+        if (frame >= from && frame < target) {
+            from = frame + 1;
+        } else if (frame == target) {
+            return;
+        }
+        // Forget the current frame while the arrays are half decoded.
+        frame = -1;
+        for (int k = from; k <= target; k++) {
+            decode(k);
+        }
+        frame = target;
+    }
+
+    /** Decodes the given frame on top of the one before it. */
+    private void decode(int k) throws IOException {
+        frameHeader.clear();
+        readFully(frameHeader, framePosition[k]);
+        frameHeader.position(16);
+        boolean keyframe = (frameHeader.getInt() & TrajectoryFormat.KEYFRAME) != 0;
+        int xBytes = frameHeader.getInt();
+        int yBytes = frameHeader.getInt();
+        long position = framePosition[k] + TrajectoryFormat.FRAME_HEADER_BYTES;
+        ByteBuffer columns = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                (long) xBytes + yBytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            columns.limit(xBytes);
+            decode(columns, x, quantizedX, keyframe);
+            columns.limit(xBytes + yBytes).position(xBytes);
+            decode(columns, y, quantizedY, keyframe);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt trajectory frame at step " + frameStep[k] + ": " + path, e);
+        }
+    }
+
+    /** Decodes a column of coordinates into values. */
+    private void decode(ByteBuffer column, double[] values, long[] quantized, boolean keyframe) {
+        if (encoding == TrajectoryEncoding.RAW) {
+            column.asDoubleBuffer().get(values, 0, n);
+            return;
+        }
+        for (int id = 0; id < n; id++) {
+            long q = TrajectoryFormat.getVarLong(column);
+            quantized[id] = keyframe ? q : quantized[id] + q;
+            values[id] = quantized[id] * quantum;
+        }
+    }
+
+    /** Fills the buffer from the given position of the file and flips
+     *  it. */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Trajectory cut off: " + path);
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,378 @@
+package edu.grinnell.celestialvisualizer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+
+/**
+ * A TrajectoryRecorder records the positions of the bodies of a simulation
+ * after every step to a file, for analysis or playback once the run is
+ * over (see TrajectoryReader, and TrajectoryFormat for the layout).
+ *
+ * Recording is split in two stages so that it does not slow the
+ * simulation.  On the simulation thread, record copies the positions into
+ * the next free frame of a ring of preallocated frames, which allocates
+ * nothing.  A writer thread of its own encodes the frames in the ring and
+ * writes them out with gathering writes.  If the writer falls behind and
+ * the ring is full, record does not wait: it drops the frame, counts it,
+ * and returns false, so the caller can record less often.  With DELTA
+ * encoding a dropped frame only makes the next change larger.
+ *
+ * The positions are recorded by body id, so a trajectory is unaffected by
+ * NBody.reorder.  The number of bodies must not change while recording.
+ */
+public class TrajectoryRecorder implements AutoCloseable {
+
+    /** The default number of frames the ring holds. */
+    public static final int DEFAULT_RING_SIZE = 8;
+    /** The default number of frames from one keyframe to the next. */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+    /** The default grid quantized coordinates are rounded to, in meters. */
+    public static final double DEFAULT_QUANTUM = 1000.0;
+
+    /** A frame of the ring. */
+    private static final class Frame {
+        long step;
+        double time;
+        final double[] x;
+        final double[] y;
+
+        Frame(int n) {
+            x = new double[n];
+            y = new double[n];
+        }
+    }
+
+    private final Path path;
+    private final int n;
+    private final double[] mass;
+
+    private TrajectoryEncoding encoding = TrajectoryEncoding.RAW;
+    private double quantum = DEFAULT_QUANTUM;
+    private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+    private int ringSize = DEFAULT_RING_SIZE;
+
+    private Frame[] ring;
+    // The number of frames ever put in the ring, written only by record,
+    // and the number ever taken out, written only by the writer thread.
+    private volatile long head;
+    private volatile long tail;
+    private volatile boolean running;
+    private volatile boolean waiting;
+    private volatile IOException failure;
+    private long dropped;
+    private Thread writer;
+
+    // Owned by the writer thread.
+    private FileChannel channel;
+    private ByteBuffer frameHeader;
+    private ByteBuffer xColumn;
+    private ByteBuffer yColumn;
+    private ByteBuffer[] gather;
+    private long[] previousX;
+    private long[] previousY;
+    private long written;
+
+    /**
+     * Constructs a recorder of the bodies of the given store to the given
+     * file.  The masses of the bodies are taken now, and the number of
+     * bodies is fixed from now on.  Nothing is written until start.
+     * @param path the file to write
+     * @param store the bodies to record
+     */
+    public TrajectoryRecorder(Path path, BodyStore store) {
+        this.path = path;
+        this.n = store.size();
+        if ((long) n * TrajectoryFormat.MAX_COORDINATE_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many bodies to record: " + n);
+        }
+        this.mass = new double[n];
+        double[] masses = store.getMasses();
+        for (int i = 0; i < n; i++) {
+            mass[store.getId(i)] = masses[i];
+        }
+    }
+
+    /** @return the way the positions are stored */
+    public TrajectoryEncoding getEncoding() { return encoding; }
+
+    /**
+     * Sets the way the positions are stored.  By default this is RAW.
+     * @param encoding the encoding to use
+     * @return this recorder
+     */
+    public TrajectoryRecorder setEncoding(TrajectoryEncoding encoding) {
+        checkNotStarted();
+        if (encoding == null) {
+            throw new IllegalArgumentException("Encoding must not be null");
+        }
+        this.encoding = encoding;
+        return this;
+    }
+
+    /** @return the grid quantized coordinates are rounded to */
+    public double getQuantum() { return quantum; }
+
+    /**
+     * Sets the grid the QUANTIZED and DELTA encodings round the
+     * coordinates to.
+     * @param quantum the spacing of the grid, in meters
+     * @return this recorder
+     */
+    public TrajectoryRecorder setQuantum(double quantum) {
+        checkNotStarted();
+        if (!(quantum > 0) || Double.isInfinite(quantum)) {
+            throw new IllegalArgumentException("Quantum must be positive: " + quantum);
+        }
+        this.quantum = quantum;
+        return this;
+    }
+
+    /** @return the number of frames from one keyframe to the next */
+    public int getKeyframeInterval() { return keyframeInterval; }
+
+    /**
+     * Sets the number of frames from one keyframe to the next in the DELTA
+     * encoding.  A reader can only start reading at a keyframe.
+     * @param interval the number of frames, at least 1
+     * @return this recorder
+     */
+    public TrajectoryRecorder setKeyframeInterval(int interval) {
+        checkNotStarted();
+        if (interval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be positive: " + interval);
+        }
+        this.keyframeInterval = interval;
+        return this;
+    }
+
+    /** @return the number of frames the ring holds */
+    public int getRingSize() { return ringSize; }
+
+    /**
+     * Sets the number of frames the ring holds, that is how far the writer
+     * may fall behind before frames are dropped.
+     * @param frames the number of frames, at least 1
+     * @return this recorder
+     */
+    public TrajectoryRecorder setRingSize(int frames) {
+        checkNotStarted();
+        if (frames < 1) {
+            throw new IllegalArgumentException("Ring size must be positive: " + frames);
+        }
+        this.ringSize = frames;
+        return this;
+    }
+
+    /** @return the number of frames dropped because the ring was full */
+    public long getDroppedFrames() { return dropped; }
+
+    /** @return the number of frames written to the file so far */
+    public long getWrittenFrames() { return tail; }
+
+    /**
+     * Creates the file, writes its header, and starts the writer thread.
+     * @return this recorder
+     * @throws IOException if the file cannot be created
+     */
+    public synchronized TrajectoryRecorder start() throws IOException {
+        checkNotStarted();
+        ring = new Frame[ringSize];
+        for (int k = 0; k < ringSize; k++) {
+            ring[k] = new Frame(n);
+        }
+        int columnBytes = n * (encoding == TrajectoryEncoding.RAW
+                ? Double.BYTES : TrajectoryFormat.MAX_COORDINATE_BYTES);
+        frameHeader = ByteBuffer.allocateDirect(TrajectoryFormat.FRAME_HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        xColumn = ByteBuffer.allocateDirect(columnBytes).order(ByteOrder.LITTLE_ENDIAN);
+        yColumn = ByteBuffer.allocateDirect(columnBytes).order(ByteOrder.LITTLE_ENDIAN);
+        gather = new ByteBuffer[] { frameHeader, xColumn, yColumn };
+        previousX = new long[n];
+        previousY = new long[n];
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.HEADER_BYTES + n * Double.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.put(TrajectoryFormat.MAGIC);
+            header.putInt(TrajectoryFormat.VERSION);
+            header.putInt(TrajectoryFormat.HEADER_BYTES);
+            header.putLong(n);
+            header.putInt(encoding.ordinal());
+            header.putInt(keyframeInterval);
+            header.putDouble(quantum);
+            header.position(TrajectoryFormat.HEADER_BYTES);
+            header.asDoubleBuffer().put(mass);
+            header.position(header.limit());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        running = true;
+        writer = new Thread(this::run, "trajectory");
+        writer.setDaemon(true);
+        writer.start();
+        return this;
+    }
+
+    /**
+     * Copies the positions of the bodies of the given store into the ring,
+     * to be written by the writer thread.  Allocates nothing, and never
+     * waits for the writer.  Must only be called by one thread at a time.
+     * @param store the bodies, the same ones the recorder was made for
+     * @param step the number of steps the simulation has taken
+     * @param time the simulated time that has passed
+     * @return true if the frame was recorded, or false if it was dropped
+     * because the ring was full or the writer has failed
+     */
+    public boolean record(BodyStore store, long step, double time) {
+        if (!running) {
+            throw new IllegalStateException("Recorder is not running");
+        }
+        if (store.size() != n) {
+            throw new IllegalStateException("Recording " + n + " bodies, not " + store.size());
+        }
+        long h = head;
+        if (h - tail == ring.length || failure != null) {
+            dropped++;
+            return false;
+        }
+        Frame frame = ring[(int) (h % ring.length)];
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        for (int i = 0; i < n; i++) {
+            int id = store.getId(i);
+            frame.x[id] = x[i];
+            frame.y[id] = y[i];
+        }
+        frame.step = step;
+        frame.time = time;
+        head = h + 1;
+        if (waiting) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Writes out the frames left in the ring, stops the writer thread and
+     * closes the file.  Does nothing if the recorder is not running.
+     * @throws IOException if the writer thread failed to write a frame
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void checkNotStarted() {
+        if (ring != null) {
+            throw new IllegalStateException("Recorder has already been started");
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                // Read running before the head, so that a frame recorded
+                // just before close is still seen.
+                boolean stopping = !running;
+                long t = tail;
+                if (t == head) {
+                    if (stopping) {
+                        return;
+                    }
+                    waiting = true;
+                    if (t == head && running) {
+                        LockSupport.park(this);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                write(ring[(int) (t % ring.length)]);
+                tail = t + 1;
+            }
+        } catch (IOException e) {
+            // Reported by close; until then record drops every frame.
+            failure = e;
+        }
+    }
+
+    /** Encodes the given frame and writes it to the file. */
+    private void write(Frame frame) throws IOException {
+        boolean keyframe = encoding != TrajectoryEncoding.DELTA || written % keyframeInterval == 0;
+        xColumn.clear();
+        yColumn.clear();
+        encode(frame.x, previousX, keyframe, xColumn);
+        encode(frame.y, previousY, keyframe, yColumn);
+        xColumn.flip();
+        yColumn.flip();
+
+        frameHeader.clear();
+        frameHeader.putLong(frame.step);
+        frameHeader.putDouble(frame.time);
+        frameHeader.putInt(keyframe ? TrajectoryFormat.KEYFRAME : 0);
+        frameHeader.putInt(xColumn.remaining());
+        frameHeader.putInt(yColumn.remaining());
+        frameHeader.putInt(0);
+        frameHeader.flip();
+
+        long remaining = TrajectoryFormat.FRAME_HEADER_BYTES + xColumn.remaining() + yColumn.remaining();
+        while (remaining > 0) {
+            remaining -= channel.write(gather);
+        }
+        written++;
+    }
+
+    /** Encodes the given column of coordinates into the buffer. */
+    private void encode(double[] values, long[] previous, boolean keyframe, ByteBuffer out) {
+        if (encoding == TrajectoryEncoding.RAW) {
+            out.asDoubleBuffer().put(values, 0, n);
+            out.position(n * Double.BYTES);
+            return;
+        }
+        for (int id = 0; id < n; id++) {
+            long q = TrajectoryFormat.quantize(values[id], quantum);
+            TrajectoryFormat.putVarLong(out, keyframe ? q : q - previous[id]);
+            previous[id] = q;
+        }
+    }
+}
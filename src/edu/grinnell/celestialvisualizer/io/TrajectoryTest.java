@@ -0,0 +1,180 @@
+package edu.grinnell.celestialvisualizer.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+import edu.grinnell.celestialvisualizer.util.SpaceFillingCurve;
+
+public class TrajectoryTest {
+
+    private static NBody makeSimulation(int n) {
+        return new NBody(Scenario.UNIFORM.create(n, 11)).setPool(null);
+    }
+
+    /** Runs the simulation for the given number of steps, recording every
+     *  step with the given recorder, and checks that the recorded frames
+     *  match the positions within the given tolerance. */
+    private static void checkRecording(NBody sim, TrajectoryRecorder recorder, Path file,
+            int steps, double tolerance) throws IOException {
+        BodyStore store = sim.getStore();
+        int n = store.size();
+        double[][] expectedX = new double[steps][n];
+        double[][] expectedY = new double[steps][n];
+        sim.setTrajectoryRecorder(recorder.setRingSize(steps).start());
+        for (int s = 0; s < steps; s++) {
+            if (s == steps / 2) {
+                sim.reorder(SpaceFillingCurve.MORTON);
+            }
+            sim.update(3600.0);
+            for (int i = 0; i < n; i++) {
+                expectedX[s][store.getId(i)] = store.getXs()[i];
+                expectedY[s][store.getId(i)] = store.getYs()[i];
+            }
+        }
+        recorder.close();
+        assertEquals(0, recorder.getDroppedFrames());
+        assertEquals(steps, recorder.getWrittenFrames());
+
+        try (TrajectoryReader reader = new TrajectoryReader(file)) {
+            assertEquals(n, reader.getBodyCount());
+            assertEquals(recorder.getEncoding(), reader.getEncoding());
+            assertEquals(steps, reader.getFrameCount());
+            for (int s = 0; s < steps; s++) {
+                assertTrue(reader.next());
+                assertEquals(s + 1, reader.getStep(s));
+                assertEquals(3600.0 * (s + 1), reader.getTime(s), 1e-9);
+                checkFrame(reader, expectedX[s], expectedY[s], tolerance);
+            }
+            assertFalse(reader.next());
+
+            // Seek backwards, and to the middle of a run of changes.
+            for (int s : new int[] { steps - 7, 2, 3 }) {
+                reader.read(s);
+                assertEquals(s, reader.getFrame());
+                checkFrame(reader, expectedX[s], expectedY[s], tolerance);
+            }
+            assertEquals(12, reader.frameAt(3600.0 * 13.5));
+        }
+    }
+
+    private static void checkFrame(TrajectoryReader reader, double[] expectedX, double[] expectedY,
+            double tolerance) {
+        for (int id = 0; id < reader.getBodyCount(); id++) {
+            assertEquals(expectedX[id], reader.getXs()[id], tolerance);
+            assertEquals(expectedY[id], reader.getYs()[id], tolerance);
+        }
+    }
+
+    @Test
+    public void testRawRecordingIsExact() throws IOException {
+        NBody sim = makeSimulation(300);
+        Path file = Files.createTempFile("trajectory", ".nbody");
+        try {
+            TrajectoryRecorder recorder = new TrajectoryRecorder(file, sim.getStore());
+            checkRecording(sim, recorder, file, 20, 0.0);
+            try (TrajectoryReader reader = new TrajectoryReader(file)) {
+                BodyStore store = sim.getStore();
+                assertEquals(store.getMasses()[store.indexOf(2)], reader.getMass(2), 0.0);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testDeltaRecordingIsWithinHalfAQuantum() throws IOException {
+        NBody sim = makeSimulation(300);
+        Path file = Files.createTempFile("trajectory", ".nbody");
+        try {
+            TrajectoryRecorder recorder = new TrajectoryRecorder(file, sim.getStore())
+                    .setEncoding(TrajectoryEncoding.DELTA)
+                    .setQuantum(10.0)
+                    .setKeyframeInterval(8);
+            checkRecording(sim, recorder, file, 20, 5.0);
+            // Most changes fit in a few bytes rather than the eight of a
+            // double.
+            long raw = 20L * 300 * 2 * Double.BYTES;
+            assertTrue(Files.size(file) < raw / 2);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testFullRingDropsFrames() throws Exception {
+        // The recorder writes to a pipe that is not read past the header
+        // until the end, so the writer blocks on the first frame, which is
+        // larger than the pipe can hold, and the ring fills.
+        Path dir = Files.createTempDirectory("trajectory");
+        Path pipe = dir.resolve("pipe");
+        Path copy = dir.resolve("copy.nbody");
+        boolean made;
+        try {
+            made = new ProcessBuilder("mkfifo", pipe.toString()).start().waitFor() == 0;
+        } catch (IOException e) {
+            made = false;
+        }
+        CountDownLatch drain = new CountDownLatch(1);
+        try {
+            Assume.assumeTrue("Cannot make a named pipe", made);
+            int n = 20000;
+            BodyStore store = new BodyStore();
+            for (int i = 0; i < n; i++) {
+                store.add(1.0, i, -i, 0.0, 0.0);
+            }
+            Thread reader = new Thread(() -> {
+                try (InputStream in = Files.newInputStream(pipe);
+                        OutputStream out = Files.newOutputStream(copy)) {
+                    out.write(in.readNBytes(TrajectoryFormat.HEADER_BYTES + n * Double.BYTES));
+                    drain.await();
+                    in.transferTo(out);
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+
+            TrajectoryRecorder recorder = new TrajectoryRecorder(pipe, store).setRingSize(2).start();
+            int steps = 10;
+            for (int s = 0; s < steps; s++) {
+                assertEquals(s < 2, recorder.record(store, s + 1, 60.0 * (s + 1)));
+                store.getXs()[0] += 1.0;
+            }
+            assertEquals(steps - 2, recorder.getDroppedFrames());
+            drain.countDown();
+            recorder.close();
+            reader.join();
+            assertEquals(2, recorder.getWrittenFrames());
+
+            // The frames kept are the first two, as they were recorded.
+            try (TrajectoryReader trajectory = new TrajectoryReader(copy)) {
+                assertEquals(2, trajectory.getFrameCount());
+                for (int s = 0; s < 2; s++) {
+                    assertTrue(trajectory.next());
+                    assertEquals(s + 1, trajectory.getStep(s));
+                    assertEquals(s, trajectory.getXs()[0], 0.0);
+                    assertEquals(1.0 - n, trajectory.getYs()[n - 1], 0.0);
+                }
+                assertFalse(trajectory.next());
+            }
+        } finally {
+            drain.countDown();
+            Files.deleteIfExists(copy);
+            Files.deleteIfExists(pipe);
+            Files.delete(dir);
+        }
+    }
+}
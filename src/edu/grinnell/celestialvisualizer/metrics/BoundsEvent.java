@@ -0,0 +1,23 @@
+package edu.grinnell.celestialvisualizer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event covering the fitting of a box to the bodies (see
+ * BodyBounds), before a tree is built or the bodies are reordered.
+ */
+@Name("edu.grinnell.celestialvisualizer.Bounds")
+@Label("Bounding Box")
+@Description("Fitting the box a quad tree is rooted at to the bodies")
+@Category({ "Celestial Simulation", "Step" })
+@StackTrace(false)
+public class BoundsEvent extends Event {
+
+    @Label("Bodies")
+    public int bodies;
+}
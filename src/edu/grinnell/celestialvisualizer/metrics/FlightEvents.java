@@ -0,0 +1,31 @@
+package edu.grinnell.celestialvisualizer.metrics;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Helpers for emitting flight recorder events without allocating when no
+ * recording wants them.  The JIT does not reliably eliminate an event that
+ * is begun and ended around a large piece of work, so callers check
+ * isEnabled before creating one.
+ */
+public class FlightEvents {
+
+    private static final ClassValue<EventType> TYPES = new ClassValue<EventType>() {
+        @Override
+        protected EventType computeValue(Class<?> type) {
+            return EventType.getEventType(type.asSubclass(Event.class));
+        }
+    };
+
+    /**
+     * @return true if a running recording has the given event enabled.  No
+     * recording can be running before the flight recorder is initialized,
+     * and the check does not initialize it.
+     * @param type the class of the event
+     */
+    public static boolean isEnabled(Class<? extends Event> type) {
+        return FlightRecorder.isInitialized() && TYPES.get(type).isEnabled();
+    }
+}
@@ -0,0 +1,40 @@
+package edu.grinnell.celestialvisualizer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event covering one force calculation by a solver.  The
+ * TreeBuild event of a Barnes-Hut calculation falls within it.
+ */
+@Name("edu.grinnell.celestialvisualizer.Force")
+@Label("Force Evaluation")
+@Description("One calculation of the accelerations by a gravity solver")
+@Category({ "Celestial Simulation", "Step" })
+@StackTrace(false)
+public class ForceEvent extends Event {
+
+    @Label("Solver")
+    public String solver;
+
+    @Label("Targets")
+    @Description("Bodies whose accelerations were calculated")
+    public int targets;
+
+    @Label("Interactions")
+    public long interactions;
+
+    @Label("Particle-Particle Interactions")
+    public long particleInteractions;
+
+    @Label("Particle-Node Interactions")
+    @Description("Centroids standing in for their bodies")
+    public long nodeInteractions;
+
+    @Label("Nodes Opened")
+    public long nodesOpened;
+}
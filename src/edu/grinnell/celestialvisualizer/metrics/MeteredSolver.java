@@ -0,0 +1,88 @@
+package edu.grinnell.celestialvisualizer.metrics;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
+
+/**
+ * A MeteredSolver passes force calculations on to another solver, timing
+ * each one for a MetricsRecorder and emitting a ForceEvent for it.
+ *
+ * Integrators recognise the solver they calculated the last accelerations
+ * with by identity, and a metered solver keeps its identity when it is
+ * pointed at a different solver, so whoever calls setSolver must reset the
+ * integrator that uses it.
+ */
+public class MeteredSolver implements GravitySolver {
+
+    private final MetricsRecorder recorder;
+    private GravitySolver solver;
+
+    /**
+     * Constructs a metered solver reporting to the given recorder.
+     * @param recorder the recorder to report to
+     */
+    public MeteredSolver(MetricsRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /** @return the solver the calculations are passed on to */
+    public GravitySolver getSolver() { return solver; }
+
+    /**
+     * Sets the solver the calculations are passed on to.
+     * @param solver the solver
+     */
+    public void setSolver(GravitySolver solver) {
+        this.solver = solver;
+    }
+
+    @Override
+    public void computeAccelerations(BodyStore store, ForkJoinPool pool) {
+        computeAccelerations(store, null, store.size(), pool);
+    }
+
+    @Override
+    public void computeAccelerations(BodyStore store, int[] targets, int count,
+            ForkJoinPool pool) {
+        ForceEvent event = null;
+        if (FlightEvents.isEnabled(ForceEvent.class)) {
+            event = new ForceEvent();
+            event.begin();
+        }
+        long nodeInteractions = recorder.getNodeInteractions();
+        long nodesOpened = recorder.getNodesOpened();
+        recorder.beginForces();
+        long start = System.nanoTime();
+        if (targets == null) {
+            solver.computeAccelerations(store, pool);
+        } else {
+            solver.computeAccelerations(store, targets, count, pool);
+        }
+        long nanos = System.nanoTime() - start;
+        if (event != null) {
+            event.end();
+        }
+        long interactions = solver.getInteractionCount();
+        recorder.recordForces(nanos, interactions);
+        if (event != null && event.shouldCommit()) {
+            event.solver = solver.getClass().getSimpleName();
+            event.targets = count;
+            event.interactions = interactions;
+            event.nodeInteractions = recorder.getNodeInteractions() - nodeInteractions;
+            event.particleInteractions = interactions - event.nodeInteractions;
+            event.nodesOpened = recorder.getNodesOpened() - nodesOpened;
+            event.commit();
+        }
+    }
+
+    @Override
+    public long getInteractionCount() { return solver.getInteractionCount(); }
+
+    @Override
+    public void startStep() { solver.startStep(); }
+
+    @Override
+    public void reset() { solver.reset(); }
+}
@@ -0,0 +1,174 @@
+package edu.grinnell.celestialvisualizer.metrics;
+
+import edu.grinnell.celestialvisualizer.quadtree.FlatQuadTree;
+
+/**
+ * A MetricsRecorder adds up where the time and work of a step of a
+ * simulation go, as reported by the parts doing the work.  getLast turns
+ * the totals of the last step ended into a SimulationMetrics.
+ *
+ * The phases overlap in time: a force calculation may build a tree, and
+ * building a tree may fit a box to the bodies.  The metrics subtract the
+ * inner phases from the outer ones, so their times add up to the time of
+ * the step.
+ *
+ * Recording allocates nothing, so that it can be left on in a simulation
+ * that must not allocate; only getLast does.  A recorder is written by one
+ * thread at a time, the one running the step.
+ */
+public class MetricsRecorder {
+
+    /** The totals of one step. */
+    static class Totals {
+        long step;
+        int bodies;
+        long stepNanos;
+        long boundsNanos;
+        long outerBoundsNanos;
+        long treeNanos;
+        long forceNanos;
+        int forceEvaluations;
+        long interactions;
+        long nodeInteractions;
+        long nodesOpened;
+        int treeBuilds;
+        boolean hasTree;
+        int treeNodes;
+        int deadNodes;
+        int treeDepth;
+        int leaves;
+        double bodiesPerLeaf;
+        int outsideBodies;
+    }
+
+    // The totals of the step in progress and of the last step ended, and
+    // the metrics made from the latter, if any have been asked for.
+    private Totals current = new Totals();
+    private Totals finished = new Totals();
+    private SimulationMetrics last = SimulationMetrics.NONE;
+    private boolean inForces;
+
+    /** Starts the totals of a new step. */
+    public void beginStep() {
+        clear(current);
+        inForces = false;
+    }
+
+    /**
+     * Records the fitting of a box to the bodies.
+     * @param nanos the time it took
+     */
+    public void recordBounds(long nanos) {
+        current.boundsNanos += nanos;
+        if (!inForces) {
+            current.outerBoundsNanos += nanos;
+        }
+    }
+
+    /**
+     * Records the building or updating of a quad tree, and the shape of the
+     * tree that resulted.  The time does not include fitting its box.
+     * @param tree the tree
+     * @param bodies the number of bodies the tree was made from
+     * @param rebuilt whether the tree was built from scratch
+     * @param nanos the time it took
+     */
+    public void recordTree(FlatQuadTree tree, int bodies, boolean rebuilt, long nanos) {
+        Totals t = current;
+        t.treeNanos += nanos;
+        if (rebuilt) {
+            t.treeBuilds++;
+        }
+        t.hasTree = true;
+        t.treeNodes = tree.getNodeCount();
+        t.deadNodes = tree.getDeadNodeCount();
+        t.treeDepth = tree.getDepth();
+        t.leaves = tree.getLeafCount();
+        t.outsideBodies = tree.getOutsideCount();
+        t.bodiesPerLeaf = t.leaves == 0 ? 0.0 : (double) (bodies - t.outsideBodies) / t.leaves;
+    }
+
+    /**
+     * Records the work of a tree walk beyond its interactions.
+     * @param nodeInteractions the number of centroids that stood in for
+     * their bodies
+     * @param nodesOpened the number of centroid nodes opened
+     */
+    public void recordWalk(long nodeInteractions, long nodesOpened) {
+        current.nodeInteractions += nodeInteractions;
+        current.nodesOpened += nodesOpened;
+    }
+
+    /** Records that a force calculation has begun, so that the phases
+     *  recorded until it ends are counted as part of it. */
+    public void beginForces() {
+        inForces = true;
+    }
+
+    /**
+     * Records the end of a force calculation.  The time includes any box
+     * fitting and tree building it did.
+     * @param nanos the time it took
+     * @param interactions the number of interactions it evaluated
+     */
+    public void recordForces(long nanos, long interactions) {
+        inForces = false;
+        current.forceNanos += nanos;
+        current.forceEvaluations++;
+        current.interactions += interactions;
+    }
+
+    /**
+     * Ends the step, making its totals those of the last step.
+     * @param step the number of steps taken, this one included
+     * @param bodies the number of bodies
+     * @param nanos the time the whole step took
+     */
+    public void endStep(long step, int bodies, long nanos) {
+        current.step = step;
+        current.bodies = bodies;
+        current.stepNanos = nanos;
+        Totals t = finished;
+        finished = current;
+        current = t;
+        last = null;
+    }
+
+    /** @return the metrics of the last step ended */
+    public SimulationMetrics getLast() {
+        if (last == null) {
+            last = new SimulationMetrics(finished);
+        }
+        return last;
+    }
+
+    /** @return the number of centroids that have stood in for their bodies
+     *  so far this step */
+    long getNodeInteractions() { return current.nodeInteractions; }
+
+    /** @return the number of centroid nodes opened so far this step */
+    long getNodesOpened() { return current.nodesOpened; }
+
+    /** Zeroes the given totals. */
+    private static void clear(Totals t) {
+        t.step = 0;
+        t.bodies = 0;
+        t.stepNanos = 0;
+        t.boundsNanos = 0;
+        t.outerBoundsNanos = 0;
+        t.treeNanos = 0;
+        t.forceNanos = 0;
+        t.forceEvaluations = 0;
+        t.interactions = 0;
+        t.nodeInteractions = 0;
+        t.nodesOpened = 0;
+        t.treeBuilds = 0;
+        t.hasTree = false;
+        t.treeNodes = 0;
+        t.deadNodes = 0;
+        t.treeDepth = 0;
+        t.leaves = 0;
+        t.bodiesPerLeaf = 0.0;
+        t.outsideBodies = 0;
+    }
+}
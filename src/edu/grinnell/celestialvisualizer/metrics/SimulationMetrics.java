@@ -0,0 +1,124 @@
+package edu.grinnell.celestialvisualizer.metrics;
+
+/**
+ * SimulationMetrics records where the time and work of one step of a
+ * simulation went (see NBody.getMetrics).  The times of the phases add up
+ * to the time of the step:
+ *
+ *   - bounds: fitting boxes to the bodies, for trees and reordering,
+ *   - tree: building or updating quad trees,
+ *   - force: calculating accelerations, besides the above, and
+ *   - integration: everything else, mostly moving and reordering the
+ *     bodies.
+ *
+ * The tree figures describe the last tree built during the step, and are
+ * zero for solvers that build none.  Only BarnesHut reports particle-node
+ * interactions and opened nodes; for other solvers every interaction counts
+ * as particle-particle.
+ */
+public class SimulationMetrics {
+
+    /** The metrics of a simulation that has taken no steps. */
+    public static final SimulationMetrics NONE = new SimulationMetrics(new MetricsRecorder.Totals());
+
+    private final long step;
+    private final int bodies;
+    private final long stepNanos;
+    private final long boundsNanos;
+    private final long treeNanos;
+    private final long forceNanos;
+    private final long integrationNanos;
+    private final int forceEvaluations;
+    private final long interactions;
+    private final long nodeInteractions;
+    private final long nodesOpened;
+    private final int treeBuilds;
+    private final boolean hasTree;
+    private final int treeNodes;
+    private final int deadNodes;
+    private final int treeDepth;
+    private final int leaves;
+    private final double bodiesPerLeaf;
+    private final int outsideBodies;
+
+    /** Constructs the metrics of a step from its totals. */
+    SimulationMetrics(MetricsRecorder.Totals t) {
+        this.step = t.step;
+        this.bodies = t.bodies;
+        this.stepNanos = t.stepNanos;
+        this.boundsNanos = t.boundsNanos;
+        this.treeNanos = t.treeNanos;
+        long innerBounds = t.boundsNanos - t.outerBoundsNanos;
+        this.forceNanos = Math.max(0, t.forceNanos - t.treeNanos - innerBounds);
+        this.integrationNanos = Math.max(0, t.stepNanos - t.forceNanos - t.outerBoundsNanos);
+        this.forceEvaluations = t.forceEvaluations;
+        this.interactions = t.interactions;
+        this.nodeInteractions = t.nodeInteractions;
+        this.nodesOpened = t.nodesOpened;
+        this.treeBuilds = t.treeBuilds;
+        this.hasTree = t.hasTree;
+        this.treeNodes = t.treeNodes;
+        this.deadNodes = t.deadNodes;
+        this.treeDepth = t.treeDepth;
+        this.leaves = t.leaves;
+        this.bodiesPerLeaf = t.bodiesPerLeaf;
+        this.outsideBodies = t.outsideBodies;
+    }
+
+    /** @return the number of steps the simulation had taken */
+    public long getStep() { return step; }
+    /** @return the number of bodies */
+    public int getBodies() { return bodies; }
+
+    /** @return the time the whole step took, in nanoseconds */
+    public long getStepNanos() { return stepNanos; }
+    /** @return the time spent fitting boxes to the bodies */
+    public long getBoundsNanos() { return boundsNanos; }
+    /** @return the time spent building and updating quad trees */
+    public long getTreeNanos() { return treeNanos; }
+    /** @return the time spent calculating accelerations, besides fitting
+     *  boxes and building trees */
+    public long getForceNanos() { return forceNanos; }
+    /** @return the time spent outside the force calculations */
+    public long getIntegrationNanos() { return integrationNanos; }
+
+    /** @return the number of times the accelerations were calculated */
+    public int getForceEvaluations() { return forceEvaluations; }
+    /** @return the number of interactions evaluated over the step */
+    public long getInteractions() { return interactions; }
+    /** @return the number of interactions between two bodies */
+    public long getParticleInteractions() { return interactions - nodeInteractions; }
+    /** @return the number of interactions in which a centroid stood in for
+     *  its bodies */
+    public long getNodeInteractions() { return nodeInteractions; }
+    /** @return the number of centroid nodes opened by tree walks */
+    public long getNodesOpened() { return nodesOpened; }
+
+    /** @return the number of trees built from scratch, rather than updated */
+    public int getTreeBuilds() { return treeBuilds; }
+    /** @return true if the step built or updated a tree */
+    public boolean hasTree() { return hasTree; }
+    /** @return the number of nodes of the last tree, including empty and
+     *  dead ones */
+    public int getTreeNodes() { return treeNodes; }
+    /** @return the number of dead nodes of the last tree */
+    public int getDeadNodes() { return deadNodes; }
+    /** @return the depth of the last tree */
+    public int getTreeDepth() { return treeDepth; }
+    /** @return the number of leaves of the last tree */
+    public int getLeaves() { return leaves; }
+    /** @return the average number of bodies per leaf of the last tree */
+    public double getBodiesPerLeaf() { return bodiesPerLeaf; }
+    /** @return the number of bodies outside the root of the last tree */
+    public int getOutsideBodies() { return outsideBodies; }
+
+    @Override
+    public String toString() {
+        return String.format("step %d: %d bodies, %.3f ms (bounds %.3f, tree %.3f, force %.3f,"
+                + " integration %.3f); %d evaluations, %d interactions (%d particle-node),"
+                + " %d nodes opened; tree of %d nodes, depth %d, %.2f bodies per leaf",
+                step, bodies, stepNanos / 1e6, boundsNanos / 1e6, treeNanos / 1e6,
+                forceNanos / 1e6, integrationNanos / 1e6, forceEvaluations, interactions,
+                nodeInteractions, nodesOpened, treeNodes, treeDepth, bodiesPerLeaf);
+    }
+}
@@ -0,0 +1,97 @@
+package edu.grinnell.celestialvisualizer.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class SimulationMetricsTest {
+
+    private static NBody makeSimulation(int n) {
+        return new NBody(Scenario.UNIFORM.create(n, 3)).setPool(null);
+    }
+
+    @Test
+    public void testBarnesHutStep() {
+        NBody sim = makeSimulation(2000);
+        assertEquals(0, sim.getMetrics().getStep());
+        sim.updateWithQuadTree(50.0);
+        SimulationMetrics m = sim.getMetrics();
+        assertEquals(1, m.getStep());
+        assertEquals(2000, m.getBodies());
+        assertEquals(1, m.getForceEvaluations());
+        assertEquals(sim.getInteractionCount(), m.getInteractions());
+        assertTrue(m.getNodeInteractions() > 0);
+        assertTrue(m.getNodesOpened() > 0);
+        assertEquals(m.getInteractions(), m.getParticleInteractions() + m.getNodeInteractions());
+        assertTrue(m.hasTree());
+        assertEquals(1, m.getTreeBuilds());
+        assertTrue(m.getTreeDepth() > 0);
+        // No two bodies share a point, so every body has a leaf to itself.
+        assertEquals(2000 - m.getOutsideBodies(), m.getLeaves());
+        assertEquals(1.0, m.getBodiesPerLeaf(), 0.0);
+        assertEquals(m.getStepNanos(), m.getBoundsNanos() + m.getTreeNanos()
+                + m.getForceNanos() + m.getIntegrationNanos(), m.getStepNanos() / 100.0);
+
+        sim.update(50.0);
+        m = sim.getMetrics();
+        assertFalse(m.hasTree());
+        assertEquals(0, m.getNodeInteractions());
+        assertEquals(2000L * 2000, m.getParticleInteractions());
+    }
+
+    @Test
+    public void testIncrementalTreeReportsItsRebuilds() {
+        NBody sim = makeSimulation(2000).setIncrementalTree(true);
+        sim.updateWithQuadTree(50.0);
+        sim.updateWithQuadTree(50.0);
+        assertEquals(0, sim.getMetrics().getTreeBuilds());
+
+        // With no dead nodes allowed, every update that moves a body ends
+        // in the tree rebuilding itself.
+        sim.getQuadTree().setRebuildThreshold(0.0);
+        for (int i = 0; i < 20; i++) {
+            sim.updateWithQuadTree(1.0e6);
+        }
+        assertEquals(1, sim.getMetrics().getTreeBuilds());
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws IOException {
+        NBody sim = makeSimulation(500);
+        Path file = Files.createTempFile("celestial", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] { "Bounds", "TreeBuild", "Force", "Step" }) {
+                recording.enable("edu.grinnell.celestialvisualizer." + name);
+            }
+            recording.start();
+            sim.updateWithQuadTree(50.0);
+            recording.stop();
+            recording.dump(file);
+        }
+        Set<String> seen = new HashSet<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            seen.add(event.getEventType().getName());
+            if (event.getEventType().getName().endsWith("TreeBuild")) {
+                assertEquals(500, event.getInt("bodies"));
+                assertTrue(event.getInt("depth") > 0);
+            }
+        }
+        Files.delete(file);
+        assertTrue(seen.contains("edu.grinnell.celestialvisualizer.Bounds"));
+        assertTrue(seen.contains("edu.grinnell.celestialvisualizer.TreeBuild"));
+        assertTrue(seen.contains("edu.grinnell.celestialvisualizer.Force"));
+        assertTrue(seen.contains("edu.grinnell.celestialvisualizer.Step"));
+    }
+}
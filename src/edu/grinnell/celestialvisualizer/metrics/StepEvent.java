@@ -0,0 +1,42 @@
+package edu.grinnell.celestialvisualizer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A flight recorder event covering a whole update of a simulation.  The
+ * Force events of the update fall within it; the time the integrator spent
+ * between them, moving the bodies, is its integration time.
+ */
+@Name("edu.grinnell.celestialvisualizer.Step")
+@Label("Step")
+@Description("One update of an N-body simulation")
+@Category({ "Celestial Simulation" })
+@StackTrace(false)
+public class StepEvent extends Event {
+
+    @Label("Step")
+    public long step;
+
+    @Label("Bodies")
+    public int bodies;
+
+    @Label("Integrator")
+    public String integrator;
+
+    @Label("Force Evaluations")
+    public int forceEvaluations;
+
+    @Label("Interactions")
+    public long interactions;
+
+    @Label("Integration Time")
+    @Description("Time spent moving the bodies, outside the force evaluations")
+    @Timespan(Timespan.NANOSECONDS)
+    public long integration;
+}
@@ -0,0 +1,48 @@
+package edu.grinnell.celestialvisualizer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event covering the building or updating of the quad
+ * tree of a Barnes-Hut force calculation.  When the tree is built from
+ * scratch, the Bounds event of its box falls within this one.
+ */
+@Name("edu.grinnell.celestialvisualizer.TreeBuild")
+@Label("Tree Build")
+@Description("Building or updating the quad tree of a force calculation")
+@Category({ "Celestial Simulation", "Step" })
+@StackTrace(false)
+public class TreeBuildEvent extends Event {
+
+    @Label("Bodies")
+    public int bodies;
+
+    @Label("Rebuilt")
+    @Description("Whether the tree was built from scratch rather than updated")
+    public boolean rebuilt;
+
+    @Label("Nodes")
+    @Description("Nodes in the tree, including empty and dead ones")
+    public int nodes;
+
+    @Label("Dead Nodes")
+    public int deadNodes;
+
+    @Label("Depth")
+    public int depth;
+
+    @Label("Leaves")
+    public int leaves;
+
+    @Label("Bodies per Leaf")
+    public double bodiesPerLeaf;
+
+    @Label("Outside Bodies")
+    @Description("Bodies outside the root, whose pull is summed directly")
+    public int outsideBodies;
+}
@@ -8,13 +8,18 @@ import edu.grinnell.celestialvisualizer.util.Vector2d;
 /**
  * A body represents a star, planet, asteroid, etc., in our simulation.
  * It contains its mass, current position, and current velocity.
+ *
+ * A body is a view onto one entry of a BodyStore, which holds the actual
+ * state.  Bodies created with the public constructor own a store of their
+ * own; bodies obtained from an NBody simulation view the simulation's store.
+ * The entry is found by its id, so a body keeps viewing the same entry when
+ * the store is reordered.
  */
 public class Body {
-    
-    private double mass;
-    private Point position;
-    private Vector2d velocity;
-    
+
+    private final BodyStore store;
+    private final int id;
+
     /**
      * Constructs a new celestial body.
      * @param mass the mass of the body
@@ -22,34 +27,57 @@ public class Body {
      * @param velocity the initial velocity of the body
      */
     public Body(double mass, Point position, Vector2d velocity) {
-        this.mass = mass;
-        this.position = position;
-        this.velocity = velocity;
+        this.store = new BodyStore(1);
+        this.id = store.add(mass, position.getX(), position.getY(),
+                velocity.getX(), velocity.getY());
+    }
+
+    /**
+     * Constructs a view of the given entry of a store.
+     * @param store the store holding the state of the body
+     * @param id the id of the body in the store
+     */
+    Body(BodyStore store, int id) {
+        this.store = store;
+        this.id = id;
     }
-    
+
+    /** @return the id of the body in the store holding it */
+    public int getId() { return id; }
     /** @return the mass of the body */
-    public double getMass() { return mass; }
+    public double getMass() { return store.getMasses()[store.indexOf(id)]; }
     /** @return the position of the body */
-    public Point getPosition() { return position; }
+    public Point getPosition() {
+        int index = store.indexOf(id);
+        return new Point(store.getXs()[index], store.getYs()[index]);
+    }
     /** @return the velocity of the body */
-    public Vector2d getVelocity() { return velocity; }
-    
+    public Vector2d getVelocity() {
+        int index = store.indexOf(id);
+        return new Vector2d(store.getVelocityXs()[index], store.getVelocityYs()[index]);
+    }
+
     /**
      * Displaces the body by the given vector.
      * @param v the vector by which by displace the velocity.
      */
     public void displace(Vector2d v) {
-        position = position.translate(v);
+        int index = store.indexOf(id);
+        store.getXs()[index] += v.getX();
+        store.getYs()[index] += v.getY();
+        store.markModified();
     }
-    
+
     /**
      * Increases the velocity of this body by the given amount.
      * @param v the increase in velocity for this body.
      */
     public void addToVelocity(Vector2d v) {
-        velocity = velocity.add(v);
+        int index = store.indexOf(id);
+        store.getVelocityXs()[index] += v.getX();
+        store.getVelocityYs()[index] += v.getY();
     }
-    
+
     /**
      * Calculates the acceleration on this body by the given list of bodies.
      * The acceleration is simply the sum of the accelerations as given by
@@ -59,17 +87,22 @@ public class Body {
      */
     public Vector2d calculateAcceleration(List<Body> bodies) {
 
-    	Point pos = this.getPosition();
-    	Vector2d acceleration = Vector2d.zero;
-    	
-    	for (Body planet : bodies) {		
-    		acceleration = acceleration.add(
-    				Physics.calculateAccelerationOn(pos, planet.getMass(), planet.getPosition()));
+    	int index = store.indexOf(id);
+    	double px = store.getXs()[index];
+    	double py = store.getYs()[index];
+    	double[] ax = new double[1];
+    	double[] ay = new double[1];
+
+    	for (Body planet : bodies) {
+    		BodyStore other = planet.store;
+    		int j = other.indexOf(planet.id);
+    		Physics.accumulateAccelerationOn(px, py, other.getMasses()[j],
+    				other.getXs()[j], other.getYs()[j], ax, ay, 0);
     	}
-    	
-    	return acceleration;
+
+    	return new Vector2d(ax[0], ay[0]);
     }
-    
+
     /**
      * Updates this body in our simulation according to the given parameters.
      * Body updates proceed by updating the position first and then the
@@ -78,14 +111,21 @@ public class Body {
      * @param acc the calculated acceleration used to update this body
      */
     public void update(double elapsedTime, Vector2d acc) {
-    	
+
     	Point pos = this.getPosition();
     	Vector2d vel = this.getVelocity();
-    	
+
+    	int index = store.indexOf(id);
+
     	// Updates position.
-    	this.position = Physics.calculateUpdatedPosition(pos, elapsedTime, vel, acc);
+    	Point newPos = Physics.calculateUpdatedPosition(pos, elapsedTime, vel, acc);
+    	store.getXs()[index] = newPos.getX();
+    	store.getYs()[index] = newPos.getY();
+    	store.markModified();
 
     	// Updates velocity.
-    	this.velocity = Physics.calculateUpdatedVelocity(vel, elapsedTime, acc);
+    	Vector2d newVel = Physics.calculateUpdatedVelocity(vel, elapsedTime, acc);
+    	store.getVelocityXs()[index] = newVel.getX();
+    	store.getVelocityYs()[index] = newVel.getY();
     }
 }
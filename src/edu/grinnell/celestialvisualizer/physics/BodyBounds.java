@@ -0,0 +1,182 @@
+package edu.grinnell.celestialvisualizer.physics;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+
+/**
+ * BodyBounds computes the square box a quad tree over the bodies of a store
+ * should be rooted at.  The box covers the bodies near the bulk of the
+ * system but not the far-flung ones: a single escaper a thousand times
+ * further out than everything else would otherwise leave every other body
+ * at the bottom of a long chain of nearly empty nodes.
+ *
+ * A body counts as far-flung when it lies more than FAR_FIELD_FACTOR times
+ * the root-mean-square distance of all bodies from their mean position.
+ * Because no body can lie more than sqrt(n) times that distance away, this
+ * never happens with fewer than FAR_FIELD_FACTOR^2 bodies.
+ *
+ * Both passes over the bodies are reductions over a fixed number of chunks,
+ * combined in order, so the box does not depend on how the chunks are
+ * spread over the threads of the pool.
+ */
+public class BodyBounds {
+
+    /** How many root-mean-square distances out a body must lie to be left
+     *  out of the box. */
+    public static final double FAR_FIELD_FACTOR = 10.0;
+
+    /** The fraction of its side the box is widened by on every side, so
+     *  that bodies drifting outwards stay inside it for a while. */
+    private static final double PADDING = 1.0 / 32;
+
+    /** The number of chunks the bodies are split into. */
+    private static final int CHUNKS = 64;
+    /** The fewest bodies worth splitting into chunks. */
+    private static final int MIN_PARALLEL = 4096;
+
+    private final double[] sumX = new double[CHUNKS];
+    private final double[] sumY = new double[CHUNKS];
+    private final double[] sumSquares = new double[CHUNKS];
+    private final double[] minX = new double[CHUNKS];
+    private final double[] minY = new double[CHUNKS];
+    private final double[] maxX = new double[CHUNKS];
+    private final double[] maxY = new double[CHUNKS];
+
+    // The state of the current computation, read by the chunk actions.
+    private double[] x;
+    private double[] y;
+    private int n;
+    private double originX;
+    private double originY;
+    private double centerX;
+    private double centerY;
+    private double limit2;
+
+    private final Parallel.RangeAction moments = this::sumMoments;
+    private final Parallel.RangeAction extents = this::findExtents;
+
+    /**
+     * @return the square box around the bodies of the given store, leaving
+     * out the far-flung ones, or null if the store holds no bodies
+     * @param store the bodies to bound
+     * @param pool the pool to run on, or null to run on the calling thread
+     */
+    public BoundingBox compute(BodyStore store, ForkJoinPool pool) {
+        n = store.size();
+        if (n == 0) {
+            return null;
+        }
+        x = store.getXs();
+        y = store.getYs();
+        ForkJoinPool p = n < MIN_PARALLEL ? null : pool;
+
+        // The mean position and root-mean-square distance from it.  The
+        // moments are taken about the first body rather than the origin so
+        // that a system far from the origin loses no precision.
+        originX = x[0];
+        originY = y[0];
+        Parallel.forRange(p, CHUNKS, 1, moments);
+        double sx = 0.0;
+        double sy = 0.0;
+        double ss = 0.0;
+        for (int c = 0; c < CHUNKS; c++) {
+            sx += sumX[c];
+            sy += sumY[c];
+            ss += sumSquares[c];
+        }
+        double meanX = sx / n;
+        double meanY = sy / n;
+        centerX = originX + meanX;
+        centerY = originY + meanY;
+        // sum (p - c)^2 = sum p^2 - n c^2
+        double meanSquare = Math.max(0.0, ss / n - meanX * meanX - meanY * meanY);
+        limit2 = FAR_FIELD_FACTOR * FAR_FIELD_FACTOR * meanSquare;
+
+        // The extent of the bodies within the limit, or of all of them if
+        // rounding has left none within it.
+        Parallel.forRange(p, CHUNKS, 1, extents);
+        if (!hasExtent()) {
+            limit2 = Double.POSITIVE_INFINITY;
+            Parallel.forRange(p, CHUNKS, 1, extents);
+        }
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < CHUNKS; c++) {
+            x0 = Math.min(x0, minX[c]);
+            y0 = Math.min(y0, minY[c]);
+            x1 = Math.max(x1, maxX[c]);
+            y1 = Math.max(y1, maxY[c]);
+        }
+        x = null;
+        y = null;
+
+        double side = Math.max(x1 - x0, y1 - y0);
+        if (!(side > 0)) {
+            side = 1.0;
+        }
+        double half = side * (0.5 + PADDING);
+        double mx = (x0 + x1) / 2;
+        double my = (y0 + y1) / 2;
+        return new BoundingBox(mx - half, my - half, mx + half, my + half);
+    }
+
+    private void sumMoments(int from, int to) {
+        for (int c = from; c < to; c++) {
+            double sx = 0.0;
+            double sy = 0.0;
+            double ss = 0.0;
+            for (int i = start(c); i < start(c + 1); i++) {
+                double dx = x[i] - originX;
+                double dy = y[i] - originY;
+                sx += dx;
+                sy += dy;
+                ss += dx * dx + dy * dy;
+            }
+            sumX[c] = sx;
+            sumY[c] = sy;
+            sumSquares[c] = ss;
+        }
+    }
+
+    private void findExtents(int from, int to) {
+        for (int c = from; c < to; c++) {
+            double x0 = Double.POSITIVE_INFINITY;
+            double y0 = Double.POSITIVE_INFINITY;
+            double x1 = Double.NEGATIVE_INFINITY;
+            double y1 = Double.NEGATIVE_INFINITY;
+            for (int i = start(c); i < start(c + 1); i++) {
+                double dx = x[i] - centerX;
+                double dy = y[i] - centerY;
+                if (dx * dx + dy * dy <= limit2) {
+                    x0 = Math.min(x0, x[i]);
+                    y0 = Math.min(y0, y[i]);
+                    x1 = Math.max(x1, x[i]);
+                    y1 = Math.max(y1, y[i]);
+                }
+            }
+            minX[c] = x0;
+            minY[c] = y0;
+            maxX[c] = x1;
+            maxY[c] = y1;
+        }
+    }
+
+    /** @return true if some chunk found a body within the limit */
+    private boolean hasExtent() {
+        for (int c = 0; c < CHUNKS; c++) {
+            if (minX[c] <= maxX[c]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the index of the first body of the given chunk */
+    private int start(int chunk) {
+        return (int) ((long) n * chunk / CHUNKS);
+    }
+}
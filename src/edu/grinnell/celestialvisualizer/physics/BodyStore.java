@@ -0,0 +1,252 @@
+package edu.grinnell.celestialvisualizer.physics;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A BodyStore holds the state of a collection of bodies as parallel arrays
+ * of primitives.  The ith body of the store has mass getMasses()[i],
+ * position (getXs()[i], getYs()[i]), velocity
+ * (getVelocityXs()[i], getVelocityYs()[i]) and most recently calculated
+ * acceleration (getAccelerationXs()[i], getAccelerationYs()[i]).
+ *
+ * The arrays returned by the getters may be longer than size(); only the
+ * first size() entries are meaningful.  Adding a body may replace the
+ * arrays, so callers should not hold on to them across calls to add.
+ *
+ * Every body also has an id, given out in the order the bodies are added,
+ * that does not change when permute moves the body to a different index.
+ *
+ * Integrators start a step with the accelerations the last one left in the
+ * store, as long as its bodies are where that step left them.  The store
+ * counts its modifications so they can tell: adding or clearing bodies
+ * counts as one, and whoever moves bodies or changes their masses through
+ * the arrays outside a step must call markModified.
+ */
+public class BodyStore {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int size;
+    private double[] mass;
+    private double[] x;
+    private double[] y;
+    private double[] vx;
+    private double[] vy;
+    private double[] ax;
+    private double[] ay;
+    private int[] id;
+    private int[] indexOfId;
+    private long modifications;
+
+    // Scratch space for permute, kept so that reordering does not allocate.
+    private double[] scratch = new double[0];
+    private int[] idScratch = new int[0];
+
+    /** Constructs a new, empty store. */
+    public BodyStore() { this(DEFAULT_CAPACITY); }
+
+    /**
+     * Constructs a new, empty store with room for the given number of
+     * bodies before its arrays need to grow.
+     * @param capacity the initial capacity of the store
+     */
+    public BodyStore(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.mass = new double[capacity];
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.vx = new double[capacity];
+        this.vy = new double[capacity];
+        this.ax = new double[capacity];
+        this.ay = new double[capacity];
+        this.id = new int[capacity];
+        this.indexOfId = new int[capacity];
+    }
+
+    /**
+     * Constructs a store of n bodies from columns of their state, taking
+     * over the arrays rather than copying them.  The accelerations start out
+     * as zero.
+     * @param n the number of bodies
+     * @param mass the masses of the bodies
+     * @param x the x-coordinates of the bodies
+     * @param y the y-coordinates of the bodies
+     * @param vx the x-components of the velocities of the bodies
+     * @param vy the y-components of the velocities of the bodies
+     * @param ids the id of the body at each index, a permutation of the ids
+     * 0 to n - 1
+     */
+    public BodyStore(int n, double[] mass, double[] x, double[] y, double[] vx, double[] vy,
+            int[] ids) {
+        if (n < 0 || mass.length < n || x.length < n || y.length < n
+                || vx.length < n || vy.length < n || ids.length < n) {
+            throw new IllegalArgumentException("Columns too short for " + n + " bodies");
+        }
+        int capacity = Math.min(Math.min(Math.min(mass.length, x.length), Math.min(y.length, vx.length)),
+                Math.min(vy.length, ids.length));
+        this.size = n;
+        this.mass = mass;
+        this.x = x;
+        this.y = y;
+        this.vx = vx;
+        this.vy = vy;
+        this.ax = new double[capacity];
+        this.ay = new double[capacity];
+        this.id = ids;
+        this.indexOfId = new int[capacity];
+        Arrays.fill(indexOfId, 0, n, -1);
+        for (int i = 0; i < n; i++) {
+            int b = ids[i];
+            if (b < 0 || b >= n || indexOfId[b] != -1) {
+                throw new IllegalArgumentException("Ids are not a permutation of 0 to " + (n - 1));
+            }
+            indexOfId[b] = i;
+        }
+    }
+
+    /** @return the number of bodies in the store */
+    public int size() { return size; }
+
+    /** @return the masses of the bodies */
+    public double[] getMasses() { return mass; }
+    /** @return the x-coordinates of the bodies */
+    public double[] getXs() { return x; }
+    /** @return the y-coordinates of the bodies */
+    public double[] getYs() { return y; }
+    /** @return the x-components of the velocities of the bodies */
+    public double[] getVelocityXs() { return vx; }
+    /** @return the y-components of the velocities of the bodies */
+    public double[] getVelocityYs() { return vy; }
+    /** @return the x-components of the accelerations of the bodies */
+    public double[] getAccelerationXs() { return ax; }
+    /** @return the y-components of the accelerations of the bodies */
+    public double[] getAccelerationYs() { return ay; }
+
+    /**
+     * Adds a body to the store.  Its acceleration starts out as zero.
+     * @param mass the mass of the body
+     * @param x the x-coordinate of the body
+     * @param y the y-coordinate of the body
+     * @param vx the x-component of the velocity of the body
+     * @param vy the y-component of the velocity of the body
+     * @return the index of the new body
+     */
+    public int add(double mass, double x, double y, double vx, double vy) {
+        if (size == this.mass.length) {
+            grow();
+        }
+        int i = size++;
+        modifications++;
+        this.mass[i] = mass;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+        this.ax[i] = 0.0;
+        this.ay[i] = 0.0;
+        this.id[i] = i;
+        this.indexOfId[i] = i;
+        return i;
+    }
+
+    /** Removes every body from the store, keeping the room they took. */
+    public void clear() {
+        size = 0;
+        modifications++;
+    }
+
+    /**
+     * Records that the positions or masses of the bodies have been changed
+     * outside a step of an integrator, so that the accelerations in the
+     * store no longer match them.
+     */
+    public void markModified() {
+        modifications++;
+    }
+
+    /** @return the number of modifications made to the store, which
+     *  changes whenever its accelerations may have gone stale */
+    public long getModificationCount() { return modifications; }
+
+    /** @return the id of the body currently at the ith index */
+    public int getId(int i) { return id[i]; }
+
+    /** @return the index of the body with the given id */
+    public int indexOf(int id) { return indexOfId[id]; }
+
+    /**
+     * Reorders the bodies of the store so that the body at index order[i]
+     * moves to index i.  The ids of the bodies move with them.
+     * @param order a permutation of the indices 0 to size() - 1
+     */
+    public void permute(int[] order) {
+        if (scratch.length < size) {
+            scratch = new double[mass.length];
+            idScratch = new int[mass.length];
+        }
+        permute(mass, order);
+        permute(x, order);
+        permute(y, order);
+        permute(vx, order);
+        permute(vy, order);
+        permute(ax, order);
+        permute(ay, order);
+        for (int i = 0; i < size; i++) {
+            idScratch[i] = id[order[i]];
+        }
+        System.arraycopy(idScratch, 0, id, 0, size);
+        for (int i = 0; i < size; i++) {
+            indexOfId[id[i]] = i;
+        }
+    }
+
+    private void permute(double[] values, int[] order) {
+        for (int i = 0; i < size; i++) {
+            scratch[i] = values[order[i]];
+        }
+        System.arraycopy(scratch, 0, values, 0, size);
+    }
+
+    /**
+     * @return a body that views the body currently at the ith index of this
+     * store.  Changes made through the body are written straight into the
+     * store, and the body keeps following the same entry after permute.
+     */
+    public Body get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return new Body(this, id[i]);
+    }
+
+    /** @return a list view of the bodies in this store */
+    public List<Body> asList() {
+        return new BodyList();
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mass.length * 2);
+        mass = Arrays.copyOf(mass, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        ax = Arrays.copyOf(ax, capacity);
+        ay = Arrays.copyOf(ay, capacity);
+        id = Arrays.copyOf(id, capacity);
+        indexOfId = Arrays.copyOf(indexOfId, capacity);
+    }
+
+    /** A read-only list of flyweight bodies over the store. */
+    private class BodyList extends AbstractList<Body> implements RandomAccess {
+        @Override
+        public Body get(int i) { return BodyStore.this.get(i); }
+        @Override
+        public int size() { return size; }
+    }
+}
@@ -0,0 +1,59 @@
+package edu.grinnell.celestialvisualizer.physics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.util.Point;
+import edu.grinnell.celestialvisualizer.util.SpaceFillingCurve;
+
+public class BodyStoreTest {
+
+    @Test
+    public void testPermuteKeepsBodies() {
+        BodyStore store = Scenario.GALAXY.create(5, 207);
+        Body b = store.get(1);
+        Point p = b.getPosition();
+        double m = b.getMass();
+
+        store.permute(new int[] { 4, 3, 2, 1, 0 });
+        assertEquals(3, store.indexOf(b.getId()));
+        assertEquals(b.getId(), store.getId(3));
+        assertEquals(p, b.getPosition());
+        assertEquals(m, b.getMass(), 0.0);
+        assertEquals(p, store.get(3).getPosition());
+    }
+
+    @Test
+    public void testClearKeepsTheColumns() {
+        BodyStore store = Scenario.GALAXY.create(40, 11);
+        double[] x = store.getXs();
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.add(1.0, 2.0, 3.0, 4.0, 5.0));
+        assertSame(x, store.getXs());
+        assertEquals(0, store.indexOf(0));
+        assertEquals(2.0, store.getXs()[0], 0.0);
+        assertEquals(0.0, store.getAccelerationXs()[0], 0.0);
+    }
+
+    @Test
+    public void testReorderingDoesNotChangeTheSimulation() {
+        for (SpaceFillingCurve curve : SpaceFillingCurve.values()) {
+            NBody expected = new NBody(Scenario.GALAXY.create(300, 207));
+            NBody actual = new NBody(Scenario.GALAXY.create(300, 207)).setReordering(curve, 3);
+            for (int i = 0; i < 10; i++) {
+                expected.updateWithQuadTree(50.0);
+                actual.updateWithQuadTree(50.0);
+            }
+            BodyStore e = expected.getStore();
+            BodyStore a = actual.getStore();
+            for (int id = 0; id < e.size(); id++) {
+                int i = a.indexOf(id);
+                assertEquals(e.getXs()[id], a.getXs()[i], Math.abs(e.getXs()[id]) * 1e-9);
+                assertEquals(e.getYs()[id], a.getYs()[i], Math.abs(e.getYs()[id]) * 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package edu.grinnell.celestialvisualizer.physics;
+
+/**
+ * A GravityKernel adds the pull of a range of source bodies on a target
+ * position to an acceleration, with the same conventions as
+ * Physics.accumulateAccelerationOn.  Kernels differ only in how they
+ * schedule the arithmetic, so their results agree up to rounding.
+ */
+public interface GravityKernel {
+
+    /** The kernel that handles one source at a time. */
+    public static final GravityKernel SCALAR = Physics::accumulateAccelerationOn;
+
+    /**
+     * Adds the acceleration of the bodies from (inclusive) to to (exclusive)
+     * on a given target position to the ith slots of ax and ay (see
+     * Physics.accumulateAccelerationOn).
+     */
+    public void accumulate(double px, double py, double[] mass, double[] x, double[] y,
+            int from, int to, double[] ax, double[] ay, int i);
+}
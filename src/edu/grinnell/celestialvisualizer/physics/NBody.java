@@ -1,42 +1,337 @@
 package edu.grinnell.celestialvisualizer.physics;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
-import edu.grinnell.celestialvisualizer.NBodyExamples;
+import edu.grinnell.celestialvisualizer.integrator.Euler;
+import edu.grinnell.celestialvisualizer.integrator.Integrator;
+import edu.grinnell.celestialvisualizer.io.TrajectoryRecorder;
+import edu.grinnell.celestialvisualizer.metrics.BoundsEvent;
+import edu.grinnell.celestialvisualizer.metrics.FlightEvents;
+import edu.grinnell.celestialvisualizer.metrics.MeteredSolver;
+import edu.grinnell.celestialvisualizer.metrics.MetricsRecorder;
+import edu.grinnell.celestialvisualizer.metrics.SimulationMetrics;
+import edu.grinnell.celestialvisualizer.metrics.StepEvent;
+import edu.grinnell.celestialvisualizer.quadtree.FlatQuadTree;
 import edu.grinnell.celestialvisualizer.quadtree.QuadTree;
+import edu.grinnell.celestialvisualizer.solver.BarnesHut;
+import edu.grinnell.celestialvisualizer.solver.DirectSum;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
 import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+import edu.grinnell.celestialvisualizer.util.ParallelSort;
+import edu.grinnell.celestialvisualizer.util.Point;
+import edu.grinnell.celestialvisualizer.util.SpaceFillingCurve;
 import edu.grinnell.celestialvisualizer.util.Vector2d;
 
 /**
  * NBody represents a particular N-body simulation.  It keeps tracks of the
  * bodies in the simulation and provides methods for updating those
  * bodies as the simulation progresses.
+ *
+ * The state of the bodies lives in a BodyStore; the Body objects handed out
+ * by getBodies() are views onto that store.  The accelerations are
+ * calculated by a GravitySolver: update uses a DirectSum, updateWithQuadTree
+ * a BarnesHut, and update(elapsedTime, solver) any solver.  The bodies are
+ * moved by an Integrator, by default the original Euler scheme.
+ *
+ * Every update is timed phase by phase; getMetrics returns the figures of
+ * the last one, and the same figures are emitted as flight recorder events
+ * (see the metrics package) when a recording is running.  The positions
+ * of the bodies after every update can be written to a file by setting a
+ * TrajectoryRecorder.
  */
 public class NBody {
-    private List<Body> bodies;
+    /** The distance below which the legacy quad tree calculation opens a
+     *  centroid. */
+    private static final double QUAD_TREE_THRESHOLD = 1000000.0;
+
+    /** The fewest bodies worth handing to a thread when computing keys. */
+    private static final int KEY_GRAIN = 4096;
+    /** The fewest bodies worth handing to a thread in a walk of a legacy
+     *  quad tree. */
+    private static final int QUAD_TREE_GRAIN = 256;
+
+    private BodyStore store;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private long steps;
+    private double time;
+    private TrajectoryRecorder trajectory;
+
+    private final MetricsRecorder recorder = new MetricsRecorder();
+    private final MeteredSolver metered = new MeteredSolver(recorder);
+    private final DirectSum directSum = new DirectSum();
+    private final BarnesHut barnesHut = new BarnesHut().setRecorder(recorder);
+    private GravitySolver lastSolver;
+    private Integrator integrator = new Euler();
+
+    private final BodyBounds bounds = new BodyBounds();
+
+    // The legacy quad tree being walked, read by the loop body.
+    private QuadTree legacyTree;
+    private BoundingBox legacyBox;
+    private final Parallel.RangeAction legacyWalk = this::walkLegacyTree;
+
+    // Reordering of the bodies along a space-filling curve, and the scratch
+    // space it needs.
+    private SpaceFillingCurve reorderCurve;
+    private int reorderInterval;
+    private long[] reorderKeys = new long[0];
+    private long[] reorderKeyScratch = new long[0];
+    private int[] reorderOrder = new int[0];
+    private int[] reorderOrderScratch = new int[0];
+
+    /** Constructs a new NBody simulation over the given store. */
+    public NBody(BodyStore store) {
+        this.store = store;
+    }
 
     /** Constructs a new NBody simulation with the provided bodies. */
     public NBody(List<Body> bodies) {
-        this.bodies = bodies;
+        this(new BodyStore(bodies.size()));
+        for (Body b : bodies) {
+            add(b);
+        }
     }
 
     /** Constructs a new NBody simulation with no bodies.  This constructor
      *  is a convenience to be used in conjunction with the add(b) method. */
-    public NBody() { this(new LinkedList<>()); }
-    
+    public NBody() { this(new BodyStore()); }
+
     /**
-     * Adds the given body to the simulation.
+     * Adds the given body to the simulation.  The state of the body is
+     * copied into the simulation, so later changes to b are not seen by it.
      * @param b the body to add.
      * @return this NBody simulation to be used in further calls to add.
      */
     public NBody add(Body b) {
-        bodies.add(b);
+        Point p = b.getPosition();
+        Vector2d v = b.getVelocity();
+        store.add(b.getMass(), p.getX(), p.getY(), v.getX(), v.getY());
+        integrator.reset();
         return this;
     }
 
     /** @return the bodies this simulation managements */
-    public List<Body> getBodies() { return bodies; }
+    public List<Body> getBodies() { return store.asList(); }
+
+    /** @return the store holding the state of the bodies; whoever moves
+     *  the bodies through its arrays must call markModified on it */
+    public BodyStore getStore() { return store; }
+
+    /** @return the number of updates this simulation has made */
+    public long getStepCount() { return steps; }
+
+    /**
+     * Sets the number of updates this simulation has made, for a simulation
+     * restarted from a checkpoint.
+     * @param steps the number of updates
+     * @return this simulation
+     */
+    public NBody setStepCount(long steps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException("Step count must not be negative: " + steps);
+        }
+        this.steps = steps;
+        return this;
+    }
+
+    /** @return the simulated time that has passed over all updates */
+    public double getTime() { return time; }
+
+    /**
+     * Sets the simulated time that has passed, for a simulation restarted
+     * from a checkpoint.
+     * @param time the simulated time
+     * @return this simulation
+     */
+    public NBody setTime(double time) {
+        this.time = time;
+        return this;
+    }
+
+    /** @return the recorder every update is recorded to, or null */
+    public TrajectoryRecorder getTrajectoryRecorder() { return trajectory; }
+
+    /**
+     * Sets a recorder to record the positions of the bodies to after every
+     * update.  The recorder must have been started, and is not closed by
+     * the simulation.  An update never waits for the recorder: a frame it
+     * drops because its writer has fallen behind is lost, and counted by
+     * getDroppedFrames, so a caller that needs every frame must give the
+     * recorder a larger ring or update less often.
+     * @param recorder the recorder, or null to stop recording
+     * @return this simulation
+     */
+    public NBody setTrajectoryRecorder(TrajectoryRecorder recorder) {
+        this.trajectory = recorder;
+        return this;
+    }
+
+    /** @return the Barnes-Hut opening angle used by updateWithQuadTree */
+    public double getTheta() { return barnesHut.getTheta(); }
+
+    /**
+     * Sets the Barnes-Hut opening angle used by updateWithQuadTree (see
+     * BarnesHut.setTheta).
+     * @param theta the opening angle, which must not be negative
+     * @return this NBody simulation
+     */
+    public NBody setTheta(double theta) {
+        barnesHut.setTheta(theta);
+        return this;
+    }
+
+    /**
+     * @return the number of interactions evaluated by the last force
+     * calculation (see GravitySolver.getInteractionCount).  Integrators
+     * that calculate the forces several times a step (see
+     * Integrator.getForceEvaluations) evaluate that many times as many.
+     */
+    public long getInteractionCount() {
+        return lastSolver == null ? 0 : lastSolver.getInteractionCount();
+    }
+
+    /** @return where the time and work of the last update went */
+    public SimulationMetrics getMetrics() { return recorder.getLast(); }
+
+    /**
+     * Makes the simulation sort its bodies along the given space-filling
+     * curve before every interval-th update, so that bodies that are close
+     * in space are also close in memory.  Bodies handed out by getBodies()
+     * keep following the same body; use Body.getId() or BodyStore.indexOf
+     * to find a body's current index.
+     * @param curve the curve to sort along, or null to stop reordering
+     * @param interval the number of updates between sorts
+     * @return this NBody simulation
+     */
+    public NBody setReordering(SpaceFillingCurve curve, int interval) {
+        if (curve != null && interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+        this.reorderCurve = curve;
+        this.reorderInterval = interval;
+        return this;
+    }
+
+    /**
+     * Sorts the bodies of the simulation along the given space-filling curve.
+     * @param curve the curve to sort along
+     */
+    public void reorder(SpaceFillingCurve curve) {
+        int n = store.size();
+        if (reorderKeys.length < n) {
+            reorderKeys = new long[n];
+            reorderKeyScratch = new long[n];
+            reorderOrder = new int[n];
+            reorderOrderScratch = new int[n];
+        }
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        BoundsEvent event = null;
+        if (FlightEvents.isEnabled(BoundsEvent.class)) {
+            event = new BoundsEvent();
+            event.begin();
+        }
+        long start = System.nanoTime();
+        BoundingBox bb = bounds.compute(store, pool);
+        recorder.recordBounds(System.nanoTime() - start);
+        if (event != null) {
+            event.end();
+        }
+        if (event != null && event.shouldCommit()) {
+            event.bodies = n;
+            event.commit();
+        }
+        long[] keys = reorderKeys;
+        int[] order = reorderOrder;
+        Parallel.forRange(pool, n, KEY_GRAIN, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                keys[i] = curve.key(x[i], y[i], bb);
+                order[i] = i;
+            }
+        });
+        ParallelSort.sort(keys, order, reorderKeyScratch, reorderOrderScratch, n, pool);
+        store.permute(order);
+        directSum.reset();
+        barnesHut.reset();
+        if (lastSolver != null) {
+            lastSolver.reset();
+        }
+    }
+
+    /**
+     * Makes updateWithQuadTree keep its quad tree from one step to the next
+     * (see BarnesHut.setIncremental).
+     * @param incremental whether to keep the tree between steps
+     * @return this NBody simulation
+     */
+    public NBody setIncrementalTree(boolean incremental) {
+        barnesHut.setIncremental(incremental);
+        return this;
+    }
+
+    /**
+     * Roots the quad tree of updateWithQuadTree at the given box (see
+     * BarnesHut.setRootBox).
+     * @param bb the box to root the tree at, or null to fit it to the bodies
+     * @return this NBody simulation
+     */
+    public NBody setRootBox(BoundingBox bb) {
+        barnesHut.setRootBox(bb);
+        return this;
+    }
+
+    /** @return the solver used by updateWithQuadTree */
+    public BarnesHut getBarnesHut() { return barnesHut; }
+
+    /** @return the quad tree built by the last call to updateWithQuadTree */
+    public FlatQuadTree getQuadTree() { return barnesHut.getQuadTree(); }
+
+    /**
+     * Brings the quad tree of updateWithQuadTree up to date with the current
+     * positions of the bodies, so that it can answer range, radius and
+     * nearest neighbour queries about them (see FlatQuadTree.findInRange)
+     * with the positions of the store (see BarnesHut.refresh).  Must not be
+     * called while the simulation is being updated.
+     * @return the quad tree
+     */
+    public FlatQuadTree refreshQuadTree() {
+        return barnesHut.refresh(store, pool);
+    }
+
+    /** @return the integrator that moves the bodies */
+    public Integrator getIntegrator() { return integrator; }
+
+    /**
+     * Sets the integrator that moves the bodies.  By default this is Euler.
+     * @param integrator the integrator to use
+     * @return this NBody simulation
+     */
+    public NBody setIntegrator(Integrator integrator) {
+        if (integrator == null) {
+            throw new IllegalArgumentException("Integrator must not be null");
+        }
+        this.integrator = integrator;
+        integrator.reset();
+        return this;
+    }
+
+    /** @return the pool the force calculations run on, or null if they run
+     *  on the calling thread */
+    public ForkJoinPool getPool() { return pool; }
+
+    /**
+     * Sets the pool the force calculations run on.  By default this is the
+     * common pool.
+     * @param pool the pool to use, or null to run on the calling thread
+     * @return this NBody simulation
+     */
+    public NBody setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
 
 
     /**
@@ -48,11 +343,11 @@ public class NBody {
      * @return the list of accelerations
      */
     public List<Vector2d> calculateAccelerations(double elapsedTime) {
-    	List<Vector2d> calculatedAccelerations = new LinkedList<Vector2d>();
-    	for (Body planet : bodies) {
-    		calculatedAccelerations.add(planet.calculateAcceleration(bodies));
-    	}
-        return calculatedAccelerations;
+        // The accelerations the next step would have opened with are gone.
+        integrator.reset();
+        directSum.computeAccelerations(store, pool);
+        lastSolver = directSum;
+        return accelerationList();
     }
 
     /**
@@ -60,51 +355,126 @@ public class NBody {
      * @param elapsedTime the time step of the simulation.
      */
     public void update(double elapsedTime) {
-    	
-    	List<Vector2d> calculatedAccelerations = this.calculateAccelerations(elapsedTime);
-    	
-        for (Body planet : bodies) {
-        	planet.update(elapsedTime, calculatedAccelerations.remove(0));
+        update(elapsedTime, directSum);
+    }
+
+    /**
+     * Updates this simulation with the accelerations calculated by the given
+     * solver, updating each of the bodies in the process.
+     * @param elapsedTime the time step of the simulation
+     * @param solver the solver to calculate the accelerations with
+     */
+    public void update(double elapsedTime, GravitySolver solver) {
+        StepEvent event = null;
+        if (FlightEvents.isEnabled(StepEvent.class)) {
+            event = new StepEvent();
+            event.begin();
+        }
+        long start = System.nanoTime();
+        recorder.beginStep();
+        beginStep();
+        // The integrator sees the metered solver, whatever it is pointed
+        // at, so it must be told when that changes.
+        if (metered.getSolver() != solver) {
+            metered.setSolver(solver);
+            integrator.reset();
+        }
+        integrator.step(store, metered, pool, elapsedTime);
+        lastSolver = solver;
+        steps++;
+        time += elapsedTime;
+        recorder.endStep(steps, store.size(), System.nanoTime() - start);
+        if (trajectory != null) {
+            // A dropped frame is counted by the recorder; waiting for its
+            // writer here would stall the simulation on the disk.
+            trajectory.record(store, steps, time);
+        }
+        if (event != null) {
+            event.end();
+        }
+        if (event != null && event.shouldCommit()) {
+            SimulationMetrics metrics = recorder.getLast();
+            event.step = steps;
+            event.bodies = store.size();
+            event.integrator = integrator.getClass().getSimpleName();
+            event.forceEvaluations = metrics.getForceEvaluations();
+            event.interactions = metrics.getInteractions();
+            event.integration = metrics.getIntegrationNanos();
+            event.commit();
         }
     }
-    
+
     /**
-     * Calculates the accelerations according to the given quad tree.
+     * Calculates the accelerations according to the given quad tree, on the
+     * pool (see setPool).
      * @param qtree the quad tree used to calculate the accelerations
      * @param bb the bounding box around the entire model
      * @param elapsedTime the time step of the simulation
      * @return a list of the calculated accelerations
      */
     public List<Vector2d> calculateAccelerationsByQuadTree(QuadTree qtree, BoundingBox bb, double elapsedTime) {
-    	List<Vector2d> calculatedAccelerations = new LinkedList<Vector2d>();
-    	for (Body planet : bodies) {
-    		calculatedAccelerations.add(
-    				qtree.calculateAcceleration(planet.getPosition(), bb, 1000000.0));
-    	}
-        return calculatedAccelerations;
+        computeAccelerationsByQuadTree(qtree, bb);
+        return accelerationList();
     }
 
     /**
      * Updates this simulation using a quad tree, updating each of the bodies
-     * in the process.
+     * in the process.  Distant groups of bodies are approximated by their
+     * centroids according to the opening angle set by setTheta (see
+     * BarnesHut).
      * @param elapsedTime the time step of the simulation.
      */
     public void updateWithQuadTree(double elapsedTime) {
-    	QuadTree qtree = new QuadTree();
-    	
-    	// Generates the quadTree corresponding to a particular time instance t.
-    	for (Body planet : bodies) {
-    		qtree.insert(planet.getMass(), planet.getPosition(), NBodyExamples.WORLD_BOX);
-    	}
-    	
-    	// Generates the accelerations list at each body.
-    	List<Vector2d> calculatedAccelerations = 
-    			this.calculateAccelerationsByQuadTree(qtree, NBodyExamples.WORLD_BOX, elapsedTime);
-    	
-    	// Updates the velocity and position of each body.
-        for (Body planet : bodies) {
-        	planet.update(elapsedTime, calculatedAccelerations.remove(0));
-        }
-        
+        update(elapsedTime, barnesHut);
+    }
+
+    /** Does the work due at the start of every update. */
+    private void beginStep() {
+        if (reorderCurve != null && steps % reorderInterval == 0) {
+            reorder(reorderCurve);
+        }
+    }
+
+    /**
+     * Fills the acceleration arrays of the store with the acceleration on
+     * each body according to the given quad tree, split across the pool.
+     * The tree is only read, so its walks may run at once.
+     */
+    private void computeAccelerationsByQuadTree(QuadTree qtree, BoundingBox bb) {
+        integrator.reset();
+        legacyTree = qtree;
+        legacyBox = bb;
+        try {
+            Parallel.forRange(pool, store.size(), QUAD_TREE_GRAIN, legacyWalk);
+        } finally {
+            legacyTree = null;
+            legacyBox = null;
+        }
+    }
+
+    /** Walks the legacy quad tree for the bodies from (inclusive) to to
+     *  (exclusive). */
+    private void walkLegacyTree(int from, int to) {
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        for (int i = from; i < to; i++) {
+            Vector2d acc = legacyTree.calculateAcceleration(new Point(x[i], y[i]), legacyBox,
+                    QUAD_TREE_THRESHOLD);
+            ax[i] = acc.getX();
+            ay[i] = acc.getY();
+        }
+    }
+
+    /** @return the accelerations held in the store as a list of vectors */
+    private List<Vector2d> accelerationList() {
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        List<Vector2d> calculatedAccelerations = new ArrayList<Vector2d>(store.size());
+        for (int i = 0; i < store.size(); i++) {
+            calculatedAccelerations.add(new Vector2d(ax[i], ay[i]));
+        }
+        return calculatedAccelerations;
     }
 }
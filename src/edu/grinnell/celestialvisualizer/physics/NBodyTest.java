@@ -0,0 +1,163 @@
+package edu.grinnell.celestialvisualizer.physics;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.NBodyExamples;
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.integrator.Leapfrog;
+import edu.grinnell.celestialvisualizer.quadtree.BodyList;
+import edu.grinnell.celestialvisualizer.quadtree.FlatQuadTree;
+import edu.grinnell.celestialvisualizer.quadtree.QuadTree;
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.Point;
+import edu.grinnell.celestialvisualizer.util.SpaceFillingCurve;
+import edu.grinnell.celestialvisualizer.util.Vector2d;
+
+public class NBodyTest {
+
+    @Test
+    public void testLegacyQuadTreeIsTheSameInParallel() {
+        NBody sim = new NBody(Scenario.GALAXY.create(2000, 9));
+        BodyStore store = sim.getStore();
+        BoundingBox bb = new BodyBounds().compute(store, null);
+        QuadTree qtree = new QuadTree();
+        for (int i = 0; i < store.size(); i++) {
+            qtree.insert(store.getMasses()[i], new Point(store.getXs()[i], store.getYs()[i]), bb);
+        }
+        List<Vector2d> serial = sim.setPool(null).calculateAccelerationsByQuadTree(qtree, bb, 50.0);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Vector2d> parallel = sim.setPool(pool).calculateAccelerationsByQuadTree(qtree, bb, 50.0);
+            // Each body's walk is the same whichever thread takes it.
+            assertEquals(serial.size(), parallel.size());
+            for (int i = 0; i < serial.size(); i++) {
+                assertEquals(serial.get(i).getX(), parallel.get(i).getX(), 0.0);
+                assertEquals(serial.get(i).getY(), parallel.get(i).getY(), 0.0);
+            }
+            assertNotEquals(0.0, serial.get(1).getX(), 0.0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertSameVelocities(BodyStore expected, BodyStore actual) {
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getVelocityXs()[i], actual.getVelocityXs()[i], 0.0);
+            assertEquals(expected.getVelocityYs()[i], actual.getVelocityYs()[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testMovedBodiesColdTheIntegrator() {
+        NBody warm = new NBody(Scenario.GALAXY.create(200, 4)).setPool(null)
+                .setIntegrator(new Leapfrog());
+        NBody cold = new NBody(Scenario.GALAXY.create(200, 4)).setPool(null)
+                .setIntegrator(new Leapfrog());
+        Vector2d shift = new Vector2d(NBodyExamples.DISTANCE / 100, 0.0);
+        warm.update(50.0);
+        cold.update(50.0);
+        warm.getBodies().get(3).displace(shift);
+        cold.getBodies().get(3).displace(shift);
+        warm.update(50.0);
+        // A new integrator has nothing to open the step with.
+        cold.setIntegrator(new Leapfrog()).update(50.0);
+        assertSameVelocities(cold.getStore(), warm.getStore());
+    }
+
+    @Test
+    public void testLegacyAccelerationsColdTheIntegrator() {
+        NBody sim = new NBody(Scenario.GALAXY.create(200, 4)).setPool(null)
+                .setIntegrator(new Leapfrog());
+        NBody reference = new NBody(Scenario.GALAXY.create(200, 4)).setPool(null)
+                .setIntegrator(new Leapfrog());
+        sim.update(50.0);
+        reference.update(50.0);
+        BoundingBox bb = new BodyBounds().compute(sim.getStore(), null);
+        QuadTree qtree = new QuadTree();
+        for (int i = 0; i < sim.getStore().size(); i++) {
+            qtree.insert(sim.getStore().getMasses()[i],
+                    new Point(sim.getStore().getXs()[i], sim.getStore().getYs()[i]), bb);
+        }
+        sim.calculateAccelerationsByQuadTree(qtree, bb, 50.0);
+        sim.update(50.0);
+        reference.update(50.0);
+        assertSameVelocities(reference.getStore(), sim.getStore());
+
+        sim.calculateAccelerations(50.0);
+        sim.update(50.0);
+        reference.update(50.0);
+        assertSameVelocities(reference.getStore(), sim.getStore());
+    }
+
+    /** @return the number of bodies of the store within r of body t, by
+     *  brute force */
+    private static int countWithin(BodyStore store, int t, double r) {
+        int count = 0;
+        for (int i = 0; i < store.size(); i++) {
+            double dx = store.getXs()[i] - store.getXs()[t];
+            double dy = store.getYs()[i] - store.getYs()[t];
+            if (dx * dx + dy * dy <= r * r) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertQueriesMatch(BodyStore store, FlatQuadTree qtree) {
+        BodyList found = new BodyList();
+        double r = NBodyExamples.DISTANCE / 10;
+        for (int t = 0; t < store.size(); t += 50) {
+            assertEquals(countWithin(store, t, r), qtree.findWithin(store.getXs()[t],
+                    store.getYs()[t], r, store.getXs(), store.getYs(), found));
+        }
+    }
+
+    @Test
+    public void testRefreshUpdatesTheStepsTree() {
+        NBody sim = new NBody(Scenario.GALAXY.create(500, 3));
+        sim.updateWithQuadTree(50.0);
+        // Keep the tree from rebuilding itself, however many nodes die.
+        sim.getQuadTree().setRebuildThreshold(1.0);
+        sim.update(500.0);
+        FlatQuadTree qtree = sim.refreshQuadTree();
+        assertSame(sim.getQuadTree(), qtree);
+        assertTrue(qtree.getRelocatedCount() > 0);
+        assertQueriesMatch(sim.getStore(), qtree);
+    }
+
+    @Test
+    public void testRefreshRebuildsAfterChanges() {
+        NBody sim = new NBody(Scenario.GALAXY.create(500, 3));
+        sim.updateWithQuadTree(50.0);
+        sim.reorder(SpaceFillingCurve.HILBERT);
+        sim.update(50.0);
+        FlatQuadTree qtree = sim.refreshQuadTree();
+        assertEquals(0, qtree.getRelocatedCount());
+        assertQueriesMatch(sim.getStore(), qtree);
+
+        // Adding a body rebuilds the tree around the configured root, not
+        // one fitted to the bodies.
+        double d = NBodyExamples.DISTANCE / 4;
+        sim.setIncrementalTree(true).setRootBox(new BoundingBox(-d, -d, d, d));
+        sim.updateWithQuadTree(50.0);
+        sim.add(new Body(1.0e13, new Point(2 * d, 0.0), Vector2d.zero));
+        qtree = sim.refreshQuadTree();
+        BodyStore store = sim.getStore();
+        int outside = 0;
+        for (int i = 0; i < store.size(); i++) {
+            double x = store.getXs()[i];
+            double y = store.getYs()[i];
+            if (x < -d || x > d || y < -d || y > d) {
+                outside++;
+            }
+        }
+        assertTrue(outside > 1);
+        assertEquals(outside, qtree.getOutsideCount());
+        assertQueriesMatch(store, qtree);
+    }
+}
@@ -8,6 +8,12 @@ public class Physics {
      * The gravitational constant (N (m/kg)^2)
      */
     public static final double G = 6.67428e-11;
+
+    /**
+     * Two positions whose squared distance is below this value are
+     * considered equal (see Point.equals) and exert no force on each other.
+     */
+    public static final double EPSILON = 0.00001;
     
     /**
      * Calculates the acceleration of a body on a given target position
@@ -19,17 +25,102 @@ public class Physics {
      * @return the calculated acceleration
      */
     public static Vector2d calculateAccelerationOn(Point p1, double mass2, Point p2) {
-        if (p1.equals(p2)) {
+        double dx = p2.getX() - p1.getX();
+        double dy = p2.getY() - p1.getY();
+        double r = dx * dx + dy * dy;
+        if (r < EPSILON) {
             return Vector2d.zero;
         } else {
-            Vector2d disp12 = p1.distance(p2);
-            double r = disp12.magnitudeSquared();
-            double magnitude = G * mass2 / r;
-            Vector2d direction = disp12.unit();
-            return direction.scale(magnitude);
+            double scale = G * mass2 / (r * Math.sqrt(r));
+            return new Vector2d(dx * scale, dy * scale);
+        }
+    }
+
+    /**
+     * Adds the acceleration of a body on a given target position to the
+     * ith slots of ax and ay.  This is the same calculation as
+     * calculateAccelerationOn, but it works on primitives and allocates
+     * nothing.
+     * @param px the x-coordinate of the target position
+     * @param py the y-coordinate of the target position
+     * @param mass2 the mass of the body
+     * @param qx the x-coordinate of the body
+     * @param qy the y-coordinate of the body
+     * @param ax the x-components of the accumulated accelerations
+     * @param ay the y-components of the accumulated accelerations
+     * @param i the slot of ax and ay to accumulate into
+     */
+    public static void accumulateAccelerationOn(double px, double py, double mass2,
+            double qx, double qy, double[] ax, double[] ay, int i) {
+        double dx = qx - px;
+        double dy = qy - py;
+        double r = dx * dx + dy * dy;
+        if (r >= EPSILON) {
+            double scale = G * mass2 / (r * Math.sqrt(r));
+            ax[i] += dx * scale;
+            ay[i] += dy * scale;
+        }
+    }
+
+    /**
+     * Adds the acceleration of the bodies from (inclusive) to to (exclusive)
+     * on a given target position to the ith slots of ax and ay.  Sources
+     * that coincide with the target exert no force, so the target may be
+     * among the sources.  Allocates nothing.
+     * @param px the x-coordinate of the target position
+     * @param py the y-coordinate of the target position
+     * @param mass the masses of the sources
+     * @param x the x-coordinates of the sources
+     * @param y the y-coordinates of the sources
+     * @param from the first source to include
+     * @param to one past the last source to include
+     * @param ax the x-components of the accumulated accelerations
+     * @param ay the y-components of the accumulated accelerations
+     * @param i the slot of ax and ay to accumulate into
+     */
+    public static void accumulateAccelerationOn(double px, double py,
+            double[] mass, double[] x, double[] y, int from, int to,
+            double[] ax, double[] ay, int i) {
+        double sx = 0.0;
+        double sy = 0.0;
+        for (int j = from; j < to; j++) {
+            double dx = x[j] - px;
+            double dy = y[j] - py;
+            double r = dx * dx + dy * dy;
+            if (r >= EPSILON) {
+                double scale = G * mass[j] / (r * Math.sqrt(r));
+                sx += dx * scale;
+                sy += dy * scale;
+            }
         }
+        ax[i] += sx;
+        ay[i] += sy;
     }
     
+    /**
+     * @return the fastest GravityKernel this JVM supports: the
+     * VectorGravityKernel if the jdk.incubator.vector module is present,
+     * GravityKernel.SCALAR otherwise
+     */
+    public static GravityKernel preferredKernel() {
+        return KernelHolder.PREFERRED;
+    }
+
+    /** Loads the preferred kernel the first time it is asked for. */
+    private static class KernelHolder {
+        private static final GravityKernel PREFERRED = load();
+
+        private static GravityKernel load() {
+            try {
+                return (GravityKernel) Class
+                        .forName("edu.grinnell.celestialvisualizer.physics.VectorGravityKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                return GravityKernel.SCALAR;
+            }
+        }
+    }
+
     /**
      * Calculates the update position of a point given its speed and
      * acceleration according to the formula: delta = t * v + 0.5 * t^2 * a.
@@ -40,7 +131,7 @@ public class Physics {
      * @return
      */
     public static Point calculateUpdatedPosition(Point pos, double elapsedTime, Vector2d vel, Vector2d acc) {
-        return pos.translate(vel.scale(elapsedTime).add(acc.scale(0.5 * Math.pow(elapsedTime, 2))));
+        return pos.translate(vel.scale(elapsedTime).add(acc.scale(0.5 * elapsedTime * elapsedTime)));
     }
     
     /**
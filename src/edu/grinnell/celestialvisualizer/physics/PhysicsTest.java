@@ -0,0 +1,100 @@
+package edu.grinnell.celestialvisualizer.physics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.util.Point;
+import edu.grinnell.celestialvisualizer.util.Vector2d;
+
+public class PhysicsTest {
+
+    private static BodyStore makeStore(int n) {
+        BodyStore store = new BodyStore(n);
+        for (int i = 0; i < n; i++) {
+            double angle = i * 0.7;
+            double r = 1.0e8 * (1 + i % 17);
+            store.add(1.0e20 * (1 + i % 5), r * Math.cos(angle), r * Math.sin(angle),
+                    Math.sin(angle), -Math.cos(angle));
+        }
+        return store;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void testAccumulateMatchesVectorForm() {
+        double[] ax = new double[1];
+        double[] ay = new double[1];
+        Physics.accumulateAccelerationOn(2.0, 2.0, 10000000.0, 2.0, 3.0, ax, ay, 0);
+        assertEquals(new Vector2d(0.0, 0.000667428), new Vector2d(ax[0], ay[0]));
+
+        Point p = new Point(-3.5e7, 1.25e8);
+        Point q = new Point(4.0e8, -2.0e7);
+        Vector2d expected = Physics.calculateAccelerationOn(p, 5.98e24, q);
+        ax[0] = 0.0;
+        ay[0] = 0.0;
+        Physics.accumulateAccelerationOn(p.getX(), p.getY(), 5.98e24, q.getX(), q.getY(), ax, ay, 0);
+        assertEquals(expected.getX(), ax[0], Math.abs(expected.getX()) * 1e-12);
+        assertEquals(expected.getY(), ay[0], Math.abs(expected.getY()) * 1e-12);
+    }
+
+    @Test
+    public void testCoincidentSourceExertsNoForce() {
+        double[] ax = new double[1];
+        double[] ay = new double[1];
+        Physics.accumulateAccelerationOn(1.0, 1.0, 10.0, 1.0, 1.0, ax, ay, 0);
+        assertEquals(0.0, ax[0], 0.0);
+        assertEquals(0.0, ay[0], 0.0);
+    }
+
+    @Test
+    public void testPreferredKernelMatchesScalar() {
+        BodyStore store = makeStore(103);
+        double[] expectedX = new double[store.size()];
+        double[] expectedY = new double[store.size()];
+        double[] actualX = new double[store.size()];
+        double[] actualY = new double[store.size()];
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        for (int i = 0; i < store.size(); i++) {
+            // Uneven ranges exercise the tail left over by a vector kernel.
+            GravityKernel.SCALAR.accumulate(x[i], y[i], store.getMasses(), x, y, i % 7,
+                    store.size(), expectedX, expectedY, i);
+            Physics.preferredKernel().accumulate(x[i], y[i], store.getMasses(), x, y, i % 7,
+                    store.size(), actualX, actualY, i);
+            assertEquals(expectedX[i], actualX[i], Math.abs(expectedX[i]) * 1e-12);
+            assertEquals(expectedY[i], actualY[i], Math.abs(expectedY[i]) * 1e-12);
+        }
+    }
+
+    @Test
+    public void testDirectStepAllocatesNothing() {
+        // Splitting the step across a pool allocates a few tasks per step,
+        // so measure the kernel itself on the calling thread.
+        NBody sim = new NBody(makeStore(256)).setPool(null);
+        // Warm up so that the measured steps run compiled code.
+        for (int i = 0; i < 200; i++) {
+            sim.update(50.0);
+        }
+        // The runtime itself occasionally allocates on this thread (when
+        // code is recompiled, for instance), so take the quietest of a few
+        // rounds of steps.
+        long overhead = -allocatedBytes() + allocatedBytes();
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < 50; i++) {
+                sim.update(50.0);
+            }
+            allocated = Math.min(allocated, allocatedBytes() - before - overhead);
+        }
+        assertEquals(0L, allocated);
+    }
+}
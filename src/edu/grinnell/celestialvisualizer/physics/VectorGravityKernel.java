@@ -0,0 +1,70 @@
+package edu.grinnell.celestialvisualizer.physics;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A GravityKernel that handles as many sources at once as the widest
+ * vector registers of the machine hold (4 doubles with AVX2, 8 with
+ * AVX-512), using the incubating Vector API.
+ *
+ * Compiling this class needs --add-modules jdk.incubator.vector, and so
+ * does using it: Physics.preferredKernel loads it by name and falls back to
+ * GravityKernel.SCALAR when the module is missing at run time.
+ */
+public class VectorGravityKernel implements GravityKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Constructs the kernel.
+     * @throws UnsupportedOperationException if the machine has no vector
+     * registers wider than a double
+     */
+    public VectorGravityKernel() {
+        if (SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("No vector registers available");
+        }
+    }
+
+    /** @return the number of sources handled at once */
+    public int getLanes() { return SPECIES.length(); }
+
+    @Override
+    public void accumulate(double px, double py, double[] mass, double[] x, double[] y,
+            int from, int to, double[] ax, double[] ay, int i) {
+        DoubleVector targetX = DoubleVector.broadcast(SPECIES, px);
+        DoubleVector targetY = DoubleVector.broadcast(SPECIES, py);
+        DoubleVector sumX = DoubleVector.zero(SPECIES);
+        DoubleVector sumY = DoubleVector.zero(SPECIES);
+        int j = from;
+        for (int upper = from + SPECIES.loopBound(to - from); j < upper; j += SPECIES.length()) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(targetX);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(targetY);
+            DoubleVector r = dx.mul(dx).add(dy.mul(dy));
+            DoubleVector scale = DoubleVector.fromArray(SPECIES, mass, j).mul(Physics.G)
+                    .div(r.mul(r.sqrt()));
+            // Sources that coincide with the target exert no force.
+            VectorMask<Double> near = r.compare(VectorOperators.LT, Physics.EPSILON);
+            scale = scale.blend(0.0, near);
+            sumX = sumX.add(dx.mul(scale));
+            sumY = sumY.add(dy.mul(scale));
+        }
+        double sx = sumX.reduceLanes(VectorOperators.ADD);
+        double sy = sumY.reduceLanes(VectorOperators.ADD);
+        for (; j < to; j++) {
+            double dx = x[j] - px;
+            double dy = y[j] - py;
+            double r = dx * dx + dy * dy;
+            if (r >= Physics.EPSILON) {
+                double scale = Physics.G * mass[j] / (r * Math.sqrt(r));
+                sx += dx * scale;
+                sy += dy * scale;
+            }
+        }
+        ax[i] += sx;
+        ay[i] += sy;
+    }
+}
@@ -0,0 +1,54 @@
+package edu.grinnell.celestialvisualizer.quadtree;
+
+import java.util.Arrays;
+
+/**
+ * A BodyList collects the indices of the bodies found by a range or radius
+ * query of a FlatQuadTree (see findInRange and findWithin).  A list is
+ * cleared by every query it is passed to but keeps its array, so a list
+ * reused across queries only allocates when it has to grow.
+ */
+public class BodyList {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] bodies;
+    private int size;
+
+    /** Constructs a new, empty list. */
+    public BodyList() { this(DEFAULT_CAPACITY); }
+
+    /**
+     * Constructs a new, empty list with room for the given number of bodies
+     * before its array needs to grow.
+     * @param capacity the initial capacity of the list
+     */
+    public BodyList(int capacity) {
+        this.bodies = new int[Math.max(capacity, 1)];
+    }
+
+    /** @return the number of bodies in the list */
+    public int size() { return size; }
+
+    /** @return the index of the kth body of the list */
+    public int get(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("No body " + k + " of " + size);
+        }
+        return bodies[k];
+    }
+
+    /** @return a copy of the indices of the bodies in the list */
+    public int[] toArray() { return Arrays.copyOf(bodies, size); }
+
+    /** Removes every body from the list, keeping its array. */
+    public void clear() { size = 0; }
+
+    /** Adds the given body to the list. */
+    void add(int body) {
+        if (size == bodies.length) {
+            bodies = Arrays.copyOf(bodies, size * 2);
+        }
+        bodies[size++] = body;
+    }
+}
@@ -0,0 +1,1157 @@
+package edu.grinnell.celestialvisualizer.quadtree;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.Physics;
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+import edu.grinnell.celestialvisualizer.util.ParallelSort;
+import edu.grinnell.celestialvisualizer.util.Point;
+import edu.grinnell.celestialvisualizer.util.Vector2d;
+
+/**
+ * A FlatQuadTree is a quad tree whose nodes are stored in parallel arrays
+ * instead of as a graph of Node objects.  It follows the same rules as
+ * QuadTree (see the Node interface), but a tree can be cleared and rebuilt
+ * without allocating once its arrays are large enough.
+ *
+ * Every node n has a bounding box (minX[n], minY[n], maxX[n], maxY[n]) and
+ * is one of:
+ *
+ *   - empty, when child[n] == EMPTY,
+ *   - a leaf, when child[n] == LEAF, holding a single body of mass mass[n]
+ *     at (comX[n], comY[n]), or
+ *   - a centroid node, when child[n] >= 0, whose centroid has mass mass[n]
+ *     and position (comX[n], comY[n]) and whose four children are stored
+ *     consecutively from child[n] in the order of the Quadrant enum.
+ *
+ * The root is always node 0 and children are always stored after their
+ * parent.
+ *
+ * A tree made by build also remembers which bodies every leaf holds (a
+ * leaf may hold several bodies at the same point), so that update can
+ * follow the bodies as they move instead of rebuilding the tree.  Nodes
+ * that update no longer needs are marked DEAD and left in place until the
+ * next build.  Bodies outside the bounding box of the root are left out of
+ * such a tree and listed by getOutsideBodies instead.
+ */
+public class FlatQuadTree {
+
+    private static final int EMPTY = -1;
+    private static final int LEAF = -2;
+    private static final int DEAD = -3;
+    private static final int NO_BODY = -1;
+    private static final int OUTSIDE = -1;
+    /** The key given to bodies outside the root, above every real key. */
+    private static final long OUTSIDE_KEY = Long.MAX_VALUE;
+    private static final int ROOT = 0;
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final double DEFAULT_REBUILD_THRESHOLD = 0.25;
+
+    /** The slot of the walk counters (see accumulateBarnesHutAcceleration)
+     *  counting leaves that acted on the point. */
+    public static final int LEAF_INTERACTIONS = 0;
+    /** The slot of the walk counters counting centroids that stood in for
+     *  their bodies. */
+    public static final int NODE_INTERACTIONS = 1;
+    /** The slot of the walk counters counting centroid nodes opened. */
+    public static final int NODES_OPENED = 2;
+    /** The number of walk counters. */
+    public static final int WALK_COUNTERS = 3;
+
+    /** Receives the bodies and centroids handed out by exportEssential. */
+    public interface BodySink {
+        public void add(double mass, double x, double y);
+    }
+
+    /**
+     * The number of quad tree levels encoded by a Morton key.  Each level
+     * takes two bits of the key: bit 0 is set for the right half and bit 1
+     * for the lower half, which gives the ordinal of the Quadrant.
+     */
+    private static final int KEY_LEVELS = 31;
+    /** The fewest bodies worth handing to a thread when computing keys. */
+    private static final int KEY_GRAIN = 4096;
+
+    private int size;
+    private int[] child;
+    private int[] parent;
+    private int[] leafBody;
+    private int[] count;
+    private double[] mass;
+    private double[] comX;
+    private double[] comY;
+    private double[] minX;
+    private double[] minY;
+    private double[] maxX;
+    private double[] maxY;
+
+    // Scratch space for build, kept so that rebuilding does not allocate.
+    private long[] keys = new long[0];
+    private long[] keyScratch = new long[0];
+    private int[] order = new int[0];
+    private int[] orderScratch = new int[0];
+
+    // The leaf holding each body and the next body held by the same leaf,
+    // for a tree made by build from trackedBodies bodies.
+    private int[] leafOf = new int[0];
+    private int[] nextBody = new int[0];
+    private int trackedBodies = -1;
+    private int[] outside = new int[0];
+    private int outsideCount;
+
+    private int deadNodes;
+    private int relocated;
+
+    // The depth of every node, the deepest and the number of leaves, as
+    // last measured.
+    private int[] depthOf = new int[0];
+    private int depth;
+    private int leafCount;
+    private double rebuildThreshold = DEFAULT_REBUILD_THRESHOLD;
+
+    /** Constructs a new, empty quad tree. */
+    public FlatQuadTree() { this(DEFAULT_CAPACITY); }
+
+    /**
+     * Constructs a new, empty quad tree with room for the given number of
+     * nodes before its arrays need to grow.
+     * @param capacity the initial node capacity of the tree
+     */
+    public FlatQuadTree(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.child = new int[capacity];
+        this.parent = new int[capacity];
+        this.leafBody = new int[capacity];
+        this.count = new int[capacity];
+        this.mass = new double[capacity];
+        this.comX = new double[capacity];
+        this.comY = new double[capacity];
+        this.minX = new double[capacity];
+        this.minY = new double[capacity];
+        this.maxX = new double[capacity];
+        this.maxY = new double[capacity];
+        clear();
+    }
+
+    /**
+     * Removes every body from the tree, keeping its arrays for reuse.  The
+     * bounding box of the tree is taken from the next call to insert.
+     */
+    public void clear() {
+        size = 1;
+        child[ROOT] = EMPTY;
+        parent[ROOT] = -1;
+        leafBody[ROOT] = NO_BODY;
+        mass[ROOT] = 0.0;
+        minX[ROOT] = Double.NaN;
+        trackedBodies = -1;
+        outsideCount = 0;
+        deadNodes = 0;
+        relocated = 0;
+    }
+
+    /**
+     * Removes every body from the tree, keeping its arrays for reuse, and
+     * sets the bounding box of the tree.
+     * @param bb the bounding box of the world
+     */
+    public void clear(BoundingBox bb) {
+        clear();
+        setBounds(ROOT, bb.getMinX(), bb.getMinY(), bb.getMaxX(), bb.getMaxY());
+    }
+
+    /** @return the number of nodes in the tree, including empty and dead
+     *  ones */
+    public int getNodeCount() { return size; }
+
+    /** @return the number of nodes update has discarded since the last
+     *  build */
+    public int getDeadNodeCount() { return deadNodes; }
+
+    /** @return the number of bodies the last call to update moved to a
+     *  different leaf */
+    public int getRelocatedCount() { return relocated; }
+
+    /** @return the number of levels below the root of the deepest node
+     *  that is not dead; 0 for a tree of a single node */
+    public int getDepth() {
+        measure();
+        return depth;
+    }
+
+    /** @return the number of leaves of the tree */
+    public int getLeafCount() {
+        measure();
+        return leafCount;
+    }
+
+    /** Works out the depth and the number of leaves of the tree in one
+     *  pass, relying on children being stored after their parents. */
+    private void measure() {
+        if (depthOf.length < size) {
+            depthOf = new int[child.length];
+        }
+        depthOf[ROOT] = 0;
+        depth = 0;
+        leafCount = child[ROOT] == LEAF ? 1 : 0;
+        for (int n = 1; n < size; n++) {
+            if (child[n] != DEAD) {
+                int d = depthOf[parent[n]] + 1;
+                depthOf[n] = d;
+                depth = Math.max(depth, d);
+                if (child[n] == LEAF) {
+                    leafCount++;
+                }
+            }
+        }
+    }
+
+    /** @return the fraction of the nodes of the tree that are dead */
+    public double getImbalance() { return (double) deadNodes / size; }
+
+    /**
+     * Sets the imbalance above which update rebuilds the tree from scratch.
+     * @param threshold the fraction of dead nodes to tolerate
+     */
+    public void setRebuildThreshold(double threshold) {
+        this.rebuildThreshold = threshold;
+    }
+
+    /**
+     * @return the bodies left out of the tree because they lie outside the
+     * bounding box of its root.  Only the first getOutsideCount() entries
+     * are meaningful, and the array is reused by the next build or update.
+     */
+    public int[] getOutsideBodies() { return outside; }
+
+    /** @return the number of bodies outside the bounding box of the root */
+    public int getOutsideCount() { return outsideCount; }
+
+    /**
+     * @return true if the tree was made by build from the given number of
+     * bodies and has not been changed by insert since, so that update may
+     * be used
+     */
+    public boolean isTracking(int n) { return trackedBodies == n; }
+
+    // The documentation for lookup, calculateAcceleration and insert is
+    // contained in the Node interface.
+
+    public boolean lookup(Point pos, BoundingBox bb) {
+        if (pos == null || bb == null) {
+            throw new IllegalArgumentException();
+        }
+        if (child[ROOT] == EMPTY) {
+            return false;
+        }
+        double x = pos.getX();
+        double y = pos.getY();
+        int n = ROOT;
+        while (child[n] >= 0) {
+            n = child[n] + quadrantOf(n, x, y);
+        }
+        return child[n] == LEAF && samePoint(comX[n], comY[n], x, y);
+    }
+
+    public Vector2d calculateAcceleration(Point p, BoundingBox bb, double thresh) {
+        if (p == null || bb == null) {
+            throw new IllegalArgumentException();
+        }
+        double[] ax = new double[1];
+        double[] ay = new double[1];
+        accumulateAcceleration(p.getX(), p.getY(), thresh, ax, ay, 0);
+        return new Vector2d(ax[0], ay[0]);
+    }
+
+    public void insert(double mass, Point pos, BoundingBox bb) {
+        if (pos == null || bb == null) {
+            throw new IllegalArgumentException();
+        }
+        if (child[ROOT] == EMPTY) {
+            clear(bb);
+        } else if (minX[ROOT] != bb.getMinX() || minY[ROOT] != bb.getMinY()
+                || maxX[ROOT] != bb.getMaxX() || maxY[ROOT] != bb.getMaxY()) {
+            throw new IllegalArgumentException("Bounding box differs from the tree's: " + bb);
+        }
+        insert(mass, pos.getX(), pos.getY());
+    }
+
+    /**
+     * Inserts the given body into the tree, which must have been given its
+     * bounding box by clear(bb) or by an earlier insertion.
+     * @param m the mass of the body
+     * @param x the x-coordinate of the body
+     * @param y the y-coordinate of the body
+     */
+    public void insert(double m, double x, double y) {
+        if (Double.isNaN(minX[ROOT])) {
+            throw new IllegalStateException("The tree has no bounding box");
+        }
+        trackedBodies = -1;
+        insertAt(ROOT, m, x, y, NO_BODY);
+    }
+
+    /**
+     * Inserts the given body into the subtree rooted at node n, recording
+     * that its leaf holds the body with the given index unless that is
+     * NO_BODY.
+     */
+    private void insertAt(int n, double m, double x, double y, int body) {
+        while (true) {
+            int c = child[n];
+            if (c == EMPTY) {
+                child[n] = LEAF;
+                leafBody[n] = NO_BODY;
+                mass[n] = m;
+                comX[n] = x;
+                comY[n] = y;
+                attach(n, body);
+                return;
+            } else if (c == LEAF) {
+                if (samePoint(comX[n], comY[n], x, y)) {
+                    mass[n] += m;
+                    comX[n] = x;
+                    comY[n] = y;
+                    attach(n, body);
+                    return;
+                }
+                split(n);
+            } else {
+                double msum = mass[n] + m;
+                comX[n] = (comX[n] * mass[n] + x * m) * (1.0 / msum);
+                comY[n] = (comY[n] * mass[n] + y * m) * (1.0 / msum);
+                mass[n] = msum;
+                n = c + quadrantOf(n, x, y);
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of the tree with the given bodies.  Bodies
+     * outside the given bounding box are left out (see getOutsideBodies).
+     * The result has the same shape as clearing the tree and inserting the
+     * remaining bodies one at a time (bodies closer than Physics.EPSILON
+     * aside), but it is built in bulk:
+     *
+     *   1. the Morton key of every body is computed in parallel,
+     *   2. the bodies are sorted by key in parallel, which groups the
+     *      bodies of every subtree into a contiguous run,
+     *   3. the nodes are laid out by splitting each run at the boundaries
+     *      of its quadrants, and
+     *   4. the centroids are computed in a single pass from the leaves up.
+     *
+     * @param mass the masses of the bodies
+     * @param x the x-coordinates of the bodies
+     * @param y the y-coordinates of the bodies
+     * @param n the number of bodies
+     * @param bb the bounding box of the world
+     * @param pool the pool to run on, or null to run on the calling thread
+     */
+    public void build(double[] mass, double[] x, double[] y, int n,
+            BoundingBox bb, ForkJoinPool pool) {
+        clear(bb);
+        if (n == 0) {
+            return;
+        }
+        if (keys.length < n) {
+            keys = new long[n];
+            keyScratch = new long[n];
+            order = new int[n];
+            orderScratch = new int[n];
+            leafOf = new int[n];
+            nextBody = new int[n];
+            outside = new int[n];
+        }
+        double x0 = bb.getMinX();
+        double y0 = bb.getMinY();
+        double x1 = bb.getMaxX();
+        double y1 = bb.getMaxY();
+        long[] keys = this.keys;
+        int[] order = this.order;
+        Parallel.forRange(pool, n, KEY_GRAIN, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                boolean inside = x0 <= x[i] && x[i] <= x1 && y0 <= y[i] && y[i] <= y1;
+                keys[i] = inside ? mortonKey(x[i], y[i], x0, y0, x1, y1) : OUTSIDE_KEY;
+                order[i] = i;
+            }
+        });
+        ParallelSort.sort(keys, order, keyScratch, orderScratch, n, pool);
+
+        // Bodies outside the root sort after all others.
+        int inside = n;
+        while (inside > 0 && keys[inside - 1] == OUTSIDE_KEY) {
+            inside--;
+        }
+        for (int i = inside; i < n; i++) {
+            leafOf[order[i]] = OUTSIDE;
+            outside[i - inside] = order[i];
+        }
+        outsideCount = n - inside;
+
+        if (inside > 0) {
+            layOut(ROOT, 0, inside, 0, mass, x, y);
+        }
+        refit(mass, x, y);
+        trackedBodies = n;
+    }
+
+    /**
+     * Brings the tree up to date with the current positions of the bodies
+     * it was built from, without rebuilding it:
+     *
+     *   1. every body that has left the bounding box of its leaf is removed
+     *      from the leaf and inserted again below the lowest ancestor that
+     *      contains it, or put on the list of outside bodies if it has left
+     *      the root (and the other way around),
+     *   2. the centroids are recomputed from the leaves up, and nodes left
+     *      with at most one body are collapsed, and
+     *   3. if the fraction of dead nodes this leaves behind exceeds the
+     *      rebuild threshold, the tree is rebuilt from scratch.
+     *
+     * @param mass the masses of the bodies
+     * @param x the x-coordinates of the bodies
+     * @param y the y-coordinates of the bodies
+     * @param n the number of bodies, which must match the last build
+     * @param pool the pool to rebuild on, or null to run on the calling
+     *             thread
+     * @return true if the tree was updated in place, false if it was rebuilt
+     */
+    public boolean update(double[] mass, double[] x, double[] y, int n, ForkJoinPool pool) {
+        if (!isTracking(n)) {
+            throw new IllegalStateException("The tree was not built from " + n + " bodies");
+        }
+        refreshLeaves(mass, x, y, n);
+        relocated = 0;
+        outsideCount = 0;
+        for (int b = 0; b < n; b++) {
+            int leaf = leafOf[b];
+            if (leaf == OUTSIDE) {
+                if (contains(ROOT, x[b], y[b])) {
+                    insertAt(ROOT, mass[b], x[b], y[b], b);
+                    relocated++;
+                } else {
+                    outside[outsideCount++] = b;
+                }
+            } else if (!contains(leaf, x[b], y[b])) {
+                detach(leaf, b);
+                int a = parent[leaf];
+                while (a >= ROOT && !contains(a, x[b], y[b])) {
+                    a = parent[a];
+                }
+                if (a >= ROOT) {
+                    insertAt(a, mass[b], x[b], y[b], b);
+                } else {
+                    leafOf[b] = OUTSIDE;
+                    outside[outsideCount++] = b;
+                }
+                relocated++;
+            }
+        }
+        refit(mass, x, y);
+        if (getImbalance() > rebuildThreshold) {
+            build(mass, x, y, n, new BoundingBox(minX[ROOT], minY[ROOT], maxX[ROOT], maxY[ROOT]), pool);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Recomputes the centroids of the tree from the current positions of
+     * the bodies it was built from, leaving every body in its leaf even if
+     * it has moved out of the leaf's bounding box.  Cheaper than update,
+     * and as accurate while the bodies have moved little compared to the
+     * size of their leaves.
+     * @param mass the masses of the bodies
+     * @param x the x-coordinates of the bodies
+     * @param y the y-coordinates of the bodies
+     * @param n the number of bodies, which must match the last build
+     */
+    public void refit(double[] mass, double[] x, double[] y, int n) {
+        if (!isTracking(n)) {
+            throw new IllegalStateException("The tree was not built from " + n + " bodies");
+        }
+        refit(mass, x, y);
+    }
+
+    /**
+     * Moves the centroid of every leaf to the current position of its
+     * bodies, so that splitting a leaf while relocating bodies sends its
+     * bodies to the right child.
+     */
+    private void refreshLeaves(double[] mass, double[] x, double[] y, int n) {
+        for (int b = 0; b < n; b++) {
+            int leaf = leafOf[b];
+            if (leaf != OUTSIDE) {
+                this.mass[leaf] = 0.0;
+                comX[leaf] = 0.0;
+                comY[leaf] = 0.0;
+            }
+        }
+        for (int b = 0; b < n; b++) {
+            int leaf = leafOf[b];
+            if (leaf != OUTSIDE) {
+                this.mass[leaf] += mass[b];
+                comX[leaf] += x[b] * mass[b];
+                comY[leaf] += y[b] * mass[b];
+            }
+        }
+        for (int b = 0; b < n; b++) {
+            int leaf = leafOf[b];
+            if (leaf != OUTSIDE && leafBody[leaf] == b) {
+                comX[leaf] /= this.mass[leaf];
+                comY[leaf] /= this.mass[leaf];
+            }
+        }
+    }
+
+    /** Records that leaf n holds the given body, unless it is NO_BODY. */
+    private void attach(int n, int body) {
+        if (body != NO_BODY) {
+            nextBody[body] = leafBody[n];
+            leafBody[n] = body;
+            leafOf[body] = n;
+        }
+    }
+
+    /** Removes the given body from leaf n, emptying the leaf if it was the
+     *  only one there.  The centroids are left for refit to fix. */
+    private void detach(int n, int body) {
+        if (leafBody[n] == body) {
+            leafBody[n] = nextBody[body];
+        } else {
+            int b = leafBody[n];
+            while (nextBody[b] != body) {
+                b = nextBody[b];
+            }
+            nextBody[b] = nextBody[body];
+        }
+        if (leafBody[n] == NO_BODY) {
+            child[n] = EMPTY;
+            mass[n] = 0.0;
+        }
+    }
+
+    /**
+     * Makes node n, which must be empty, the subtree holding the bodies
+     * order[lo] to order[hi - 1], all of which lie in n's bounding box at the
+     * given level.
+     */
+    private void layOut(int n, int lo, int hi, int level,
+            double[] mass, double[] x, double[] y) {
+        if (hi - lo == 1) {
+            int b = order[lo];
+            child[n] = LEAF;
+            leafBody[n] = NO_BODY;
+            attach(n, b);
+        } else if (keys[lo] == keys[hi - 1]) {
+            // The keys cannot tell these bodies apart, so fall back to
+            // inserting them, which also merges bodies at the same point.
+            for (int i = lo; i < hi; i++) {
+                int b = order[i];
+                insertAt(n, mass[b], x[b], y[b], b);
+            }
+        } else {
+            int c = allocateChildren(n);
+            child[n] = c;
+            int shift = 2 * (KEY_LEVELS - 1 - level);
+            int start = lo;
+            for (int q = 0; q < 4; q++) {
+                int end = q == 3 ? hi : endOfDigit(start, hi, shift, q);
+                if (end > start) {
+                    layOut(c + q, start, end, level + 1, mass, x, y);
+                }
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * @return the first index in [lo, hi) whose key has a digit greater than
+     * q at the given shift, or hi if there is none.
+     */
+    private int endOfDigit(int lo, int hi, int shift, int q) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (((keys[mid] >>> shift) & 3) <= q) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Recomputes the mass and centroid of every node from the bodies held by
+     * the leaves, and collapses every centroid node left with no body into
+     * an empty node and every one left with a single body into a leaf.
+     * Children are stored after their parents, so one backwards pass over
+     * the nodes sees every child before its parent.
+     */
+    private void refit(double[] mass, double[] x, double[] y) {
+        for (int n = size - 1; n >= 0; n--) {
+            int c = child[n];
+            if (c == LEAF) {
+                double m = 0.0;
+                double sx = 0.0;
+                double sy = 0.0;
+                int k = 0;
+                for (int b = leafBody[n]; b != NO_BODY; b = nextBody[b]) {
+                    m += mass[b];
+                    sx += x[b] * mass[b];
+                    sy += y[b] * mass[b];
+                    k++;
+                }
+                this.mass[n] = m;
+                comX[n] = sx / m;
+                comY[n] = sy / m;
+                count[n] = k;
+            } else if (c == EMPTY) {
+                count[n] = 0;
+            } else if (c >= 0) {
+                double m = 0.0;
+                double sx = 0.0;
+                double sy = 0.0;
+                int k = 0;
+                int nonEmpty = c;
+                for (int q = c; q < c + 4; q++) {
+                    if (child[q] != EMPTY) {
+                        m += this.mass[q];
+                        sx += comX[q] * this.mass[q];
+                        sy += comY[q] * this.mass[q];
+                        k += count[q];
+                        nonEmpty = q;
+                    }
+                }
+                if (k <= 1) {
+                    // A lone body is always in a leaf, since its own node
+                    // was collapsed first.
+                    child[n] = k == 0 ? EMPTY : LEAF;
+                    leafBody[n] = NO_BODY;
+                    if (k == 1) {
+                        moveBodies(nonEmpty, n);
+                    }
+                    for (int q = c; q < c + 4; q++) {
+                        child[q] = DEAD;
+                    }
+                    deadNodes += 4;
+                }
+                this.mass[n] = m;
+                comX[n] = sx / m;
+                comY[n] = sy / m;
+                count[n] = k;
+            }
+        }
+    }
+
+    /**
+     * @return the Morton key of the given point, whose digits are the
+     * quadrants a point is sent to on the way down from a root with the
+     * given bounding box.  The quadrants are chosen exactly as quadrantOf
+     * chooses them, so the key always agrees with the tree.
+     */
+    private static long mortonKey(double x, double y,
+            double x0, double y0, double x1, double y1) {
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            throw new IllegalArgumentException();
+        }
+        long key = 0;
+        for (int level = 0; level < KEY_LEVELS; level++) {
+            double mx = (x0 + x1) / 2;
+            double my = (y0 + y1) / 2;
+            int q = 0;
+            if (x <= mx) {
+                x1 = mx;
+            } else {
+                x0 = mx;
+                q |= 1;
+            }
+            if (y <= my) {
+                y1 = my;
+            } else {
+                y0 = my;
+                q |= 2;
+            }
+            key = (key << 2) | q;
+        }
+        return key;
+    }
+
+    /**
+     * Adds the acceleration on the given point according to the tree to the
+     * ith slots of ax and ay, using the Barnes-Hut opening criterion: a
+     * centroid node stands in for its bodies when the width s of its
+     * bounding box and the distance d from the point to its centroid satisfy
+     * s / d < theta, and the point is not inside its bounding box.
+     * Otherwise the node is opened and its children are visited.  Smaller
+     * values of theta are more accurate and more expensive; theta = 0 opens
+     * every node, which amounts to a direct sum.
+     *
+     * Allocates nothing and only reads the tree, so it may be called from
+     * several threads at once.
+     * @param px the x-coordinate of the point
+     * @param py the y-coordinate of the point
+     * @param theta the opening angle
+     * @param ax the x-components of the accumulated accelerations
+     * @param ay the y-components of the accumulated accelerations
+     * @param i the slot of ax and ay to accumulate into
+     * @return the number of leaves and centroids that acted on the point
+     */
+    public int accumulateBarnesHutAcceleration(double px, double py, double theta,
+            double[] ax, double[] ay, int i) {
+        return accumulateBarnesHut(ROOT, px, py, theta * theta, ax, ay, i, null);
+    }
+
+    /**
+     * Does the same as accumulateBarnesHutAcceleration(px, py, theta, ax,
+     * ay, i), and also adds to the given counters the number of leaves and
+     * of centroids that acted on the point and the number of centroid nodes
+     * opened, in the slots LEAF_INTERACTIONS, NODE_INTERACTIONS and
+     * NODES_OPENED.  Threads walking the tree at once need counters of
+     * their own.
+     * @param counters at least WALK_COUNTERS counters to add to
+     * @return the number of leaves and centroids that acted on the point
+     */
+    public int accumulateBarnesHutAcceleration(double px, double py, double theta,
+            double[] ax, double[] ay, int i, long[] counters) {
+        return accumulateBarnesHut(ROOT, px, py, theta * theta, ax, ay, i, counters);
+    }
+
+    private int accumulateBarnesHut(int n, double px, double py, double theta2,
+            double[] ax, double[] ay, int i, long[] counters) {
+        int c = child[n];
+        if (c == LEAF) {
+            Physics.accumulateAccelerationOn(px, py, mass[n], comX[n], comY[n], ax, ay, i);
+            if (counters != null) {
+                counters[LEAF_INTERACTIONS]++;
+            }
+            return 1;
+        } else if (c >= 0) {
+            double dx = comX[n] - px;
+            double dy = comY[n] - py;
+            double s = Math.max(maxX[n] - minX[n], maxY[n] - minY[n]);
+            if (s * s < theta2 * (dx * dx + dy * dy) && !contains(n, px, py)) {
+                Physics.accumulateAccelerationOn(px, py, mass[n], comX[n], comY[n], ax, ay, i);
+                if (counters != null) {
+                    counters[NODE_INTERACTIONS]++;
+                }
+                return 1;
+            }
+            if (counters != null) {
+                counters[NODES_OPENED]++;
+            }
+            return accumulateBarnesHut(c, px, py, theta2, ax, ay, i, counters)
+                    + accumulateBarnesHut(c + 1, px, py, theta2, ax, ay, i, counters)
+                    + accumulateBarnesHut(c + 2, px, py, theta2, ax, ay, i, counters)
+                    + accumulateBarnesHut(c + 3, px, py, theta2, ax, ay, i, counters);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Hands to the sink the leaves and centroids of this tree that a
+     * Barnes-Hut walk with the given opening angle would need for any point
+     * of the box (x0, y0) to (x1, y1).  A centroid is handed out in place of
+     * its bodies when it would be accepted for the nearest point of the box
+     * and its node does not overlap the box, and so would be accepted for
+     * every point of the box.  For bodies in the box the result stands in
+     * for the whole tree: it is the part of the tree essential to them.
+     * @param theta the opening angle
+     * @param x0 the least x-coordinate of the box
+     * @param y0 the least y-coordinate of the box
+     * @param x1 the greatest x-coordinate of the box
+     * @param y1 the greatest y-coordinate of the box
+     * @param sink the receiver of the leaves and centroids
+     * @return the number of leaves and centroids handed out
+     */
+    public int exportEssential(double theta, double x0, double y0, double x1, double y1,
+            BodySink sink) {
+        return exportEssential(ROOT, theta * theta, x0, y0, x1, y1, sink);
+    }
+
+    private int exportEssential(int n, double theta2, double x0, double y0, double x1, double y1,
+            BodySink sink) {
+        int c = child[n];
+        if (c == LEAF) {
+            sink.add(mass[n], comX[n], comY[n]);
+            return 1;
+        } else if (c >= 0) {
+            double dx = Math.max(0.0, Math.max(x0 - comX[n], comX[n] - x1));
+            double dy = Math.max(0.0, Math.max(y0 - comY[n], comY[n] - y1));
+            double s = Math.max(maxX[n] - minX[n], maxY[n] - minY[n]);
+            boolean overlaps = minX[n] <= x1 && x0 <= maxX[n] && minY[n] <= y1 && y0 <= maxY[n];
+            if (!overlaps && s * s < theta2 * (dx * dx + dy * dy)) {
+                sink.add(mass[n], comX[n], comY[n]);
+                return 1;
+            }
+            return exportEssential(c, theta2, x0, y0, x1, y1, sink)
+                    + exportEssential(c + 1, theta2, x0, y0, x1, y1, sink)
+                    + exportEssential(c + 2, theta2, x0, y0, x1, y1, sink)
+                    + exportEssential(c + 3, theta2, x0, y0, x1, y1, sink);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Finds the bodies in the box (x0, y0) to (x1, y1), edges included.
+     *
+     * The queries findInRange, findWithin and findNearest answer for the
+     * positions the tree was last built or updated from, which must be
+     * passed back to them: the tree prunes the nodes whose bounding boxes
+     * cannot hold an answer, and only the bodies of the rest, and those
+     * outside the root, are tested against their positions.  A node that
+     * lies wholly inside the query hands over all its bodies untested.  The
+     * queries only read the tree, so several threads may query it at once
+     * with results of their own.
+     * @param x0 the least x-coordinate of the box
+     * @param y0 the least y-coordinate of the box
+     * @param x1 the greatest x-coordinate of the box
+     * @param y1 the greatest y-coordinate of the box
+     * @param x the x-coordinates the tree was built or updated from
+     * @param y the y-coordinates the tree was built or updated from
+     * @param result the list to clear and fill with the indices of the
+     * bodies found
+     * @return the number of bodies found
+     */
+    public int findInRange(double x0, double y0, double x1, double y1,
+            double[] x, double[] y, BodyList result) {
+        checkQueryable();
+        result.clear();
+        if (child[ROOT] != EMPTY) {
+            findInRange(ROOT, x0, y0, x1, y1, x, y, result);
+        }
+        for (int k = 0; k < outsideCount; k++) {
+            int b = outside[k];
+            if (x0 <= x[b] && x[b] <= x1 && y0 <= y[b] && y[b] <= y1) {
+                result.add(b);
+            }
+        }
+        return result.size();
+    }
+
+    private void findInRange(int n, double x0, double y0, double x1, double y1,
+            double[] x, double[] y, BodyList result) {
+        if (maxX[n] < x0 || x1 < minX[n] || maxY[n] < y0 || y1 < minY[n]) {
+            return;
+        }
+        if (x0 <= minX[n] && maxX[n] <= x1 && y0 <= minY[n] && maxY[n] <= y1) {
+            addAll(n, result);
+            return;
+        }
+        int c = child[n];
+        if (c == LEAF) {
+            for (int b = leafBody[n]; b != NO_BODY; b = nextBody[b]) {
+                if (x0 <= x[b] && x[b] <= x1 && y0 <= y[b] && y[b] <= y1) {
+                    result.add(b);
+                }
+            }
+        } else if (c >= 0) {
+            for (int q = c; q < c + 4; q++) {
+                findInRange(q, x0, y0, x1, y1, x, y, result);
+            }
+        }
+    }
+
+    /**
+     * Finds the bodies within the given distance of a point, boundary
+     * included (see findInRange).
+     * @param px the x-coordinate of the point
+     * @param py the y-coordinate of the point
+     * @param radius the distance
+     * @param x the x-coordinates the tree was built or updated from
+     * @param y the y-coordinates the tree was built or updated from
+     * @param result the list to clear and fill with the indices of the
+     * bodies found
+     * @return the number of bodies found
+     */
+    public int findWithin(double px, double py, double radius,
+            double[] x, double[] y, BodyList result) {
+        checkQueryable();
+        result.clear();
+        double r2 = radius * radius;
+        if (child[ROOT] != EMPTY) {
+            findWithin(ROOT, px, py, r2, x, y, result);
+        }
+        for (int k = 0; k < outsideCount; k++) {
+            int b = outside[k];
+            if (distance2(px, py, x[b], y[b]) <= r2) {
+                result.add(b);
+            }
+        }
+        return result.size();
+    }
+
+    private void findWithin(int n, double px, double py, double r2,
+            double[] x, double[] y, BodyList result) {
+        if (nearest2(n, px, py) > r2) {
+            return;
+        }
+        double fx = Math.max(px - minX[n], maxX[n] - px);
+        double fy = Math.max(py - minY[n], maxY[n] - py);
+        if (fx * fx + fy * fy <= r2) {
+            addAll(n, result);
+            return;
+        }
+        int c = child[n];
+        if (c == LEAF) {
+            for (int b = leafBody[n]; b != NO_BODY; b = nextBody[b]) {
+                if (distance2(px, py, x[b], y[b]) <= r2) {
+                    result.add(b);
+                }
+            }
+        } else if (c >= 0) {
+            for (int q = c; q < c + 4; q++) {
+                findWithin(q, px, py, r2, x, y, result);
+            }
+        }
+    }
+
+    /**
+     * Finds the k bodies nearest a point, where k is that of the collector
+     * (see findInRange).  The children of every node are visited nearest
+     * first, and nodes further away than the kth nearest body found so far
+     * are pruned.  Of bodies at the same distance, any may be found.
+     * @param px the x-coordinate of the point
+     * @param py the y-coordinate of the point
+     * @param exclude the index of a body to leave out, such as the one at
+     * the point, or -1 to leave out none
+     * @param x the x-coordinates the tree was built or updated from
+     * @param y the y-coordinates the tree was built or updated from
+     * @param result the collector to clear and fill with the nearest bodies,
+     * nearest first
+     * @return the number of bodies found, which is less than k only if the
+     * tree holds fewer bodies
+     */
+    public int findNearest(double px, double py, int exclude,
+            double[] x, double[] y, NearestBodies result) {
+        checkQueryable();
+        result.clear();
+        for (int k = 0; k < outsideCount; k++) {
+            int b = outside[k];
+            if (b != exclude) {
+                result.offer(b, distance2(px, py, x[b], y[b]));
+            }
+        }
+        if (child[ROOT] != EMPTY) {
+            findNearest(ROOT, px, py, exclude, x, y, result);
+        }
+        result.sort();
+        return result.size();
+    }
+
+    private void findNearest(int n, double px, double py, int exclude,
+            double[] x, double[] y, NearestBodies result) {
+        int c = child[n];
+        if (c == LEAF) {
+            for (int b = leafBody[n]; b != NO_BODY; b = nextBody[b]) {
+                double d2 = distance2(px, py, x[b], y[b]);
+                if (b != exclude && d2 < result.bound()) {
+                    result.offer(b, d2);
+                }
+            }
+        } else if (c >= 0) {
+            // Sort the children by their distance from the point, on the
+            // stack, with an insertion sort.
+            int q0 = c;
+            int q1 = c + 1;
+            int q2 = c + 2;
+            int q3 = c + 3;
+            double d0 = nearest2(q0, px, py);
+            double d1 = nearest2(q1, px, py);
+            double d2 = nearest2(q2, px, py);
+            double d3 = nearest2(q3, px, py);
+            if (d1 < d0) { int t = q0; q0 = q1; q1 = t; double u = d0; d0 = d1; d1 = u; }
+            if (d3 < d2) { int t = q2; q2 = q3; q3 = t; double u = d2; d2 = d3; d3 = u; }
+            if (d2 < d0) { int t = q0; q0 = q2; q2 = t; double u = d0; d0 = d2; d2 = u; }
+            if (d3 < d1) { int t = q1; q1 = q3; q3 = t; double u = d1; d1 = d3; d3 = u; }
+            if (d2 < d1) { int t = q1; q1 = q2; q2 = t; double u = d1; d1 = d2; d2 = u; }
+            if (d0 < result.bound()) {
+                findNearest(q0, px, py, exclude, x, y, result);
+            }
+            if (d1 < result.bound()) {
+                findNearest(q1, px, py, exclude, x, y, result);
+            }
+            if (d2 < result.bound()) {
+                findNearest(q2, px, py, exclude, x, y, result);
+            }
+            if (d3 < result.bound()) {
+                findNearest(q3, px, py, exclude, x, y, result);
+            }
+        }
+    }
+
+    /** Adds every body held by the subtree rooted at node n. */
+    private void addAll(int n, BodyList result) {
+        int c = child[n];
+        if (c == LEAF) {
+            for (int b = leafBody[n]; b != NO_BODY; b = nextBody[b]) {
+                result.add(b);
+            }
+        } else if (c >= 0) {
+            for (int q = c; q < c + 4; q++) {
+                addAll(q, result);
+            }
+        }
+    }
+
+    /** @return the square of the distance from the given point to the
+     *  nearest point of the bounding box of node n */
+    private double nearest2(int n, double px, double py) {
+        double dx = Math.max(0.0, Math.max(minX[n] - px, px - maxX[n]));
+        double dy = Math.max(0.0, Math.max(minY[n] - py, py - maxY[n]));
+        return dx * dx + dy * dy;
+    }
+
+    private static double distance2(double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        return dx * dx + dy * dy;
+    }
+
+    private void checkQueryable() {
+        if (trackedBodies < 0) {
+            throw new IllegalStateException("The tree was not made by build");
+        }
+    }
+
+    /**
+     * Adds the acceleration on the given point according to the tree to the
+     * ith slots of ax and ay, following the rules given in the Node
+     * interface.  Allocates nothing and only reads the tree, so it may be
+     * called from several threads at once.
+     * @param px the x-coordinate of the point
+     * @param py the y-coordinate of the point
+     * @param thresh the threshold distance below which centroids are opened
+     * @param ax the x-components of the accumulated accelerations
+     * @param ay the y-components of the accumulated accelerations
+     * @param i the slot of ax and ay to accumulate into
+     */
+    public void accumulateAcceleration(double px, double py, double thresh,
+            double[] ax, double[] ay, int i) {
+        accumulate(ROOT, px, py, thresh, ax, ay, i);
+    }
+
+    private void accumulate(int n, double px, double py, double thresh,
+            double[] ax, double[] ay, int i) {
+        int c = child[n];
+        if (c == LEAF) {
+            Physics.accumulateAccelerationOn(px, py, mass[n], comX[n], comY[n], ax, ay, i);
+        } else if (c >= 0) {
+            double dx = comX[n] - px;
+            double dy = comY[n] - py;
+            if (Math.sqrt(dx * dx + dy * dy) < thresh || contains(n, px, py)) {
+                accumulate(c, px, py, thresh, ax, ay, i);
+                accumulate(c + 1, px, py, thresh, ax, ay, i);
+                accumulate(c + 2, px, py, thresh, ax, ay, i);
+                accumulate(c + 3, px, py, thresh, ax, ay, i);
+            } else {
+                Physics.accumulateAccelerationOn(px, py, mass[n], comX[n], comY[n], ax, ay, i);
+            }
+        }
+    }
+
+    /**
+     * Turns leaf n into a centroid node whose only body is the one the leaf
+     * held.  The centroid of n is therefore unchanged.
+     */
+    private void split(int n) {
+        int c = allocateChildren(n);
+        int q = c + quadrantOf(n, comX[n], comY[n]);
+        child[q] = LEAF;
+        mass[q] = mass[n];
+        comX[q] = comX[n];
+        comY[q] = comY[n];
+        moveBodies(n, q);
+        child[n] = c;
+    }
+
+    /** Moves the bodies held by leaf from to leaf to. */
+    private void moveBodies(int from, int to) {
+        leafBody[to] = leafBody[from];
+        leafBody[from] = NO_BODY;
+        for (int b = leafBody[to]; b != NO_BODY; b = nextBody[b]) {
+            leafOf[b] = to;
+        }
+    }
+
+    /**
+     * Allocates four empty children for node n, bounded by the quadrants of
+     * n's bounding box, and returns the index of the first.
+     */
+    private int allocateChildren(int n) {
+        if (size + 4 > child.length) {
+            grow(size + 4);
+        }
+        int c = size;
+        size += 4;
+        double mx = (minX[n] + maxX[n]) / 2;
+        double my = (minY[n] + maxY[n]) / 2;
+        setBounds(c, minX[n], minY[n], mx, my);
+        setBounds(c + 1, mx, minY[n], maxX[n], my);
+        setBounds(c + 2, minX[n], my, mx, maxY[n]);
+        setBounds(c + 3, mx, my, maxX[n], maxY[n]);
+        for (int q = c; q < c + 4; q++) {
+            child[q] = EMPTY;
+            parent[q] = n;
+            leafBody[q] = NO_BODY;
+            mass[q] = 0.0;
+        }
+        return c;
+    }
+
+    private void setBounds(int n, double x0, double y0, double x1, double y1) {
+        minX[n] = x0;
+        minY[n] = y0;
+        maxX[n] = x1;
+        maxY[n] = y1;
+    }
+
+    /**
+     * @return the offset of the child of n containing the given point, which
+     * matches the ordinal of the Quadrant BoundingBox.quadrantOf would give.
+     */
+    private int quadrantOf(int n, double x, double y) {
+        double mx = (minX[n] + maxX[n]) / 2;
+        double my = (minY[n] + maxY[n]) / 2;
+        if (x <= mx && y <= my) {
+            return 0;
+        } else if (x > mx && y <= my) {
+            return 1;
+        } else if (x <= mx && y > my) {
+            return 2;
+        } else if (x > mx && y > my) {
+            return 3;
+        } else {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private boolean contains(int n, double x, double y) {
+        return minX[n] <= x && x <= maxX[n] && minY[n] <= y && y <= maxY[n];
+    }
+
+    private static boolean samePoint(double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        return dx * dx + dy * dy < Physics.EPSILON;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, child.length * 2);
+        child = Arrays.copyOf(child, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        leafBody = Arrays.copyOf(leafBody, capacity);
+        count = Arrays.copyOf(count, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        comX = Arrays.copyOf(comX, capacity);
+        comY = Arrays.copyOf(comY, capacity);
+        minX = Arrays.copyOf(minX, capacity);
+        minY = Arrays.copyOf(minY, capacity);
+        maxX = Arrays.copyOf(maxX, capacity);
+        maxY = Arrays.copyOf(maxY, capacity);
+    }
+}
@@ -0,0 +1,294 @@
+package edu.grinnell.celestialvisualizer.quadtree;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.physics.Physics;
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.Point;
+import edu.grinnell.celestialvisualizer.util.Vector2d;
+
+public class FlatQuadTreeTest {
+
+    @Test
+    public void testFlatQuadTreeLookup() {
+        Point p = new Point(1.0, 1.0);
+        BoundingBox bb = new BoundingBox(0.0, 0.0, 4.0, 4.0);
+        FlatQuadTree qtree = new FlatQuadTree();
+        assertEquals(false, qtree.lookup(p, bb));
+
+        qtree.insert(10000000.0, p, bb);
+        assertEquals(true, qtree.lookup(p, bb));
+        assertEquals(false, qtree.lookup(new Point(3.0, 3.0), bb));
+    }
+
+    @Test
+    public void testFlatQuadTreeAccel() {
+        Point p = new Point(1.0, 1.0);
+        BoundingBox bb = new BoundingBox(0.0, 0.0, 4.0, 4.0);
+        FlatQuadTree qtree = new FlatQuadTree();
+        assertEquals(Vector2d.zero, qtree.calculateAcceleration(p, bb, 0.0));
+
+        qtree.insert(10000000.0, new Point(2.0, 3.0), bb);
+        p = new Point (2.0, 2.0);
+        assertEquals(new Vector2d(0.0, 0.000667428), qtree.calculateAcceleration(p, bb, 0.0));
+    }
+
+    @Test
+    public void testFlatQuadTreeMatchesQuadTree() {
+        BoundingBox bb = new BoundingBox(-1.0e9, -1.0e9, 1.0e9, 1.0e9);
+        Random random = new Random(207);
+        QuadTree expected = new QuadTree();
+        FlatQuadTree actual = new FlatQuadTree();
+        Point[] points = new Point[500];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new Point(random.nextGaussian() * 1.0e8, random.nextGaussian() * 1.0e8);
+            double mass = 1.0e20 * (1 + random.nextInt(10));
+            expected.insert(mass, points[i], bb);
+            actual.insert(mass, points[i], bb);
+        }
+        for (Point p : points) {
+            assertTrue(actual.lookup(p, bb));
+            for (double thresh : new double[] { 0.0, 1.0e7, 1.0e8 }) {
+                Vector2d e = expected.calculateAcceleration(p, bb, thresh);
+                Vector2d a = actual.calculateAcceleration(p, bb, thresh);
+                assertEquals(e.getX(), a.getX(), Math.abs(e.getX()) * 1e-9);
+                assertEquals(e.getY(), a.getY(), Math.abs(e.getY()) * 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testBuildMatchesInsert() {
+        BoundingBox bb = new BoundingBox(0.0, 0.0, 4.0, 4.0);
+        Random random = new Random(207);
+        int n = 20000;
+        double[] mass = new double[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        FlatQuadTree inserted = new FlatQuadTree();
+        for (int i = 0; i < n; i++) {
+            mass[i] = 1 + random.nextInt(10);
+            // Bodies sit on a lattice, so many land on quadrant boundaries
+            // or on top of one another, but distinct bodies are never
+            // closer than Physics.EPSILON.
+            x[i] = random.nextInt(257) / 64.0;
+            y[i] = random.nextInt(257) / 64.0;
+            inserted.insert(mass[i], new Point(x[i], y[i]), bb);
+        }
+        FlatQuadTree built = new FlatQuadTree();
+        built.build(mass, x, y, n, bb, ForkJoinPool.commonPool());
+
+        assertEquals(inserted.getNodeCount(), built.getNodeCount());
+        for (int i = 0; i < n; i += 97) {
+            Point p = new Point(x[i], y[i]);
+            assertTrue(built.lookup(p, bb));
+            Vector2d e = inserted.calculateAcceleration(p, bb, 0.5);
+            Vector2d a = built.calculateAcceleration(p, bb, 0.5);
+            assertEquals(e.getX(), a.getX(), Math.abs(e.getX()) * 1e-9);
+            assertEquals(e.getY(), a.getY(), Math.abs(e.getY()) * 1e-9);
+        }
+    }
+
+    @Test
+    public void testUpdateMatchesBuild() {
+        BoundingBox bb = new BoundingBox(-1.0e9, -1.0e9, 1.0e9, 1.0e9);
+        Random random = new Random(207);
+        int n = 2000;
+        double[] mass = new double[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            mass[i] = 1.0e20 * (1 + random.nextInt(10));
+            x[i] = random.nextGaussian() * 1.0e8;
+            y[i] = random.nextGaussian() * 1.0e8;
+        }
+        FlatQuadTree updated = new FlatQuadTree();
+        updated.build(mass, x, y, n, bb, null);
+        updated.setRebuildThreshold(1.0);
+        FlatQuadTree built = new FlatQuadTree();
+        for (int step = 0; step < 20; step++) {
+            for (int i = 0; i < n; i++) {
+                x[i] += random.nextGaussian() * 1.0e6;
+                y[i] += random.nextGaussian() * 1.0e6;
+            }
+            assertTrue(updated.update(mass, x, y, n, null));
+            built.build(mass, x, y, n, bb, null);
+            for (int i = 0; i < n; i += 37) {
+                Point p = new Point(x[i], y[i]);
+                assertTrue(updated.lookup(p, bb));
+                Vector2d e = built.calculateAcceleration(p, bb, 1.0e7);
+                Vector2d a = updated.calculateAcceleration(p, bb, 1.0e7);
+                assertEquals(e.getX(), a.getX(), Math.abs(e.getX()) * 1e-9);
+                assertEquals(e.getY(), a.getY(), Math.abs(e.getY()) * 1e-9);
+            }
+        }
+        assertTrue(updated.getRelocatedCount() > 0);
+        assertTrue(updated.getDeadNodeCount() > 0);
+
+        updated.setRebuildThreshold(0.0);
+        assertFalse(updated.update(mass, x, y, n, null));
+        assertEquals(0, updated.getDeadNodeCount());
+        assertEquals(built.getNodeCount(), updated.getNodeCount());
+    }
+
+    @Test
+    public void testBarnesHutTheta() {
+        BoundingBox bb = new BoundingBox(-1.0e9, -1.0e9, 1.0e9, 1.0e9);
+        Random random = new Random(207);
+        int n = 3000;
+        double[] mass = new double[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            mass[i] = 1.0e20 * (1 + random.nextInt(10));
+            x[i] = random.nextGaussian() * 1.0e8;
+            y[i] = random.nextGaussian() * 1.0e8;
+        }
+        FlatQuadTree qtree = new FlatQuadTree();
+        qtree.build(mass, x, y, n, bb, null);
+
+        double error = 0.0;
+        double total = 0.0;
+        for (int i = 0; i < n; i += 101) {
+            double[] ax = new double[3];
+            double[] ay = new double[3];
+            Physics.accumulateAccelerationOn(x[i], y[i], mass, x, y, 0, n, ax, ay, 0);
+
+            // Opening every node visits every body.
+            assertEquals(n, qtree.accumulateBarnesHutAcceleration(x[i], y[i], 0.0, ax, ay, 1));
+            assertEquals(ax[0], ax[1], Math.abs(ax[0]) * 1e-9);
+            assertEquals(ay[0], ay[1], Math.abs(ay[0]) * 1e-9);
+
+            // A larger angle visits far fewer nodes for a small error.
+            int count = qtree.accumulateBarnesHutAcceleration(x[i], y[i], 0.5, ax, ay, 2);
+            assertTrue(count < n / 4);
+            error += (ax[2] - ax[0]) * (ax[2] - ax[0]) + (ay[2] - ay[0]) * (ay[2] - ay[0]);
+            total += ax[0] * ax[0] + ay[0] * ay[0];
+        }
+        assertTrue(Math.sqrt(error / total) < 0.01);
+    }
+
+    @Test
+    public void testBodiesOutsideRoot() {
+        BoundingBox bb = new BoundingBox(0.0, 0.0, 4.0, 4.0);
+        double[] mass = { 1.0, 2.0, 3.0, 4.0 };
+        double[] x = { 1.0, 3.0, 9.0, 2.5 };
+        double[] y = { 1.0, 1.0, 1.0, -7.0 };
+        FlatQuadTree qtree = new FlatQuadTree();
+        qtree.build(mass, x, y, 4, bb, null);
+        assertEquals(2, qtree.getOutsideCount());
+        assertFalse(qtree.lookup(new Point(x[2], y[2]), bb));
+
+        // Body 2 comes back in and body 0 leaves.
+        x[2] = 3.5;
+        x[0] = -1.0;
+        qtree.update(mass, x, y, 4, null);
+        assertEquals(2, qtree.getOutsideCount());
+        assertEquals(0, qtree.getOutsideBodies()[0]);
+        assertEquals(3, qtree.getOutsideBodies()[1]);
+        assertTrue(qtree.lookup(new Point(x[2], y[2]), bb));
+        assertFalse(qtree.lookup(new Point(x[0], y[0]), bb));
+
+        double[] ax = new double[2];
+        double[] ay = new double[2];
+        double[] inX = { x[1], x[2] };
+        double[] inY = { y[1], y[2] };
+        double[] inMass = { mass[1], mass[2] };
+        assertEquals(2, qtree.accumulateBarnesHutAcceleration(2.0, 2.0, 0.0, ax, ay, 0));
+        Physics.accumulateAccelerationOn(2.0, 2.0, inMass, inX, inY, 0, 2, ax, ay, 1);
+        assertEquals(ax[1], ax[0], Math.abs(ax[1]) * 1e-12);
+        assertEquals(ay[1], ay[0], Math.abs(ay[1]) * 1e-12);
+    }
+
+    @Test
+    public void testFlatQuadTreeReuse() {
+        BoundingBox bb = new BoundingBox(0.0, 0.0, 4.0, 4.0);
+        FlatQuadTree qtree = new FlatQuadTree();
+        qtree.insert(1.0, new Point(1.5, 2.5), bb);
+        qtree.insert(1.0, new Point(2.1, 2.1), bb);
+        qtree.insert(2.0, new Point(1.0, 1.0), bb);
+        qtree.insert(1.0, new Point(2.6, 2.8), bb);
+        int nodes = qtree.getNodeCount();
+
+        qtree.clear(bb);
+        assertEquals(1, qtree.getNodeCount());
+        assertFalse(qtree.lookup(new Point(1.0, 1.0), bb));
+
+        qtree.insert(1.0, new Point(1.5, 2.5), bb);
+        qtree.insert(1.0, new Point(2.1, 2.1), bb);
+        qtree.insert(2.0, new Point(1.0, 1.0), bb);
+        qtree.insert(1.0, new Point(2.6, 2.8), bb);
+        assertEquals(nodes, qtree.getNodeCount());
+        assertTrue(qtree.lookup(new Point(2.6, 2.8), bb));
+    }
+
+    @Test
+    public void testQueriesMatchBruteForce() {
+        Random random = new Random(11);
+        int n = 2000;
+        double[] mass = new double[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            mass[i] = 1.0;
+            // A few bodies land outside the root, and some share a point.
+            x[i] = i % 50 == 7 ? x[i - 1] : random.nextGaussian() * 100.0;
+            y[i] = i % 50 == 7 ? y[i - 1] : random.nextGaussian() * 100.0;
+        }
+        FlatQuadTree qtree = new FlatQuadTree();
+        qtree.build(mass, x, y, n, new BoundingBox(-250.0, -250.0, 250.0, 250.0), null);
+        assertTrue(qtree.getOutsideCount() > 0);
+        for (int i = 0; i < n; i += 3) {
+            x[i] += random.nextGaussian() * 20.0;
+        }
+        qtree.update(mass, x, y, n, null);
+
+        BodyList found = new BodyList(1);
+        NearestBodies nearest = new NearestBodies(5);
+        double[] d2 = new double[n];
+        for (int t = 0; t < 50; t++) {
+            double px = random.nextGaussian() * 150.0;
+            double py = random.nextGaussian() * 150.0;
+            double r = random.nextDouble() * 80.0;
+            int inBox = 0;
+            int inCircle = 0;
+            for (int i = 0; i < n; i++) {
+                d2[i] = (x[i] - px) * (x[i] - px) + (y[i] - py) * (y[i] - py);
+                if (Math.abs(x[i] - px) <= r && Math.abs(y[i] - py) <= r) {
+                    inBox++;
+                }
+                if (d2[i] <= r * r) {
+                    inCircle++;
+                }
+            }
+            assertEquals(inBox, qtree.findInRange(px - r, py - r, px + r, py + r, x, y, found));
+            for (int k = 0; k < found.size(); k++) {
+                int b = found.get(k);
+                assertTrue(Math.abs(x[b] - px) <= r && Math.abs(y[b] - py) <= r);
+            }
+            assertEquals(inCircle, qtree.findWithin(px, py, r, x, y, found));
+            for (int b : found.toArray()) {
+                assertTrue(d2[b] <= r * r);
+            }
+
+            // The query point is that of body t, which is left out.
+            for (int i = 0; i < n; i++) {
+                d2[i] = (x[i] - x[t]) * (x[i] - x[t]) + (y[i] - y[t]) * (y[i] - y[t]);
+            }
+            double[] sorted = d2.clone();
+            sorted[t] = Double.POSITIVE_INFINITY;
+            Arrays.sort(sorted);
+            assertEquals(5, qtree.findNearest(x[t], y[t], t, x, y, nearest));
+            for (int k = 0; k < 5; k++) {
+                assertNotEquals(t, nearest.get(k));
+                assertEquals(Math.sqrt(sorted[k]), nearest.getDistance(k), 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package edu.grinnell.celestialvisualizer.quadtree;
+
+/**
+ * A NearestBodies collects the k bodies nearest a point found by
+ * FlatQuadTree.findNearest, with their distances.  While the query runs the
+ * bodies are kept in a max-heap on distance, so that the furthest of them
+ * can be replaced as nearer ones are found, and once it is done they are
+ * sorted nearest first.  The arrays are allocated once, so a collector
+ * reused across queries allocates nothing.
+ */
+public class NearestBodies {
+
+    private final int[] bodies;
+    private final double[] distances2;
+    private int size;
+
+    /**
+     * Constructs a collector of the given number of nearest bodies.
+     * @param k the number of bodies to collect, at least 1
+     */
+    public NearestBodies(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.bodies = new int[k];
+        this.distances2 = new double[k];
+    }
+
+    /** @return the number of bodies collected at most */
+    public int getK() { return bodies.length; }
+
+    /** @return the number of bodies collected, which is less than k only
+     *  if the tree holds fewer bodies */
+    public int size() { return size; }
+
+    /** @return the index of the kth nearest body, counting from 0 */
+    public int get(int k) {
+        checkIndex(k);
+        return bodies[k];
+    }
+
+    /** @return the distance to the kth nearest body, counting from 0 */
+    public double getDistance(int k) {
+        checkIndex(k);
+        return Math.sqrt(distances2[k]);
+    }
+
+    private void checkIndex(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("No body " + k + " of " + size);
+        }
+    }
+
+    /** Removes every body from the collector. */
+    void clear() { size = 0; }
+
+    /** @return the square of the distance a body must beat to be
+     *  collected */
+    double bound() {
+        return size < bodies.length ? Double.POSITIVE_INFINITY : distances2[0];
+    }
+
+    /**
+     * Collects the given body if it is nearer than the furthest collected so
+     * far, or if fewer than k have been collected.
+     * @param body the index of the body
+     * @param d2 the square of its distance from the point
+     */
+    void offer(int body, double d2) {
+        if (size < bodies.length) {
+            // Sift the new body up from the end of the heap.
+            int k = size++;
+            while (k > 0) {
+                int p = (k - 1) / 2;
+                if (distances2[p] >= d2) {
+                    break;
+                }
+                bodies[k] = bodies[p];
+                distances2[k] = distances2[p];
+                k = p;
+            }
+            bodies[k] = body;
+            distances2[k] = d2;
+        } else if (d2 < distances2[0]) {
+            siftDown(body, d2, size);
+        }
+    }
+
+    /** Puts the given body at the top of the first end slots of the heap
+     *  and sifts it down. */
+    private void siftDown(int body, double d2, int end) {
+        int k = 0;
+        while (true) {
+            int c = 2 * k + 1;
+            if (c >= end) {
+                break;
+            }
+            if (c + 1 < end && distances2[c + 1] > distances2[c]) {
+                c++;
+            }
+            if (distances2[c] <= d2) {
+                break;
+            }
+            bodies[k] = bodies[c];
+            distances2[k] = distances2[c];
+            k = c;
+        }
+        bodies[k] = body;
+        distances2[k] = d2;
+    }
+
+    /** Sorts the heap nearest first, by repeatedly moving the furthest
+     *  body to the end. */
+    void sort() {
+        for (int end = size - 1; end > 0; end--) {
+            int body = bodies[end];
+            double d2 = distances2[end];
+            bodies[end] = bodies[0];
+            distances2[end] = distances2[0];
+            siftDown(body, d2, end);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package edu.grinnell.celestialvisualizer.simulation;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.grinnell.celestialvisualizer.physics.NBody;
+import edu.grinnell.celestialvisualizer.solver.GravitySolver;
+
+/**
+ * A SimulationThread advances an NBody simulation on a thread of its own
+ * and publishes a snapshot of the bodies after every step to a
+ * SnapshotExchange, from which a renderer can take the latest one at its
+ * own pace.  The simulation is never made to wait for the renderer.
+ *
+ * Every snapshot carries the step count and time of the simulation, so a
+ * simulation restarted from a checkpoint goes on from where it was.
+ *
+ * By default the thread steps as fast as it can; setTargetRate limits it
+ * to a number of steps per second.  While the thread runs it owns the
+ * simulation: other threads must read the bodies through the snapshots,
+ * not through the simulation itself.
+ */
+public class SimulationThread {
+
+    private final NBody model;
+    private final GravitySolver solver;
+    private final double elapsedTime;
+    private final SnapshotExchange snapshots = new SnapshotExchange();
+
+    private volatile double targetRate;
+    private volatile boolean running;
+    // The step count of the simulation as of the last snapshot, for other
+    // threads to read.
+    private volatile long publishedStep;
+    private Thread thread;
+
+    /**
+     * Constructs a thread to advance the given simulation, and publishes a
+     * snapshot of its starting state.
+     * @param model the simulation to advance
+     * @param solver the solver to calculate the accelerations with
+     * @param elapsedTime the time step of the simulation
+     */
+    public SimulationThread(NBody model, GravitySolver solver, double elapsedTime) {
+        if (!(elapsedTime > 0)) {
+            throw new IllegalArgumentException("Time step must be positive: " + elapsedTime);
+        }
+        this.model = model;
+        this.solver = solver;
+        this.elapsedTime = elapsedTime;
+        publish();
+    }
+
+    /** @return the exchange the snapshots are published to */
+    public SnapshotExchange getSnapshots() { return snapshots; }
+
+    /** @return the step count of the simulation as of the last snapshot
+     *  published */
+    public long getStepCount() { return publishedStep; }
+
+    /** @return the steps per second aimed for, or 0 if unlimited */
+    public double getTargetRate() { return targetRate; }
+
+    /**
+     * Sets the number of steps per second to aim for.  May be called while
+     * the thread is running.
+     * @param stepsPerSecond the rate, or 0 to step as fast as possible
+     * @return this thread
+     */
+    public SimulationThread setTargetRate(double stepsPerSecond) {
+        if (!(stepsPerSecond >= 0)) {
+            throw new IllegalArgumentException("Rate must not be negative: " + stepsPerSecond);
+        }
+        this.targetRate = stepsPerSecond;
+        return this;
+    }
+
+    /** @return true if the thread has been started and not stopped */
+    public boolean isRunning() { return running; }
+
+    /** Starts advancing the simulation. */
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Simulation is already running");
+        }
+        running = true;
+        thread = new Thread(this::run, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops advancing the simulation, and waits for the step in progress
+     * to finish.  Once this returns the simulation may be used by the
+     * calling thread again.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+        thread = null;
+    }
+
+    /** Publishes a snapshot of the simulation as it is now. */
+    private void publish() {
+        snapshots.publish(model.getStore(), model.getStepCount(), model.getTime());
+        publishedStep = model.getStepCount();
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (running) {
+            model.update(elapsedTime, solver);
+            publish();
+
+            double rate = targetRate;
+            if (rate > 0) {
+                // Aim at a fixed schedule so that the rate does not drift,
+                // but do not try to catch up on steps that ran late.
+                next += (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+                long now = System.nanoTime();
+                if (next - now < 0) {
+                    next = now;
+                }
+                while (running && next - now > 0) {
+                    LockSupport.parkNanos(next - now);
+                    now = System.nanoTime();
+                }
+            } else {
+                next = System.nanoTime();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package edu.grinnell.celestialvisualizer.simulation;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+
+/**
+ * A Snapshot holds the masses and positions of the bodies of a simulation
+ * as they were after a particular step.  Snapshots are handed from the
+ * simulation to its readers through a SnapshotExchange, and do not change
+ * while a reader holds them.
+ *
+ * The ith body of a snapshot is the ith body of the store it was taken
+ * from; getId(i) gives its id, which does not change when the store is
+ * reordered.
+ */
+public class Snapshot {
+
+    private int size;
+    private long step;
+    private double time;
+    private double[] mass = new double[0];
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private int[] id = new int[0];
+
+    /** Constructs an empty snapshot, to be filled in by copyFrom. */
+    Snapshot() { }
+
+    /** @return the number of bodies in the snapshot */
+    public int size() { return size; }
+
+    /** @return the number of steps the simulation had taken */
+    public long getStep() { return step; }
+
+    /** @return the simulated time that had passed */
+    public double getTime() { return time; }
+
+    /** @return the mass of the ith body */
+    public double getMass(int i) { return mass[i]; }
+
+    /** @return the x coordinate of the ith body */
+    public double getX(int i) { return x[i]; }
+
+    /** @return the y coordinate of the ith body */
+    public double getY(int i) { return y[i]; }
+
+    /** @return the id of the ith body in the store it was taken from */
+    public int getId(int i) { return id[i]; }
+
+    /**
+     * Overwrites this snapshot with the state of the given store.  The
+     * arrays are only replaced when the store has outgrown them, so taking
+     * snapshots of a store of fixed size allocates nothing.
+     * @param store the bodies to copy
+     * @param step the number of steps the simulation has taken
+     * @param time the simulated time that has passed
+     */
+    void copyFrom(BodyStore store, long step, double time) {
+        int n = store.size();
+        if (x.length < n) {
+            mass = new double[n];
+            x = new double[n];
+            y = new double[n];
+            id = new int[n];
+        }
+        System.arraycopy(store.getMasses(), 0, mass, 0, n);
+        System.arraycopy(store.getXs(), 0, x, 0, n);
+        System.arraycopy(store.getYs(), 0, y, 0, n);
+        for (int i = 0; i < n; i++) {
+            id[i] = store.getId(i);
+        }
+        this.size = n;
+        this.step = step;
+        this.time = time;
+    }
+
+    /**
+     * Overwrites this snapshot with the given bodies, the ith of which has
+     * the id i.  As with copyFrom(store, step, time), the arrays of the
+     * snapshot are only replaced when they are too small.
+     * @param n the number of bodies
+     * @param mass the masses of the bodies
+     * @param x the x coordinates of the bodies
+     * @param y the y coordinates of the bodies
+     * @param step the number of steps the simulation had taken
+     * @param time the simulated time that had passed
+     */
+    void copyFrom(int n, double[] mass, double[] x, double[] y, long step, double time) {
+        if (this.x.length < n) {
+            this.mass = new double[n];
+            this.x = new double[n];
+            this.y = new double[n];
+            this.id = new int[n];
+        }
+        System.arraycopy(mass, 0, this.mass, 0, n);
+        System.arraycopy(x, 0, this.x, 0, n);
+        System.arraycopy(y, 0, this.y, 0, n);
+        for (int i = 0; i < n; i++) {
+            id[i] = i;
+        }
+        this.size = n;
+        this.step = step;
+        this.time = time;
+    }
+}
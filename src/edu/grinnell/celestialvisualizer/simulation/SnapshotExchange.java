@@ -0,0 +1,83 @@
+package edu.grinnell.celestialvisualizer.simulation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+
+/**
+ * A SnapshotExchange hands snapshots from one writer thread to one reader
+ * thread without either ever waiting for the other.
+ *
+ * The exchange is a triple buffer.  Of its three snapshots the writer owns
+ * one, which it fills, the reader owns one, which it reads, and the third
+ * sits in the middle.  Publishing swaps the writer's snapshot with the
+ * middle one and marks the middle as fresh; taking the latest swaps the
+ * reader's snapshot with the middle one if the middle is fresh.  Both
+ * swaps are a single atomic exchange of the index of the middle snapshot,
+ * so neither side ever blocks, the writer never waits for a slow reader,
+ * and the reader never sees a snapshot that is being written.  A reader
+ * that falls behind simply skips the snapshots it missed.
+ */
+public class SnapshotExchange {
+
+    /** The bits of the middle state holding the index of the snapshot. */
+    private static final int INDEX = 3;
+    /** The bit of the middle state set while it holds an unread snapshot. */
+    private static final int FRESH = 4;
+
+    private final Snapshot[] buffers = { new Snapshot(), new Snapshot(), new Snapshot() };
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    // Owned by the writer and the reader thread respectively.
+    private int back = 0;
+    private int front = 2;
+    private boolean published;
+
+    /**
+     * Publishes a snapshot of the given store, replacing any the reader
+     * has not yet taken.  Must only be called by the writer thread.
+     * @param store the bodies to copy
+     * @param step the number of steps the simulation has taken
+     * @param time the simulated time that has passed
+     */
+    public void publish(BodyStore store, long step, double time) {
+        buffers[back].copyFrom(store, step, time);
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Publishes a snapshot of the given bodies, the ith of which has the id
+     * i, replacing any the reader has not yet taken.  Must only be called
+     * by the writer thread.
+     * @param n the number of bodies
+     * @param mass the masses of the bodies
+     * @param x the x coordinates of the bodies
+     * @param y the y coordinates of the bodies
+     * @param step the number of steps the simulation had taken
+     * @param time the simulated time that had passed
+     */
+    public void publish(int n, double[] mass, double[] x, double[] y, long step, double time) {
+        buffers[back].copyFrom(n, mass, x, y, step, time);
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Takes the most recently published snapshot.  The snapshot returned
+     * stays unchanged until the next call, after which it may be reused for
+     * a later one.  Must only be called by the reader thread.
+     * @return the most recent snapshot, or null if none has been published
+     */
+    public Snapshot latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+            published = true;
+        }
+        return published ? buffers[front] : null;
+    }
+
+    /** @return true if a snapshot has been published that latest has not
+     *  yet returned */
+    public boolean hasFresh() {
+        return (middle.get() & FRESH) != 0;
+    }
+}
@@ -0,0 +1,97 @@
+package edu.grinnell.celestialvisualizer.simulation;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+import edu.grinnell.celestialvisualizer.solver.DirectSum;
+
+public class SnapshotExchangeTest {
+
+    @Test
+    public void testLatestSkipsToNewest() {
+        SnapshotExchange exchange = new SnapshotExchange();
+        assertNull(exchange.latest());
+        BodyStore store = new BodyStore();
+        store.add(1.0, 2.0, 3.0, 0.0, 0.0);
+        exchange.publish(store, 1, 10.0);
+        store.getXs()[0] = 5.0;
+        exchange.publish(store, 2, 20.0);
+        Snapshot s = exchange.latest();
+        assertEquals(2, s.getStep());
+        assertEquals(5.0, s.getX(0), 0.0);
+        assertFalse(exchange.hasFresh());
+        // Nothing new: the same snapshot again.
+        assertSame(s, exchange.latest());
+    }
+
+    @Test
+    public void testReaderNeverSeesTornSnapshots() throws InterruptedException {
+        int n = 1000;
+        int steps = 20000;
+        SnapshotExchange exchange = new SnapshotExchange();
+        Thread writer = new Thread(() -> {
+            BodyStore store = new BodyStore(n);
+            for (int i = 0; i < n; i++) {
+                store.add(1.0, 0.0, 0.0, 0.0, 0.0);
+            }
+            for (int step = 1; step <= steps; step++) {
+                for (int i = 0; i < n; i++) {
+                    store.getXs()[i] = step;
+                }
+                exchange.publish(store, step, step);
+            }
+        });
+        writer.start();
+        long last = 0;
+        while (last < steps) {
+            Snapshot s = exchange.latest();
+            if (s == null) {
+                continue;
+            }
+            assertTrue(s.getStep() >= last);
+            for (int i = 0; i < n; i++) {
+                assertEquals(s.getStep(), s.getX(i), 0.0);
+            }
+            last = s.getStep();
+        }
+        writer.join();
+    }
+
+    @Test
+    public void testThreadPublishesSteps() throws InterruptedException {
+        NBody model = new NBody().setPool(null);
+        model.getStore().add(1.0e30, 0.0, 0.0, 0.0, 0.0);
+        model.getStore().add(1.0e20, 1.0e9, 0.0, 0.0, 3.0e4);
+        SimulationThread runner = new SimulationThread(model, new DirectSum(), 60.0);
+        assertEquals(0, runner.getSnapshots().latest().getStep());
+        runner.start();
+        while (runner.getStepCount() < 100) {
+            Thread.sleep(1);
+        }
+        runner.stop();
+        Snapshot s = runner.getSnapshots().latest();
+        assertEquals(runner.getStepCount(), s.getStep());
+        assertEquals(model.getStore().getYs()[1], s.getY(1), 0.0);
+    }
+
+    @Test
+    public void testThreadGoesOnFromTheSimulationsStep() throws InterruptedException {
+        NBody model = new NBody().setPool(null).setStepCount(40).setTime(2400.0);
+        model.getStore().add(1.0e30, 0.0, 0.0, 0.0, 0.0);
+        model.getStore().add(1.0e20, 1.0e9, 0.0, 0.0, 3.0e4);
+        SimulationThread runner = new SimulationThread(model, new DirectSum(), 60.0);
+        assertEquals(40, runner.getSnapshots().latest().getStep());
+        assertEquals(2400.0, runner.getSnapshots().latest().getTime(), 0.0);
+        runner.start();
+        while (runner.getStepCount() < 50) {
+            Thread.sleep(1);
+        }
+        runner.stop();
+        Snapshot s = runner.getSnapshots().latest();
+        assertEquals(model.getStepCount(), s.getStep());
+        assertEquals(model.getTime(), s.getTime(), 0.0);
+    }
+}
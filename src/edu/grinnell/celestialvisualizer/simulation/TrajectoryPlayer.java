@@ -0,0 +1,315 @@
+package edu.grinnell.celestialvisualizer.simulation;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.grinnell.celestialvisualizer.io.TrajectoryReader;
+
+/**
+ * A TrajectoryPlayer plays back a recorded trajectory (see
+ * TrajectoryRecorder) on a thread of its own, publishing the bodies to a
+ * SnapshotExchange as a SimulationThread would, but reading the positions
+ * from the file instead of calculating them.
+ *
+ * The playback clock runs at a speed given in simulated seconds per second
+ * of wall time, and can be moved to any time with seek.  Between two
+ * recorded frames the positions are by default interpolated linearly, so
+ * a trajectory recorded every few steps still plays back smoothly; without
+ * interpolation the last frame at or before the clock is shown.  The
+ * frames are only read from the file as the clock reaches them, so
+ * playback costs reading the file, not recalculating it.
+ */
+public class TrajectoryPlayer {
+
+    /** The default number of snapshots published per second. */
+    public static final double DEFAULT_FRAME_RATE = 60.0;
+
+    private final TrajectoryReader reader;
+    private final int n;
+    private final double[] mass;
+    private final double startTime;
+    private final double endTime;
+    private final SnapshotExchange snapshots = new SnapshotExchange();
+
+    // The frame at or before the clock, the frame after it (or -1 at the
+    // end), and the positions published between them.
+    private double[] fromX;
+    private double[] fromY;
+    private double[] toX;
+    private double[] toY;
+    private final double[] outX;
+    private final double[] outY;
+    private int fromFrame;
+    private int toFrame;
+
+    private volatile double speed;
+    private volatile boolean interpolating = true;
+    private volatile double frameRate = DEFAULT_FRAME_RATE;
+    private volatile double time;
+    private volatile boolean running;
+    private volatile double pendingSeek = Double.NaN;
+    private IOException failure;
+    private Thread thread;
+
+    /**
+     * Constructs a player of the trajectory of the given reader, and
+     * publishes a snapshot of its first frame.  The player reads from the
+     * reader while it runs, and does not close it.
+     * @param reader the trajectory to play
+     * @throws IOException if the first frames cannot be read
+     */
+    public TrajectoryPlayer(TrajectoryReader reader) throws IOException {
+        if (reader.getFrameCount() == 0) {
+            throw new IllegalArgumentException("Trajectory has no frames");
+        }
+        this.reader = reader;
+        this.n = reader.getBodyCount();
+        this.mass = new double[n];
+        for (int id = 0; id < n; id++) {
+            mass[id] = reader.getMass(id);
+        }
+        this.startTime = reader.getTime(0);
+        this.endTime = reader.getTime(reader.getFrameCount() - 1);
+        fromX = new double[n];
+        fromY = new double[n];
+        toX = new double[n];
+        toY = new double[n];
+        outX = new double[n];
+        outY = new double[n];
+        time = startTime;
+        load(0);
+        publish();
+    }
+
+    /** @return the exchange the snapshots are published to */
+    public SnapshotExchange getSnapshots() { return snapshots; }
+
+    /** @return the simulated time of the first frame */
+    public double getStartTime() { return startTime; }
+
+    /** @return the simulated time of the last frame */
+    public double getEndTime() { return endTime; }
+
+    /** @return the simulated time of the playback clock */
+    public double getTime() { return time; }
+
+    /** @return the simulated seconds played per second */
+    public double getSpeed() { return speed; }
+
+    /**
+     * Sets the speed of the playback clock.  May be called while the player
+     * is running.  By default the speed is 0, that is paused.
+     * @param simulatedSecondsPerSecond the speed, or 0 to pause
+     * @return this player
+     */
+    public TrajectoryPlayer setSpeed(double simulatedSecondsPerSecond) {
+        if (!(simulatedSecondsPerSecond >= 0) || Double.isInfinite(simulatedSecondsPerSecond)) {
+            throw new IllegalArgumentException("Speed must not be negative: "
+                    + simulatedSecondsPerSecond);
+        }
+        this.speed = simulatedSecondsPerSecond;
+        return this;
+    }
+
+    /** @return true if positions between frames are interpolated */
+    public boolean isInterpolating() { return interpolating; }
+
+    /**
+     * Sets whether to interpolate the positions between frames.  May be
+     * called while the player is running, and takes effect at its next
+     * snapshot, even while it is paused.
+     * @param interpolating true to interpolate
+     * @return this player
+     */
+    public synchronized TrajectoryPlayer setInterpolating(boolean interpolating) {
+        this.interpolating = interpolating;
+        // Seek to where the clock is, so the current time is published
+        // again with the new setting.
+        if (Double.isNaN(pendingSeek)) {
+            pendingSeek = time;
+        }
+        LockSupport.unpark(thread);
+        return this;
+    }
+
+    /** @return the number of snapshots published per second */
+    public double getFrameRate() { return frameRate; }
+
+    /**
+     * Sets the number of snapshots to publish per second.
+     * @param framesPerSecond the rate
+     * @return this player
+     */
+    public TrajectoryPlayer setFrameRate(double framesPerSecond) {
+        if (!(framesPerSecond > 0) || Double.isInfinite(framesPerSecond)) {
+            throw new IllegalArgumentException("Frame rate must be positive: " + framesPerSecond);
+        }
+        this.frameRate = framesPerSecond;
+        return this;
+    }
+
+    /**
+     * Moves the playback clock to the given time, which is clamped to the
+     * times of the first and last frames.  May be called while the player
+     * is running, and takes effect at its next snapshot.
+     * @param time the simulated time to move to
+     */
+    public synchronized void seek(double time) {
+        if (Double.isNaN(time)) {
+            throw new IllegalArgumentException("Time must be a number");
+        }
+        pendingSeek = time;
+        LockSupport.unpark(thread);
+    }
+
+    /** @return true if the clock has reached the last frame */
+    public boolean isFinished() { return time >= endTime; }
+
+    /** @return true if the player has been started and not stopped */
+    public boolean isRunning() { return running; }
+
+    /** Starts playing the trajectory. */
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Player is already running");
+        }
+        running = true;
+        thread = new Thread(this::run, "playback");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops playing the trajectory, and waits for the snapshot in progress
+     * to be published.  Once this returns the reader may be used by the
+     * calling thread again.
+     * @throws IOException if the player stopped because the trajectory
+     * could not be read
+     */
+    public void stop() throws InterruptedException, IOException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            if (t == null) {
+                return;
+            }
+            running = false;
+            LockSupport.unpark(t);
+        }
+        t.join();
+        synchronized (this) {
+            thread = null;
+            if (failure != null) {
+                IOException e = failure;
+                failure = null;
+                throw e;
+            }
+        }
+    }
+
+    /** @return the seek asked for since the last call, or NaN if none */
+    private synchronized double takeSeek() {
+        double target = pendingSeek;
+        pendingSeek = Double.NaN;
+        return target;
+    }
+
+    private synchronized void fail(IOException e) {
+        failure = e;
+        running = false;
+    }
+
+    private void run() {
+        long last = System.nanoTime();
+        long next = last;
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                double target = takeSeek();
+                double previous = time;
+                double t = Double.isNaN(target)
+                        ? previous + speed * (now - last) / TimeUnit.SECONDS.toNanos(1)
+                        : target;
+                last = now;
+                t = Math.max(startTime, Math.min(endTime, t));
+                if (t != previous || !Double.isNaN(target)) {
+                    time = t;
+                    advance();
+                    publish();
+                }
+
+                next += (long) (TimeUnit.SECONDS.toNanos(1) / frameRate);
+                now = System.nanoTime();
+                if (next - now < 0) {
+                    next = now;
+                }
+                while (running && next - now > 0 && Double.isNaN(pendingSeek)) {
+                    LockSupport.parkNanos(next - now);
+                    now = System.nanoTime();
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Makes the current frames the ones around the playback clock. */
+    private void advance() throws IOException {
+        int k = Math.max(0, reader.frameAt(time));
+        if (k == fromFrame) {
+            return;
+        }
+        if (k == toFrame) {
+            // Step forward one frame, keeping the frame already read.
+            double[] swap = fromX;
+            fromX = toX;
+            toX = swap;
+            swap = fromY;
+            fromY = toY;
+            toY = swap;
+            fromFrame = k;
+            readTo(k + 1);
+        } else {
+            load(k);
+        }
+    }
+
+    /** Reads the given frame and the one after it. */
+    private void load(int k) throws IOException {
+        reader.read(k);
+        System.arraycopy(reader.getXs(), 0, fromX, 0, n);
+        System.arraycopy(reader.getYs(), 0, fromY, 0, n);
+        fromFrame = k;
+        readTo(k + 1);
+    }
+
+    /** Reads the given frame as the next frame, if there is one. */
+    private void readTo(int k) throws IOException {
+        if (k < reader.getFrameCount()) {
+            reader.read(k);
+            System.arraycopy(reader.getXs(), 0, toX, 0, n);
+            System.arraycopy(reader.getYs(), 0, toY, 0, n);
+            toFrame = k;
+        } else {
+            toFrame = -1;
+        }
+    }
+
+    /** Publishes the positions at the playback clock. */
+    private void publish() {
+        long step = reader.getStep(fromFrame);
+        if (!interpolating || toFrame < 0) {
+            snapshots.publish(n, mass, fromX, fromY, step, time);
+            return;
+        }
+        double t0 = reader.getTime(fromFrame);
+        double t1 = reader.getTime(toFrame);
+        double f = t1 > t0 ? (time - t0) / (t1 - t0) : 0.0;
+        for (int id = 0; id < n; id++) {
+            outX[id] = fromX[id] + f * (toX[id] - fromX[id]);
+            outY[id] = fromY[id] + f * (toY[id] - fromY[id]);
+        }
+        snapshots.publish(n, mass, outX, outY, step, time);
+    }
+}
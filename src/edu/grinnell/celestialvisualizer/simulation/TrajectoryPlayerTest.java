@@ -0,0 +1,95 @@
+package edu.grinnell.celestialvisualizer.simulation;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.io.TrajectoryReader;
+import edu.grinnell.celestialvisualizer.io.TrajectoryRecorder;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+
+public class TrajectoryPlayerTest {
+
+    /** @return the next snapshot published at the given time */
+    private static Snapshot awaitTime(SnapshotExchange exchange, double time)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            Snapshot s = exchange.latest();
+            if (s != null && s.getTime() == time) {
+                return s;
+            }
+            Thread.sleep(1);
+        }
+        throw new AssertionError("No snapshot at time " + time);
+    }
+
+    /** @return the next snapshot published */
+    private static Snapshot awaitFresh(SnapshotExchange exchange) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            if (exchange.hasFresh()) {
+                return exchange.latest();
+            }
+            Thread.sleep(1);
+        }
+        throw new AssertionError("No snapshot published");
+    }
+
+    @Test
+    public void testSeekInterpolatesBetweenFrames() throws IOException, InterruptedException {
+        BodyStore store = new BodyStore();
+        store.add(1.0, 0.0, 0.0, 10.0, -4.0);
+        store.add(1.0, 1.0e6, 0.0, 0.0, 2.0);
+        NBody sim = new NBody(store).setPool(null);
+        Path file = Files.createTempFile("trajectory", ".nbody");
+        try {
+            TrajectoryRecorder recorder = new TrajectoryRecorder(file, store).setRingSize(16).start();
+            sim.setTrajectoryRecorder(recorder);
+            for (int s = 0; s < 10; s++) {
+                sim.update(100.0);
+            }
+            recorder.close();
+
+            try (TrajectoryReader reader = new TrajectoryReader(file)) {
+                reader.read(3);
+                double x3 = reader.getXs()[0];
+                reader.read(4);
+                double x4 = reader.getXs()[0];
+
+                TrajectoryPlayer player = new TrajectoryPlayer(reader);
+                assertEquals(100.0, player.getStartTime(), 0.0);
+                assertEquals(1000.0, player.getEndTime(), 0.0);
+                player.start();
+                player.seek(425.0);
+                Snapshot s = awaitTime(player.getSnapshots(), 425.0);
+                assertEquals(4, s.getStep());
+                assertEquals(x3 + 0.25 * (x4 - x3), s.getX(0), 1e-9);
+
+                // Turning interpolation off while paused shows the frame.
+                player.setInterpolating(false);
+                s = awaitFresh(player.getSnapshots());
+                assertEquals(425.0, s.getTime(), 0.0);
+                assertEquals(x3, s.getX(0), 0.0);
+
+                player.seek(475.0);
+                s = awaitTime(player.getSnapshots(), 475.0);
+                assertEquals(x3, s.getX(0), 0.0);
+
+                // Seeking past the end stops at the last frame.
+                player.seek(1.0e9);
+                s = awaitTime(player.getSnapshots(), 1000.0);
+                assertEquals(10, s.getStep());
+                assertTrue(player.isFinished());
+                player.stop();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package edu.grinnell.celestialvisualizer.solver;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.grinnell.celestialvisualizer.metrics.BoundsEvent;
+import edu.grinnell.celestialvisualizer.metrics.FlightEvents;
+import edu.grinnell.celestialvisualizer.metrics.MetricsRecorder;
+import edu.grinnell.celestialvisualizer.metrics.TreeBuildEvent;
+import edu.grinnell.celestialvisualizer.physics.BodyBounds;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.Physics;
+import edu.grinnell.celestialvisualizer.quadtree.FlatQuadTree;
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+
+/**
+ * BarnesHut calculates accelerations with a quad tree, approximating
+ * distant groups of bodies by their centroids according to an opening
+ * angle (see FlatQuadTree.accumulateBarnesHutAcceleration).  Bodies outside
+ * the root of the tree act on every body directly.
+ *
+ * Within a step of an integrator (see GravitySolver.startStep), the tree
+ * is built by the first call only, and the calls for some of the bodies
+ * that follow only refit its centroids to the positions the bodies have
+ * drifted to.
+ *
+ * Fitting the box, building the tree and walking it are reported to a
+ * MetricsRecorder, if one is set, and as BoundsEvent and TreeBuildEvent
+ * flight recorder events.
+ */
+public class BarnesHut implements GravitySolver {
+
+    /** The default opening angle. */
+    public static final double DEFAULT_THETA = 0.5;
+
+    /** The fewest bodies worth handing to a thread in the tree walk. */
+    private static final int GRAIN = 256;
+    /** The number of bodies that may leave the root of an incrementally
+     *  updated tree before it is rebuilt around them anyway. */
+    private static final int FAR_FIELD_SLACK = 16;
+
+    private final FlatQuadTree tree = new FlatQuadTree();
+    private double theta = DEFAULT_THETA;
+    private final LongAdder interactions = new LongAdder();
+    private final LongAdder nodeInteractions = new LongAdder();
+    private final LongAdder nodesOpened = new LongAdder();
+    private MetricsRecorder recorder;
+
+    // Whether the tree is kept from one call to the next, and the store it
+    // was last built for.
+    private boolean incremental;
+    private BodyStore treeStore;
+    // Whether a step has been started, and whether the tree has been built
+    // or updated for it since.
+    private boolean stepping;
+    private boolean builtInStep;
+
+    // The box the quad tree is rooted at, or null to fit it to the bodies
+    // every time the tree is built.  The bodies outside it are the far
+    // field, which is summed directly.
+    private BoundingBox rootBox;
+    private final BodyBounds bounds = new BodyBounds();
+    // The time spent fitting the box in the current call.
+    private long boundsNanos;
+    private int farAtBuild;
+    private int farCount;
+    private double[] farMass = new double[0];
+    private double[] farX = new double[0];
+    private double[] farY = new double[0];
+
+    // The state of the current call, read by the loop body.
+    private BodyStore store;
+    private int[] targets;
+    private final Parallel.RangeAction forces = this::calculateForces;
+
+    /** @return the opening angle */
+    public double getTheta() { return theta; }
+
+    /**
+     * Sets the opening angle.  Smaller angles are more accurate and slower;
+     * 0 gives the same forces as DirectSum.
+     * @param theta the opening angle, which must not be negative
+     * @return this solver
+     */
+    public BarnesHut setTheta(double theta) {
+        if (!(theta >= 0)) {
+            throw new IllegalArgumentException("Theta must not be negative: " + theta);
+        }
+        this.theta = theta;
+        return this;
+    }
+
+    /**
+     * Makes the solver keep its quad tree from one call to the next, moving
+     * only the bodies that have left their leaves, instead of building it
+     * from scratch every call.  The tree is still rebuilt when too many of
+     * its nodes have been discarded (see FlatQuadTree.update).
+     * @param incremental whether to keep the tree between calls
+     * @return this solver
+     */
+    public BarnesHut setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * Roots the quad tree at the given box.  By default the box is fitted
+     * to the bodies every time the tree is built (see BodyBounds).  Either
+     * way, bodies outside the box are left out of the tree and their pull
+     * is summed directly.
+     * @param bb the box to root the tree at, or null to fit it to the bodies
+     * @return this solver
+     */
+    public BarnesHut setRootBox(BoundingBox bb) {
+        this.rootBox = bb;
+        reset();
+        return this;
+    }
+
+    /**
+     * Sets the recorder the phases of every call are reported to.
+     * @param recorder the recorder, or null to report to none
+     * @return this solver
+     */
+    public BarnesHut setRecorder(MetricsRecorder recorder) {
+        this.recorder = recorder;
+        return this;
+    }
+
+    /** @return the number of centroids that stood in for their bodies in
+     *  the last call */
+    public long getNodeInteractionCount() { return nodeInteractions.sum(); }
+
+    /** @return the number of centroid nodes opened in the last call */
+    public long getNodesOpened() { return nodesOpened.sum(); }
+
+    /** @return the quad tree built by the last call to computeAccelerations */
+    public FlatQuadTree getQuadTree() { return tree; }
+
+    @Override
+    public void computeAccelerations(BodyStore store, ForkJoinPool pool) {
+        computeAccelerations(store, null, store.size(), pool);
+    }
+
+    /**
+     * Overwrites the accelerations of the given bodies only (see
+     * GravitySolver), or of every body if targets is null.  The tree is
+     * still built over every body, unless a tree was built in the current
+     * step, in which case it is refitted.
+     */
+    @Override
+    public void computeAccelerations(BodyStore store, int[] targets, int count,
+            ForkJoinPool pool) {
+        int n = store.size();
+
+        // Builds the tree from scratch or updates the tree of the last call.
+        // An updated tree keeps its root, so it is rebuilt once too many
+        // bodies have drifted out of it.
+        TreeBuildEvent event = null;
+        if (FlightEvents.isEnabled(TreeBuildEvent.class)) {
+            event = new TreeBuildEvent();
+            event.begin();
+        }
+        long start = System.nanoTime();
+        boundsNanos = 0;
+        boolean rebuilt = true;
+        if (targets != null && builtInStep && holdsTree(store)) {
+            tree.refit(store.getMasses(), store.getXs(), store.getYs(), n);
+            rebuilt = false;
+        } else if (incremental && holdsTree(store)) {
+            rebuilt = updateTree(store, pool);
+        } else {
+            buildTree(store, pool);
+        }
+        builtInStep = stepping;
+        gatherFarField(store);
+        long treeNanos = System.nanoTime() - start - boundsNanos;
+        if (event != null) {
+            event.end();
+        }
+        if (recorder != null) {
+            recorder.recordTree(tree, n, rebuilt, treeNanos);
+        }
+        if (event != null && event.shouldCommit()) {
+            event.bodies = n;
+            event.rebuilt = rebuilt;
+            event.nodes = tree.getNodeCount();
+            event.deadNodes = tree.getDeadNodeCount();
+            event.depth = tree.getDepth();
+            event.leaves = tree.getLeafCount();
+            event.outsideBodies = tree.getOutsideCount();
+            event.bodiesPerLeaf = event.leaves == 0 ? 0.0
+                    : (double) (n - event.outsideBodies) / event.leaves;
+            event.commit();
+        }
+
+        // The tree is only read from here on, so the bodies can be split
+        // across threads.
+        this.store = store;
+        this.targets = targets;
+        interactions.reset();
+        nodeInteractions.reset();
+        nodesOpened.reset();
+        Parallel.forRange(pool, count, GRAIN, forces);
+        this.store = null;
+        this.targets = null;
+        if (recorder != null) {
+            recorder.recordWalk(nodeInteractions.sum(), nodesOpened.sum());
+        }
+    }
+
+    @Override
+    public long getInteractionCount() { return interactions.sum(); }
+
+    @Override
+    public void startStep() {
+        stepping = true;
+        builtInStep = false;
+    }
+
+    @Override
+    public void reset() {
+        treeStore = null;
+    }
+
+    /**
+     * Brings the quad tree up to date with the current positions of the
+     * bodies of the given store, so that it can answer range, radius and
+     * nearest neighbour queries about them (see FlatQuadTree.findInRange).
+     * The tree of the last call is updated in place if it was built from
+     * these bodies in this order, as an incremental solver would between
+     * calls, and built as by computeAccelerations otherwise.  Must not be
+     * called while computeAccelerations runs.
+     * @param store the bodies of the simulation
+     * @param pool the pool to run on, or null to run on the calling thread
+     * @return the quad tree
+     */
+    public FlatQuadTree refresh(BodyStore store, ForkJoinPool pool) {
+        if (holdsTree(store)) {
+            updateTree(store, pool);
+        } else {
+            buildTree(store, pool);
+        }
+        return tree;
+    }
+
+    /** @return true if the tree was built from the bodies of the store, in
+     *  their current order, and can be updated */
+    private boolean holdsTree(BodyStore store) {
+        return treeStore == store && tree.isTracking(store.size());
+    }
+
+    /**
+     * Updates the tree in place, and rebuilds it if too many bodies have
+     * left its root.  The tree also rebuilds itself, keeping its root, when
+     * too many of its nodes have been discarded.
+     * @return true if the tree was rebuilt either way
+     */
+    private boolean updateTree(BodyStore store, ForkJoinPool pool) {
+        boolean updated = tree.update(store.getMasses(), store.getXs(), store.getYs(),
+                store.size(), pool);
+        if (tree.getOutsideCount() > Math.max(FAR_FIELD_SLACK, 2 * farAtBuild)) {
+            buildTree(store, pool);
+            return true;
+        }
+        if (!updated) {
+            farAtBuild = tree.getOutsideCount();
+        }
+        return !updated;
+    }
+
+    /** Builds the quad tree from scratch over the bodies of the store. */
+    private void buildTree(BodyStore store, ForkJoinPool pool) {
+        BoundingBox bb = rootBox;
+        if (bb == null) {
+            BoundsEvent event = null;
+            if (FlightEvents.isEnabled(BoundsEvent.class)) {
+                event = new BoundsEvent();
+                event.begin();
+            }
+            long start = System.nanoTime();
+            bb = bounds.compute(store, pool);
+            boundsNanos = System.nanoTime() - start;
+            if (event != null) {
+                event.end();
+            }
+            if (recorder != null) {
+                recorder.recordBounds(boundsNanos);
+            }
+            if (event != null && event.shouldCommit()) {
+                event.bodies = store.size();
+                event.commit();
+            }
+        }
+        if (bb == null) {
+            bb = new BoundingBox(-0.5, -0.5, 0.5, 0.5);
+        }
+        tree.build(store.getMasses(), store.getXs(), store.getYs(), store.size(), bb, pool);
+        treeStore = store;
+        farAtBuild = tree.getOutsideCount();
+    }
+
+    /** Copies the bodies outside the root of the tree into the far field. */
+    private void gatherFarField(BodyStore store) {
+        farCount = tree.getOutsideCount();
+        if (farMass.length < farCount) {
+            farMass = new double[farCount];
+            farX = new double[farCount];
+            farY = new double[farCount];
+        }
+        int[] outside = tree.getOutsideBodies();
+        double[] mass = store.getMasses();
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        for (int k = 0; k < farCount; k++) {
+            int b = outside[k];
+            farMass[k] = mass[b];
+            farX[k] = x[b];
+            farY[k] = y[b];
+        }
+    }
+
+    /**
+     * Calculates the accelerations on the targets from (inclusive) to to
+     * (exclusive) according to the quad tree and the far field.
+     */
+    private void calculateForces(int from, int to) {
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        long[] counters = new long[FlatQuadTree.WALK_COUNTERS];
+        long count = 0;
+        for (int k = from; k < to; k++) {
+            int i = targets == null ? k : targets[k];
+            ax[i] = 0.0;
+            ay[i] = 0.0;
+            count += tree.accumulateBarnesHutAcceleration(x[i], y[i], theta, ax, ay, i, counters);
+            Physics.accumulateAccelerationOn(x[i], y[i], farMass, farX, farY, 0, farCount, ax, ay, i);
+        }
+        interactions.add(count + (long) farCount * (to - from));
+        nodeInteractions.add(counters[FlatQuadTree.NODE_INTERACTIONS]);
+        nodesOpened.add(counters[FlatQuadTree.NODES_OPENED]);
+    }
+}
@@ -0,0 +1,78 @@
+package edu.grinnell.celestialvisualizer.solver;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.integrator.BlockTimesteps;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.NBody;
+
+public class BarnesHutTest {
+
+    @Test
+    public void testTargetsMatchFullCalculation() {
+        FastMultipoleTest.assertTargetsMatchFullCalculation(new BarnesHut(),
+                FastMultipoleTest.makeStore(3000, 11));
+    }
+
+    @Test
+    public void testBlockTimestepsBuildTheTreeOncePerStep() {
+        NBody sim = new NBody(Scenario.COLLISION.create(2000, 5)).setPool(null)
+                .setIntegrator(new BlockTimesteps());
+        for (int s = 0; s < 3; s++) {
+            sim.updateWithQuadTree(50.0);
+        }
+        assertTrue(sim.getMetrics().getForceEvaluations() > 1);
+        assertEquals(1, sim.getMetrics().getTreeBuilds());
+    }
+
+    @Test
+    public void testRefittingMatchesRebuilding() {
+        // A solver that never hears of the step builds the tree at every
+        // substep.
+        BarnesHut barnesHut = new BarnesHut();
+        GravitySolver rebuilding = new GravitySolver() {
+            @Override
+            public void computeAccelerations(BodyStore store, ForkJoinPool pool) {
+                barnesHut.computeAccelerations(store, pool);
+            }
+
+            @Override
+            public void computeAccelerations(BodyStore store, int[] targets, int count,
+                    ForkJoinPool pool) {
+                barnesHut.computeAccelerations(store, targets, count, pool);
+            }
+
+            @Override
+            public long getInteractionCount() { return barnesHut.getInteractionCount(); }
+        };
+        BodyStore start = Scenario.COLLISION.create(2000, 5);
+        BodyStore expected = Scenario.COLLISION.create(2000, 5);
+        BodyStore actual = Scenario.COLLISION.create(2000, 5);
+        BlockTimesteps rebuilt = new BlockTimesteps();
+        BlockTimesteps refitted = new BlockTimesteps();
+        BarnesHut solver = new BarnesHut();
+        for (int s = 0; s < 3; s++) {
+            rebuilt.step(expected, rebuilding, null, 50.0);
+            refitted.step(actual, solver, null, 50.0);
+        }
+
+        // The changes in velocity agree to well within the error of the
+        // tree walk itself.
+        double error = 0.0;
+        double scale = 0.0;
+        for (int i = 0; i < expected.size(); i++) {
+            double ex = expected.getVelocityXs()[i] - start.getVelocityXs()[i];
+            double ey = expected.getVelocityYs()[i] - start.getVelocityYs()[i];
+            double dx = actual.getVelocityXs()[i] - expected.getVelocityXs()[i];
+            double dy = actual.getVelocityYs()[i] - expected.getVelocityYs()[i];
+            error += dx * dx + dy * dy;
+            scale += ex * ex + ey * ey;
+        }
+        assertTrue("Relative error " + Math.sqrt(error / scale), error < 1e-12 * scale);
+    }
+}
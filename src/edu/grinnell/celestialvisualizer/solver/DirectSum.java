@@ -0,0 +1,130 @@
+package edu.grinnell.celestialvisualizer.solver;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.GravityKernel;
+import edu.grinnell.celestialvisualizer.physics.Physics;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+
+/**
+ * DirectSum calculates the pull of every body on every other body, which
+ * takes time proportional to the square of the number of bodies.  The
+ * pairs are evaluated by the fastest kernel the JVM supports (see
+ * Physics.preferredKernel) unless another one is set.
+ *
+ * The loops are tiled for the caches.  Targets are taken a tile at a time,
+ * sized to stay in L2, and each tile of targets meets the sources a tile
+ * at a time, sized to stay in L1, so that a source is read from memory
+ * once per tile of targets instead of once per target.  The sources are
+ * already contiguous in the store, so the tiles are read in place.
+ */
+public class DirectSum implements GravitySolver {
+
+    /** The fewest bodies worth handing to a thread. */
+    private static final int GRAIN = 16;
+
+    /** The default number of sources per tile: three arrays of 8KB, which
+     *  fit in a 32KB L1 data cache. */
+    public static final int DEFAULT_SOURCE_TILE = 1024;
+    /** The default number of targets per tile: four arrays of 32KB, which
+     *  fit in a 256KB L2 cache beside a tile of sources. */
+    public static final int DEFAULT_TARGET_TILE = 4096;
+
+    private long interactions;
+    private GravityKernel kernel = Physics.preferredKernel();
+    private int sourceTile = DEFAULT_SOURCE_TILE;
+    private int targetTile = DEFAULT_TARGET_TILE;
+
+    // The state of the current call, read by the loop body.
+    private BodyStore store;
+    private int[] targets;
+
+    // The loop body, created once so that a call run on the calling thread
+    // allocates nothing.
+    private final Parallel.RangeAction forces = this::calculateForces;
+
+    @Override
+    public void computeAccelerations(BodyStore store, ForkJoinPool pool) {
+        computeAccelerations(store, null, store.size(), pool);
+    }
+
+    /**
+     * Overwrites the accelerations of the given bodies only (see
+     * GravitySolver), or of every body if targets is null.
+     */
+    @Override
+    public void computeAccelerations(BodyStore store, int[] targets, int count,
+            ForkJoinPool pool) {
+        this.store = store;
+        this.targets = targets;
+        Parallel.forRange(pool, count, GRAIN, forces);
+        this.store = null;
+        this.targets = null;
+        interactions = (long) count * store.size();
+    }
+
+    @Override
+    public long getInteractionCount() { return interactions; }
+
+    /** @return the kernel the pairs are evaluated by */
+    public GravityKernel getKernel() { return kernel; }
+
+    /**
+     * Sets the kernel the pairs are evaluated by, for instance to
+     * GravityKernel.SCALAR to reproduce results across machines exactly.
+     * @param kernel the kernel to use
+     * @return this solver
+     */
+    public DirectSum setKernel(GravityKernel kernel) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("Kernel must not be null");
+        }
+        this.kernel = kernel;
+        return this;
+    }
+
+    /**
+     * Sets the number of sources and targets per tile of the loops.
+     * @param sources the number of sources per tile
+     * @param targets the number of targets per tile
+     * @return this solver
+     */
+    public DirectSum setTiles(int sources, int targets) {
+        if (sources <= 0 || targets <= 0) {
+            throw new IllegalArgumentException("Tiles must not be empty: " + sources
+                    + " sources, " + targets + " targets");
+        }
+        this.sourceTile = sources;
+        this.targetTile = targets;
+        return this;
+    }
+
+    /**
+     * Calculates the accelerations on the targets from (inclusive) to to
+     * (exclusive) by all the bodies in the simulation.
+     */
+    private void calculateForces(int from, int to) {
+        double[] mass = store.getMasses();
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        int n = store.size();
+        for (int k = from; k < to; k++) {
+            int i = targets == null ? k : targets[k];
+            ax[i] = 0.0;
+            ay[i] = 0.0;
+        }
+        for (int t = from; t < to; t += targetTile) {
+            int targetEnd = Math.min(to, t + targetTile);
+            for (int s = 0; s < n; s += sourceTile) {
+                int sourceEnd = Math.min(n, s + sourceTile);
+                for (int k = t; k < targetEnd; k++) {
+                    int i = targets == null ? k : targets[k];
+                    kernel.accumulate(x[i], y[i], mass, x, y, s, sourceEnd, ax, ay, i);
+                }
+            }
+        }
+    }
+}
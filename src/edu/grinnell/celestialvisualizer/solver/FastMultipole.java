@@ -0,0 +1,761 @@
+package edu.grinnell.celestialvisualizer.solver;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.grinnell.celestialvisualizer.physics.BodyBounds;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.Physics;
+import edu.grinnell.celestialvisualizer.util.BoundingBox;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+import edu.grinnell.celestialvisualizer.util.ParallelSort;
+import edu.grinnell.celestialvisualizer.util.SpaceFillingCurve;
+
+/**
+ * FastMultipole calculates accelerations with the fast multipole method,
+ * which takes time proportional to the number of bodies.
+ *
+ * The bodies are sorted into a hierarchy of quadrants: level l splits the
+ * box around the bodies (see BodyBounds) into 2^l by 2^l cells, and only
+ * cells holding bodies are kept.  Every cell summarises its bodies in a
+ * multipole expansion about its center, valid far from the cell, and
+ * collects the pull of the distant cells in a local expansion about its
+ * center, valid inside the cell.  Bodies in neighbouring cells of the
+ * deepest level act on each other directly, as do bodies outside the box.
+ *
+ * Our gravity falls off with the square of the distance, so its potential
+ * 1/|z - w| is not harmonic in the plane and the complex logarithm of the
+ * usual 2D method does not apply.  Instead the expansions are in both z
+ * and its conjugate: writing u for z minus the center of a cell,
+ *
+ *   multipole:  |u|^-1 sum A(k, l) u^-k conj(u)^-l
+ *   local:      sum L(a, b) u^a conj(u)^b
+ *
+ * over k + l (or a + b) up to the order of the expansion.  The
+ * coefficients are stored for every such pair even though A(l, k) and
+ * L(b, a) are the conjugates of A(k, l) and L(a, b).  The error falls off
+ * geometrically with the order: every two orders gain roughly a digit.
+ */
+public class FastMultipole implements GravitySolver {
+
+    /** The default order of the expansions. */
+    public static final int DEFAULT_ORDER = 6;
+    /** The highest supported order of the expansions. */
+    public static final int MAX_ORDER = 20;
+
+    /** The mean number of bodies sharing a leaf cell we aim for. */
+    private static final int LEAF_SIZE = 32;
+    /** The deepest level of the hierarchy. */
+    private static final int MAX_DEPTH = 16;
+    /** The key given to bodies outside the box, above every real key. */
+    private static final long OUTSIDE_KEY = Long.MAX_VALUE;
+
+    /** The fewest bodies worth handing to a thread. */
+    private static final int BODY_GRAIN = 1024;
+    /** The fewest cells worth handing to a thread. */
+    private static final int CELL_GRAIN = 16;
+    /** The fewest bodies outside the box worth handing to a thread. */
+    private static final int OUTSIDE_GRAIN = 16;
+
+    private final int order;
+    /** The number of coefficients of an expansion. */
+    private final int terms;
+    /** The index of coefficient (k, 0); coefficient (k, l) follows it. */
+    private final int[] row;
+    /** beta[k] = binomial(2k, k) / 4^k, from the series of (1 - x)^-1/2. */
+    private final double[] beta;
+    private final double[][] binomial;
+    /** shift[k][a] = binomial(-k - 1/2, a), from the series of
+     *  (1 + x)^(-k - 1/2). */
+    private final double[][] shift;
+
+    private final BodyBounds bounds = new BodyBounds();
+    private final LongAdder interactions = new LongAdder();
+
+    // The bodies in the order of their cells, with those outside the box
+    // last.
+    private int n;
+    private int inside;
+    private long[] keys = new long[0];
+    private long[] keyScratch = new long[0];
+    private int[] bodyOrder = new int[0];
+    private int[] orderScratch = new int[0];
+    /** The position of every body in the sorted order. */
+    private int[] rank = new int[0];
+    /** The leaf holding every sorted body inside the box. */
+    private int[] leafOf = new int[0];
+    private double[] sortedMass = new double[0];
+    private double[] sortedX = new double[0];
+    private double[] sortedY = new double[0];
+    private double[] sortedAx = new double[0];
+    private double[] sortedAy = new double[0];
+
+    // The cells, level by level, each level in increasing order of code.
+    private int depth;
+    private double boxX;
+    private double boxY;
+    private double boxSize;
+    private final int[] levelStart = new int[MAX_DEPTH + 1];
+    private final int[] levelEnd = new int[MAX_DEPTH + 1];
+    private int cellCount;
+    private long[] cellCode = new long[0];
+    private int[] cellIx = new int[0];
+    private int[] cellIy = new int[0];
+    private double[] cellCx = new double[0];
+    private double[] cellCy = new double[0];
+    private int[] cellParent = new int[0];
+    private int[] childFrom = new int[0];
+    private int[] childTo = new int[0];
+    private int[] bodyFrom = new int[0];
+    private int[] bodyTo = new int[0];
+
+    // The multipole and local expansions of the cells, terms coefficients
+    // per cell.
+    private double[] multipoleRe = new double[0];
+    private double[] multipoleIm = new double[0];
+    private double[] localRe = new double[0];
+    private double[] localIm = new double[0];
+
+    /** Constructs a solver with expansions of the default order. */
+    public FastMultipole() { this(DEFAULT_ORDER); }
+
+    /**
+     * Constructs a solver with expansions of the given order.
+     * @param order the order of the expansions, from 1 to MAX_ORDER
+     */
+    public FastMultipole(int order) {
+        if (order < 1 || order > MAX_ORDER) {
+            throw new IllegalArgumentException("Order must be between 1 and " + MAX_ORDER
+                    + ": " + order);
+        }
+        this.order = order;
+        this.row = new int[order + 2];
+        for (int k = 0; k <= order; k++) {
+            row[k + 1] = row[k] + (order + 1 - k);
+        }
+        this.terms = row[order + 1];
+
+        this.beta = new double[order + 1];
+        this.binomial = new double[order + 1][order + 1];
+        this.shift = new double[order + 1][order + 1];
+        for (int k = 0; k <= order; k++) {
+            beta[k] = k == 0 ? 1.0 : beta[k - 1] * (2 * k - 1) / (2 * k);
+            binomial[k][0] = 1.0;
+            for (int a = 1; a <= k; a++) {
+                binomial[k][a] = binomial[k][a - 1] * (k - a + 1) / a;
+            }
+            shift[k][0] = 1.0;
+            for (int a = 1; a <= order; a++) {
+                shift[k][a] = -shift[k][a - 1] * (k + a - 0.5) / a;
+            }
+        }
+    }
+
+    /** @return the order of the expansions */
+    public int getOrder() { return order; }
+
+    /** @return the number of levels below the root of the last hierarchy */
+    public int getDepth() { return depth; }
+
+    /**
+     * @return the number of body-body interactions and expansion
+     * translations evaluated by the last call to computeAccelerations
+     */
+    @Override
+    public long getInteractionCount() { return interactions.sum(); }
+
+    @Override
+    public void computeAccelerations(BodyStore store, ForkJoinPool pool) {
+        computeAccelerations(store, null, store.size(), pool);
+    }
+
+    /**
+     * Overwrites the accelerations of the given bodies only (see
+     * GravitySolver), or of every body if targets is null.  The expansions
+     * are still formed over every cell; only the evaluation at the bodies
+     * is restricted to the targets.
+     */
+    @Override
+    public void computeAccelerations(BodyStore store, int[] targets, int count,
+            ForkJoinPool pool) {
+        interactions.reset();
+        n = store.size();
+        if (n == 0) {
+            return;
+        }
+        sortBodies(store, pool);
+        chooseDepth();
+        buildCells();
+        ensureExpansionCapacity();
+
+        // Upward pass: multipoles of the leaves from their bodies, then of
+        // every other cell from its children.
+        Parallel.forRange(pool, levelEnd[depth] - levelStart[depth], CELL_GRAIN,
+                (from, to) -> formMultipoles(levelStart[depth] + from, levelStart[depth] + to));
+        for (int level = depth - 1; level >= 0; level--) {
+            int start = levelStart[level];
+            Parallel.forRange(pool, levelEnd[level] - start, CELL_GRAIN,
+                    (from, to) -> shiftMultipoles(start + from, start + to));
+        }
+
+        // Downward pass: the local expansion of every cell from its parent
+        // and from the cells in its interaction list.  No two cells of the
+        // first two levels are far enough apart to interact.
+        for (int level = 0; level <= depth; level++) {
+            int start = levelStart[level];
+            int l = level;
+            Parallel.forRange(pool, levelEnd[level] - start, CELL_GRAIN,
+                    (from, to) -> formLocals(l, start + from, start + to));
+        }
+
+        // Evaluation: the local expansions and the near field at the
+        // bodies inside the box, the direct sum at the bodies outside it.
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        if (targets == null) {
+            Parallel.forRange(pool, levelEnd[depth] - levelStart[depth], CELL_GRAIN,
+                    (from, to) -> evaluateLeaves(levelStart[depth] + from, levelStart[depth] + to));
+            Parallel.forRange(pool, n - inside, OUTSIDE_GRAIN,
+                    (from, to) -> evaluateOutside(inside + from, inside + to));
+            for (int j = 0; j < n; j++) {
+                ax[bodyOrder[j]] = sortedAx[j];
+                ay[bodyOrder[j]] = sortedAy[j];
+            }
+        } else {
+            for (int j = 0; j < n; j++) {
+                rank[bodyOrder[j]] = j;
+            }
+            Parallel.forRange(pool, count, OUTSIDE_GRAIN, (from, to) -> {
+                evaluateTargets(targets, from, to);
+                for (int k = from; k < to; k++) {
+                    int j = rank[targets[k]];
+                    ax[targets[k]] = sortedAx[j];
+                    ay[targets[k]] = sortedAy[j];
+                }
+            });
+        }
+    }
+
+    /**
+     * Sorts the bodies by the cell of the finest grid they fall in, with
+     * the bodies outside the box last, and copies them into that order.
+     */
+    private void sortBodies(BodyStore store, ForkJoinPool pool) {
+        if (keys.length < n) {
+            keys = new long[n];
+            keyScratch = new long[n];
+            bodyOrder = new int[n];
+            orderScratch = new int[n];
+            rank = new int[n];
+            leafOf = new int[n];
+            sortedMass = new double[n];
+            sortedX = new double[n];
+            sortedY = new double[n];
+            sortedAx = new double[n];
+            sortedAy = new double[n];
+        }
+        BoundingBox bb = bounds.compute(store, pool);
+        boxX = bb.getMinX();
+        boxY = bb.getMinY();
+        boxSize = Math.max(bb.getMaxX() - boxX, bb.getMaxY() - boxY);
+        double x1 = boxX + boxSize;
+        double y1 = boxY + boxSize;
+
+        double[] mass = store.getMasses();
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        Parallel.forRange(pool, n, BODY_GRAIN, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                boolean in = boxX <= x[i] && x[i] <= x1 && boxY <= y[i] && y[i] <= y1;
+                keys[i] = in ? SpaceFillingCurve.MORTON.key(x[i], y[i], bb) : OUTSIDE_KEY;
+                bodyOrder[i] = i;
+            }
+        });
+        ParallelSort.sort(keys, bodyOrder, keyScratch, orderScratch, n, pool);
+
+        inside = n;
+        while (inside > 0 && keys[inside - 1] == OUTSIDE_KEY) {
+            inside--;
+        }
+        Parallel.forRange(pool, n, BODY_GRAIN, (from, to) -> {
+            for (int j = from; j < to; j++) {
+                int i = bodyOrder[j];
+                sortedMass[j] = mass[i];
+                sortedX[j] = x[i];
+                sortedY[j] = y[i];
+            }
+        });
+    }
+
+    /**
+     * Chooses the shallowest depth at which a body shares its leaf with at
+     * most LEAF_SIZE bodies on average.
+     */
+    private void chooseDepth() {
+        depth = 0;
+        while (depth < MAX_DEPTH && (1L << (2 * depth)) * LEAF_SIZE < inside) {
+            depth++;
+        }
+        while (depth < MAX_DEPTH) {
+            int shift = 2 * (SpaceFillingCurve.BITS - depth);
+            long pairs = 0;
+            int first = 0;
+            for (int j = 1; j <= inside; j++) {
+                if (j == inside || keys[j] >>> shift != keys[first] >>> shift) {
+                    pairs += (long) (j - first) * (j - first);
+                    first = j;
+                }
+            }
+            if (pairs <= (long) LEAF_SIZE * inside) {
+                break;
+            }
+            depth++;
+        }
+    }
+
+    /** Lays out the non-empty cells of every level, the deepest first. */
+    private void buildCells() {
+        cellCount = 0;
+        int shift = 2 * (SpaceFillingCurve.BITS - depth);
+        levelStart[depth] = 0;
+        for (int j = 0; j < inside; j++) {
+            long code = keys[j] >>> shift;
+            if (j == 0 || code != cellCode[cellCount - 1]) {
+                addCell(code, depth);
+                bodyFrom[cellCount - 1] = j;
+            }
+            bodyTo[cellCount - 1] = j + 1;
+            leafOf[j] = cellCount - 1;
+        }
+        levelEnd[depth] = cellCount;
+
+        for (int level = depth - 1; level >= 0; level--) {
+            levelStart[level] = cellCount;
+            for (int c = levelStart[level + 1]; c < levelEnd[level + 1]; c++) {
+                long code = cellCode[c] >>> 2;
+                if (cellCount == levelStart[level] || code != cellCode[cellCount - 1]) {
+                    addCell(code, level);
+                    childFrom[cellCount - 1] = c;
+                    bodyFrom[cellCount - 1] = bodyFrom[c];
+                }
+                childTo[cellCount - 1] = c + 1;
+                bodyTo[cellCount - 1] = bodyTo[c];
+                cellParent[c] = cellCount - 1;
+            }
+            levelEnd[level] = cellCount;
+        }
+    }
+
+    private void addCell(long code, int level) {
+        if (cellCount == cellCode.length) {
+            growCells();
+        }
+        int c = cellCount++;
+        double side = boxSize / (1L << level);
+        cellCode[c] = code;
+        cellIx[c] = compact(code);
+        cellIy[c] = compact(code >>> 1);
+        cellCx[c] = boxX + (cellIx[c] + 0.5) * side;
+        cellCy[c] = boxY + (cellIy[c] + 0.5) * side;
+        cellParent[c] = -1;
+        childFrom[c] = 0;
+        childTo[c] = 0;
+    }
+
+    /**
+     * @return the index of the cell of the given level at the given grid
+     * position, or -1 if there is no such cell
+     */
+    private int findCell(int level, int ix, int iy) {
+        if (ix < 0 || iy < 0 || ix >= 1 << level || iy >= 1 << level) {
+            return -1;
+        }
+        long code = SpaceFillingCurve.MORTON.index(ix, iy);
+        int lo = levelStart[level];
+        int hi = levelEnd[level] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cellCode[mid] < code) {
+                lo = mid + 1;
+            } else if (cellCode[mid] > code) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** @return true if the two cells of the same level touch or coincide */
+    private boolean adjacent(int a, int b) {
+        return Math.abs(cellIx[a] - cellIx[b]) <= 1 && Math.abs(cellIy[a] - cellIy[b]) <= 1;
+    }
+
+    /** Forms the multipole expansions of the leaves from (inclusive) to to
+     *  (exclusive) from their bodies. */
+    private void formMultipoles(int from, int to) {
+        double[] re = new double[order + 1];
+        double[] im = new double[order + 1];
+        for (int c = from; c < to; c++) {
+            int base = c * terms;
+            for (int t = 0; t < terms; t++) {
+                multipoleRe[base + t] = 0.0;
+                multipoleIm[base + t] = 0.0;
+            }
+            for (int j = bodyFrom[c]; j < bodyTo[c]; j++) {
+                powers(sortedX[j] - cellCx[c], sortedY[j] - cellCy[c], re, im);
+                double m = sortedMass[j];
+                // M(k, l) += m d^k conj(d)^l
+                for (int k = 0; k <= order; k++) {
+                    double mr = m * re[k];
+                    double mi = m * im[k];
+                    int t = base + row[k];
+                    for (int l = 0; l <= order - k; l++, t++) {
+                        multipoleRe[t] += mr * re[l] + mi * im[l];
+                        multipoleIm[t] += mi * re[l] - mr * im[l];
+                    }
+                }
+            }
+        }
+    }
+
+    /** Forms the multipole expansions of the cells from (inclusive) to to
+     *  (exclusive) by shifting those of their children to their centers. */
+    private void shiftMultipoles(int from, int to) {
+        double[] re = new double[order + 1];
+        double[] im = new double[order + 1];
+        double[][] wRe = new double[order + 1][order + 1];
+        double[][] wIm = new double[order + 1][order + 1];
+        for (int c = from; c < to; c++) {
+            int base = c * terms;
+            for (int t = 0; t < terms; t++) {
+                multipoleRe[base + t] = 0.0;
+                multipoleIm[base + t] = 0.0;
+            }
+            for (int child = childFrom[c]; child < childTo[c]; child++) {
+                // With d = d' + s for s the offset of the child,
+                // M(k, l) = sum C(k, a) C(l, b) s^(k-a) conj(s)^(l-b) M'(a, b).
+                powers(cellCx[child] - cellCx[c], cellCy[child] - cellCy[c], re, im);
+                crossPowers(re, im, wRe, wIm);
+                int childBase = child * terms;
+                for (int k = 0; k <= order; k++) {
+                    for (int l = 0; l <= order - k; l++) {
+                        double sumRe = 0.0;
+                        double sumIm = 0.0;
+                        for (int a = 0; a <= k; a++) {
+                            int t = childBase + row[a];
+                            for (int b = 0; b <= l; b++, t++) {
+                                double w = binomial[k][a] * binomial[l][b];
+                                double pr = wRe[k - a][l - b];
+                                double pi = wIm[k - a][l - b];
+                                sumRe += w * (pr * multipoleRe[t] - pi * multipoleIm[t]);
+                                sumIm += w * (pr * multipoleIm[t] + pi * multipoleRe[t]);
+                            }
+                        }
+                        multipoleRe[base + row[k] + l] += sumRe;
+                        multipoleIm[base + row[k] + l] += sumIm;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forms the local expansions of the cells of the given level from
+     * (inclusive) to to (exclusive): the local expansion of the parent
+     * shifted to the center of the cell, plus the multipole expansions of
+     * the children of the parent's neighbours that do not touch the cell.
+     */
+    private void formLocals(int level, int from, int to) {
+        double[] re = new double[2 * order + 1];
+        double[] im = new double[2 * order + 1];
+        double[][] wRe = new double[order + 1][order + 1];
+        double[][] wIm = new double[order + 1][order + 1];
+        double[] tRe = new double[(order + 1) * (order + 1)];
+        double[] tIm = new double[(order + 1) * (order + 1)];
+        long translations = 0;
+        for (int c = from; c < to; c++) {
+            int base = c * terms;
+            for (int t = 0; t < terms; t++) {
+                localRe[base + t] = 0.0;
+                localIm[base + t] = 0.0;
+            }
+            if (level < 2) {
+                continue;
+            }
+            int parent = cellParent[c];
+            if (level > 2) {
+                localFromParent(c, parent, re, im, wRe, wIm);
+            }
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int q = findCell(level - 1, cellIx[parent] + dx, cellIy[parent] + dy);
+                    if (q < 0) {
+                        continue;
+                    }
+                    for (int source = childFrom[q]; source < childTo[q]; source++) {
+                        if (!adjacent(c, source)) {
+                            localFromMultipole(c, source, re, im, tRe, tIm);
+                            translations++;
+                        }
+                    }
+                }
+            }
+        }
+        interactions.add(translations);
+    }
+
+    /** Adds the local expansion of the parent, shifted to the center of the
+     *  cell, to the local expansion of the cell. */
+    private void localFromParent(int c, int parent, double[] re, double[] im,
+            double[][] wRe, double[][] wIm) {
+        // With v = v' + s for s the offset of the cell, L'(a, b) =
+        // sum over a' >= a and b' >= b of
+        // C(a', a) C(b', b) s^(a'-a) conj(s)^(b'-b) L(a', b').
+        powers(cellCx[c] - cellCx[parent], cellCy[c] - cellCy[parent], re, im);
+        crossPowers(re, im, wRe, wIm);
+        int base = c * terms;
+        int parentBase = parent * terms;
+        for (int a = 0; a <= order; a++) {
+            for (int b = 0; b <= order - a; b++) {
+                double sumRe = 0.0;
+                double sumIm = 0.0;
+                for (int a2 = a; a2 <= order; a2++) {
+                    int t = parentBase + row[a2] + b;
+                    for (int b2 = b; b2 <= order - a2; b2++, t++) {
+                        double w = binomial[a2][a] * binomial[b2][b];
+                        double pr = wRe[a2 - a][b2 - b];
+                        double pi = wIm[a2 - a][b2 - b];
+                        sumRe += w * (pr * localRe[t] - pi * localIm[t]);
+                        sumIm += w * (pr * localIm[t] + pi * localRe[t]);
+                    }
+                }
+                localRe[base + row[a] + b] += sumRe;
+                localIm[base + row[a] + b] += sumIm;
+            }
+        }
+    }
+
+    /** Adds the multipole expansion of the source cell, converted to a local
+     *  expansion about the center of cell c, to the local expansion of c. */
+    private void localFromMultipole(int c, int source, double[] re, double[] im,
+            double[] tRe, double[] tIm) {
+        // With u = R + v for R the offset between the centers,
+        //   |u|^-1 u^-k = |R|^-1 R^-k (1 + v/R)^(-k-1/2) conj((1 + v/R)^-1/2)
+        // and expanding both factors in v gives
+        //   L(a, b) = |R|^-1 sum A(k, l) shift(k, a) shift(l, b) R^-(k+a) conj(R)^-(l+b)
+        // for A(k, l) = beta(k) beta(l) M(k, l).  The sum over l is done
+        // first, into T(k, b).
+        double rx = cellCx[c] - cellCx[source];
+        double ry = cellCy[c] - cellCy[source];
+        double r2 = rx * rx + ry * ry;
+        double inverse = 1.0 / Math.sqrt(r2);
+        powers(rx / r2, -ry / r2, re, im);
+
+        int sourceBase = source * terms;
+        for (int k = 0; k <= order; k++) {
+            for (int b = 0; b <= order; b++) {
+                double sumRe = 0.0;
+                double sumIm = 0.0;
+                int t = sourceBase + row[k];
+                for (int l = 0; l <= order - k; l++, t++) {
+                    double w = beta[k] * beta[l] * shift[l][b];
+                    // conj(R^-(l+b))
+                    double pr = re[l + b];
+                    double pi = -im[l + b];
+                    sumRe += w * (pr * multipoleRe[t] - pi * multipoleIm[t]);
+                    sumIm += w * (pr * multipoleIm[t] + pi * multipoleRe[t]);
+                }
+                tRe[k * (order + 1) + b] = sumRe;
+                tIm[k * (order + 1) + b] = sumIm;
+            }
+        }
+        int base = c * terms;
+        for (int a = 0; a <= order; a++) {
+            for (int b = 0; b <= order - a; b++) {
+                double sumRe = 0.0;
+                double sumIm = 0.0;
+                for (int k = 0; k <= order; k++) {
+                    double w = shift[k][a];
+                    double pr = re[k + a];
+                    double pi = im[k + a];
+                    double vr = tRe[k * (order + 1) + b];
+                    double vi = tIm[k * (order + 1) + b];
+                    sumRe += w * (pr * vr - pi * vi);
+                    sumIm += w * (pr * vi + pi * vr);
+                }
+                localRe[base + row[a] + b] += inverse * sumRe;
+                localIm[base + row[a] + b] += inverse * sumIm;
+            }
+        }
+    }
+
+    /**
+     * Calculates the accelerations on the bodies of the leaves from
+     * (inclusive) to to (exclusive): the local expansion of the leaf, the
+     * bodies of the leaf and its neighbours, and the bodies outside the box.
+     */
+    private void evaluateLeaves(int from, int to) {
+        double[] re = new double[order + 1];
+        double[] im = new double[order + 1];
+        int[] near = new int[9];
+        long count = 0;
+        for (int c = from; c < to; c++) {
+            int neighbours = findNeighbours(c, near);
+            for (int j = bodyFrom[c]; j < bodyTo[c]; j++) {
+                count += evaluateBody(j, c, near, neighbours, re, im);
+            }
+        }
+        interactions.add(count);
+    }
+
+    /** Calculates the accelerations on the sorted bodies of the targets from
+     *  (inclusive) to to (exclusive), wherever they lie. */
+    private void evaluateTargets(int[] targets, int from, int to) {
+        double[] re = new double[order + 1];
+        double[] im = new double[order + 1];
+        int[] near = new int[9];
+        long count = 0;
+        for (int k = from; k < to; k++) {
+            int j = rank[targets[k]];
+            if (j >= inside) {
+                evaluateOutside(j, j + 1);
+            } else {
+                int c = leafOf[j];
+                count += evaluateBody(j, c, near, findNeighbours(c, near), re, im);
+            }
+        }
+        interactions.add(count);
+    }
+
+    /**
+     * Fills near with the leaf and its neighbouring leaves.
+     * @return the number of leaves found
+     */
+    private int findNeighbours(int c, int[] near) {
+        int neighbours = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int q = findCell(depth, cellIx[c] + dx, cellIy[c] + dy);
+                if (q >= 0) {
+                    near[neighbours++] = q;
+                }
+            }
+        }
+        return neighbours;
+    }
+
+    /**
+     * Calculates the acceleration on sorted body j, which lies in leaf c
+     * with the given neighbours.
+     * @return the number of bodies that act on it directly
+     */
+    private long evaluateBody(int j, int c, int[] near, int neighbours, double[] re, double[] im) {
+        double px = sortedX[j];
+        double py = sortedY[j];
+        sortedAx[j] = 0.0;
+        sortedAy[j] = 0.0;
+        if (depth >= 2) {
+            // a = G grad psi = 2 G d(psi)/d(conj(v)), so
+            // ax + i ay = 2 G sum b L(a, b) v^a conj(v)^(b-1).
+            powers(px - cellCx[c], py - cellCy[c], re, im);
+            int base = c * terms;
+            double sumRe = 0.0;
+            double sumIm = 0.0;
+            for (int a = 0; a < order; a++) {
+                int t = base + row[a] + 1;
+                for (int b = 1; b <= order - a; b++, t++) {
+                    // v^a conj(v)^(b-1)
+                    double pr = re[a] * re[b - 1] + im[a] * im[b - 1];
+                    double pi = im[a] * re[b - 1] - re[a] * im[b - 1];
+                    sumRe += b * (localRe[t] * pr - localIm[t] * pi);
+                    sumIm += b * (localRe[t] * pi + localIm[t] * pr);
+                }
+            }
+            sortedAx[j] = 2 * Physics.G * sumRe;
+            sortedAy[j] = 2 * Physics.G * sumIm;
+        }
+        long count = n - inside;
+        for (int k = 0; k < neighbours; k++) {
+            int q = near[k];
+            Physics.accumulateAccelerationOn(px, py, sortedMass, sortedX, sortedY,
+                    bodyFrom[q], bodyTo[q], sortedAx, sortedAy, j);
+            count += bodyTo[q] - bodyFrom[q];
+        }
+        Physics.accumulateAccelerationOn(px, py, sortedMass, sortedX, sortedY,
+                inside, n, sortedAx, sortedAy, j);
+        return count;
+    }
+
+    /** Calculates the accelerations on the bodies from (inclusive) to to
+     *  (exclusive), which lie outside the box, by all the bodies. */
+    private void evaluateOutside(int from, int to) {
+        for (int j = from; j < to; j++) {
+            sortedAx[j] = 0.0;
+            sortedAy[j] = 0.0;
+            Physics.accumulateAccelerationOn(sortedX[j], sortedY[j], sortedMass, sortedX, sortedY,
+                    0, n, sortedAx, sortedAy, j);
+        }
+        interactions.add((long) (to - from) * n);
+    }
+
+    /** Fills re and im with the powers of x + iy, from the zeroth up. */
+    private static void powers(double x, double y, double[] re, double[] im) {
+        re[0] = 1.0;
+        im[0] = 0.0;
+        for (int k = 1; k < re.length; k++) {
+            re[k] = re[k - 1] * x - im[k - 1] * y;
+            im[k] = re[k - 1] * y + im[k - 1] * x;
+        }
+    }
+
+    /** Fills w with w[j][m] = s^j conj(s)^m for the powers of s in re, im. */
+    private void crossPowers(double[] re, double[] im, double[][] wRe, double[][] wIm) {
+        for (int j = 0; j <= order; j++) {
+            for (int m = 0; m <= order - j; m++) {
+                wRe[j][m] = re[j] * re[m] + im[j] * im[m];
+                wIm[j][m] = im[j] * re[m] - re[j] * im[m];
+            }
+        }
+    }
+
+    /** @return the even bits of v packed into an int */
+    private static int compact(long v) {
+        long x = v & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) x;
+    }
+
+    private void growCells() {
+        int capacity = Math.max(64, cellCode.length * 2);
+        cellCode = Arrays.copyOf(cellCode, capacity);
+        cellIx = Arrays.copyOf(cellIx, capacity);
+        cellIy = Arrays.copyOf(cellIy, capacity);
+        cellCx = Arrays.copyOf(cellCx, capacity);
+        cellCy = Arrays.copyOf(cellCy, capacity);
+        cellParent = Arrays.copyOf(cellParent, capacity);
+        childFrom = Arrays.copyOf(childFrom, capacity);
+        childTo = Arrays.copyOf(childTo, capacity);
+        bodyFrom = Arrays.copyOf(bodyFrom, capacity);
+        bodyTo = Arrays.copyOf(bodyTo, capacity);
+    }
+
+    private void ensureExpansionCapacity() {
+        long size = (long) cellCount * terms;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many cells for expansions of order " + order);
+        }
+        if (multipoleRe.length < size) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE, size + size / 2);
+            multipoleRe = new double[capacity];
+            multipoleIm = new double[capacity];
+            localRe = new double[capacity];
+            localIm = new double[capacity];
+        }
+    }
+}
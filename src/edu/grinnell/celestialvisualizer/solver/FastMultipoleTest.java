@@ -0,0 +1,103 @@
+package edu.grinnell.celestialvisualizer.solver;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+
+public class FastMultipoleTest {
+
+    /** @return n bodies spread over a square, as Scenario.UNIFORM makes
+     *  them, and a heavy body far away from them */
+    static BodyStore makeStore(int n, long seed) {
+        BodyStore store = Scenario.UNIFORM.create(n, seed);
+        // An escaper far outside the box around the others.
+        store.add(1.0e22, 1.0e13, -3.0e12, 0.0, 0.0);
+        return store;
+    }
+
+    /** @return the root-mean-square error of the accelerations in the store
+     *  relative to the given ones */
+    private static double error(BodyStore store, double[] ax, double[] ay) {
+        double error = 0.0;
+        double total = 0.0;
+        for (int i = 0; i < store.size(); i++) {
+            double dx = store.getAccelerationXs()[i] - ax[i];
+            double dy = store.getAccelerationYs()[i] - ay[i];
+            error += dx * dx + dy * dy;
+            total += ax[i] * ax[i] + ay[i] * ay[i];
+        }
+        return Math.sqrt(error / total);
+    }
+
+    @Test
+    public void testMatchesDirectSum() {
+        BodyStore store = makeStore(5000, 207);
+        new DirectSum().computeAccelerations(store, null);
+        double[] ax = store.getAccelerationXs().clone();
+        double[] ay = store.getAccelerationYs().clone();
+
+        double last = Double.POSITIVE_INFINITY;
+        for (int order : new int[] { 2, 4, 6, 8 }) {
+            FastMultipole fmm = new FastMultipole(order);
+            fmm.computeAccelerations(store, ForkJoinPool.commonPool());
+            double e = error(store, ax, ay);
+            assertTrue(fmm.getDepth() >= 2);
+            assertTrue(e < last / 4);
+            last = e;
+        }
+        assertTrue(last < 1e-6);
+
+        // Every cell is worked on by one thread, so the pool makes no
+        // difference to the result.
+        double[] parallelX = store.getAccelerationXs().clone();
+        double[] parallelY = store.getAccelerationYs().clone();
+        new FastMultipole(8).computeAccelerations(store, null);
+        assertEquals(0.0, error(store, parallelX, parallelY), 0.0);
+    }
+
+    /**
+     * Checks that calculating the accelerations of a random subset of the
+     * bodies gives them the same accelerations as calculating them all, and
+     * leaves the others alone.
+     */
+    static void assertTargetsMatchFullCalculation(GravitySolver solver, BodyStore store) {
+        int n = store.size();
+        solver.computeAccelerations(store, ForkJoinPool.commonPool());
+        double[] ax = store.getAccelerationXs().clone();
+        double[] ay = store.getAccelerationYs().clone();
+
+        Random random = new Random(5);
+        int[] targets = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (random.nextInt(7) == 0) {
+                targets[count++] = i;
+            }
+        }
+        Arrays.fill(store.getAccelerationXs(), 0, n, -1.0);
+        Arrays.fill(store.getAccelerationYs(), 0, n, -1.0);
+        solver.computeAccelerations(store, targets, count, ForkJoinPool.commonPool());
+        boolean[] targeted = new boolean[n];
+        for (int k = 0; k < count; k++) {
+            targeted[targets[k]] = true;
+        }
+        for (int i = 0; i < n; i++) {
+            double ex = targeted[i] ? ax[i] : -1.0;
+            double ey = targeted[i] ? ay[i] : -1.0;
+            assertEquals(ex, store.getAccelerationXs()[i], Math.abs(ex) * 1e-12);
+            assertEquals(ey, store.getAccelerationYs()[i], Math.abs(ey) * 1e-12);
+        }
+    }
+
+    @Test
+    public void testTargetsMatchFullCalculation() {
+        assertTargetsMatchFullCalculation(new FastMultipole(6), makeStore(3000, 11));
+    }
+}
@@ -0,0 +1,63 @@
+package edu.grinnell.celestialvisualizer.solver;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+
+/**
+ * A GravitySolver calculates the acceleration on every body of a store due
+ * to the gravity of all the bodies in the store.  Solvers differ in how
+ * they trade accuracy for speed: DirectSum is exact, BarnesHut and
+ * FastMultipole approximate the pull of distant groups of bodies.
+ */
+public interface GravitySolver {
+
+    /**
+     * Overwrites the acceleration arrays of the store with the acceleration
+     * on each of its bodies.
+     * @param store the bodies of the simulation
+     * @param pool the pool to run on, or null to run on the calling thread
+     */
+    public void computeAccelerations(BodyStore store, ForkJoinPool pool);
+
+    /**
+     * Overwrites the accelerations of the given bodies, and possibly those
+     * of the other bodies of the store too.  The pull on the given bodies
+     * is that of every body of the store.  By default this calculates the
+     * accelerations of every body (see computeAccelerations(store, pool));
+     * solvers that can calculate those of a few bodies in less time override
+     * it as an optimisation, and then leave the other bodies as they are.
+     * Callers must only read the accelerations of the given bodies.
+     * @param store the bodies of the simulation
+     * @param targets the indices of the bodies to calculate the
+     * accelerations of; only the first count are read
+     * @param count the number of bodies to calculate the accelerations of
+     * @param pool the pool to run on, or null to run on the calling thread
+     */
+    public default void computeAccelerations(BodyStore store, int[] targets, int count,
+            ForkJoinPool pool) {
+        computeAccelerations(store, pool);
+    }
+
+    /**
+     * @return the number of interactions evaluated by the last call to
+     * computeAccelerations.  What counts as an interaction depends on the
+     * solver, but it is always proportional to the work done.
+     */
+    public long getInteractionCount();
+
+    /**
+     * Tells the solver that the calls up to the next startStep are the
+     * substeps of one step of an integrator, between which the bodies only
+     * drift a little.  A solver may then keep what it builds in the first
+     * of those calls and only refit it to the bodies in the calls for some
+     * of them that follow.  By default does nothing.
+     */
+    public default void startStep() { }
+
+    /**
+     * Discards any state this solver keeps from one call to the next, for
+     * instance because the bodies of the store have been reordered.
+     */
+    public default void reset() { }
+}
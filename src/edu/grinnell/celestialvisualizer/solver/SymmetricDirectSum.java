@@ -0,0 +1,142 @@
+package edu.grinnell.celestialvisualizer.solver;
+
+import java.util.concurrent.ForkJoinPool;
+
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.Physics;
+import edu.grinnell.celestialvisualizer.util.Parallel;
+
+/**
+ * SymmetricDirectSum calculates the same forces as DirectSum, but visits
+ * every unordered pair of bodies once and applies the pull of each on the
+ * other together, so every distance, square root and division is worked
+ * out once instead of twice.
+ *
+ * The bodies are split into an even number of blocks, and every pair of
+ * blocks is handled by one task that writes to the accelerations of both.
+ * The pairs of blocks are scheduled in rounds as in a round-robin
+ * tournament: every block appears exactly once in each round, so the
+ * tasks of a round never write to the same body and need no locks.  The
+ * blocks depend only on the number of bodies, so the result does not
+ * depend on the pool.
+ */
+public class SymmetricDirectSum implements GravitySolver {
+
+    /** The number of bodies per block we aim for. */
+    private static final int BLOCK_SIZE = 256;
+    /** The most blocks the bodies are split into. */
+    private static final int MAX_BLOCKS = 64;
+
+    private long interactions;
+
+    // The state of the current call, read by the loop bodies.
+    private BodyStore store;
+    private int blocks;
+    private int round;
+
+    // The loop bodies, created once so that a call run on the calling
+    // thread allocates nothing.
+    private final Parallel.RangeAction diagonal = this::calculateDiagonal;
+    private final Parallel.RangeAction offDiagonal = this::calculateRound;
+
+    @Override
+    public void computeAccelerations(BodyStore store, ForkJoinPool pool) {
+        int n = store.size();
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        for (int i = 0; i < n; i++) {
+            ax[i] = 0.0;
+            ay[i] = 0.0;
+        }
+        this.store = store;
+        blocks = Math.max(1, Math.min(MAX_BLOCKS, n / BLOCK_SIZE));
+        if (blocks > 1 && blocks % 2 == 1) {
+            blocks++;
+        }
+
+        // The pairs within each block, then the pairs between blocks.
+        Parallel.forRange(pool, blocks, 1, diagonal);
+        for (round = 0; round < blocks - 1; round++) {
+            Parallel.forRange(pool, blocks / 2, 1, offDiagonal);
+        }
+        this.store = null;
+        interactions = (long) n * (n - 1) / 2;
+    }
+
+    /** @return the number of unordered pairs evaluated by the last call */
+    @Override
+    public long getInteractionCount() { return interactions; }
+
+    /** @return the index of the first body of the given block */
+    private int start(int block) {
+        return (int) ((long) store.size() * block / blocks);
+    }
+
+    /** Calculates the pairs within the blocks from (inclusive) to to
+     *  (exclusive). */
+    private void calculateDiagonal(int from, int to) {
+        for (int b = from; b < to; b++) {
+            int end = start(b + 1);
+            for (int i = start(b); i < end; i++) {
+                calculatePairs(i, i + 1, end);
+            }
+        }
+    }
+
+    /**
+     * Calculates the pairs between the blocks of the games from (inclusive)
+     * to to (exclusive) of the current round.  In round r, game g pairs the
+     * blocks at positions g and blocks - 1 - g of a circle that holds block
+     * 0 in place and rotates the others by r.
+     */
+    private void calculateRound(int from, int to) {
+        for (int g = from; g < to; g++) {
+            int a = circle(g);
+            int b = circle(blocks - 1 - g);
+            int endA = start(a + 1);
+            int startB = start(b);
+            int endB = start(b + 1);
+            for (int i = start(a); i < endA; i++) {
+                calculatePairs(i, startB, endB);
+            }
+        }
+    }
+
+    /** @return the block at the given position of the circle this round */
+    private int circle(int position) {
+        return position == 0 ? 0 : (position - 1 + round) % (blocks - 1) + 1;
+    }
+
+    /**
+     * Applies the pull between body i and each of the bodies from
+     * (inclusive) to to (exclusive) to both bodies of the pair.
+     */
+    private void calculatePairs(int i, int from, int to) {
+        double[] mass = store.getMasses();
+        double[] x = store.getXs();
+        double[] y = store.getYs();
+        double[] ax = store.getAccelerationXs();
+        double[] ay = store.getAccelerationYs();
+        double px = x[i];
+        double py = y[i];
+        double mi = mass[i];
+        double sx = 0.0;
+        double sy = 0.0;
+        for (int j = from; j < to; j++) {
+            double dx = x[j] - px;
+            double dy = y[j] - py;
+            double r = dx * dx + dy * dy;
+            if (r >= Physics.EPSILON) {
+                double scale = Physics.G / (r * Math.sqrt(r));
+                double fx = dx * scale;
+                double fy = dy * scale;
+                sx += fx * mass[j];
+                sy += fy * mass[j];
+                ax[j] -= fx * mi;
+                ay[j] -= fy * mi;
+            }
+        }
+        ax[i] += sx;
+        ay[i] += sy;
+    }
+}
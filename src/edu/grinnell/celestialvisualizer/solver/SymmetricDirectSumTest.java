@@ -0,0 +1,38 @@
+package edu.grinnell.celestialvisualizer.solver;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import edu.grinnell.celestialvisualizer.Scenario;
+import edu.grinnell.celestialvisualizer.physics.BodyStore;
+import edu.grinnell.celestialvisualizer.physics.GravityKernel;
+
+public class SymmetricDirectSumTest {
+
+    @Test
+    public void testMatchesDirectSum() {
+        // Five blocks' worth of bodies, which the solver rounds up to six.
+        BodyStore store = Scenario.UNIFORM.create(5 * 256 + 17, 207);
+        // A body on top of another exerts no force on it.
+        store.add(1.0e20, store.getXs()[3], store.getYs()[3], 0.0, 0.0);
+
+        new DirectSum().setKernel(GravityKernel.SCALAR).computeAccelerations(store, null);
+        double[] ax = store.getAccelerationXs().clone();
+        double[] ay = store.getAccelerationYs().clone();
+        SymmetricDirectSum solver = new SymmetricDirectSum();
+        solver.computeAccelerations(store, ForkJoinPool.commonPool());
+        int n = store.size();
+        assertEquals((long) n * (n - 1) / 2, solver.getInteractionCount());
+        for (int i = 0; i < n; i++) {
+            assertEquals(ax[i], store.getAccelerationXs()[i], Math.abs(ax[i]) * 1e-9);
+            assertEquals(ay[i], store.getAccelerationYs()[i], Math.abs(ay[i]) * 1e-9);
+        }
+
+        double[] parallelX = store.getAccelerationXs().clone();
+        solver.computeAccelerations(store, null);
+        assertArrayEquals(parallelX, store.getAccelerationXs(), 0.0);
+    }
+}
@@ -0,0 +1,70 @@
+package edu.grinnell.celestialvisualizer.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Helpers for running loops over a range of indices on a ForkJoinPool.
+ */
+public class Parallel {
+
+    /** The number of tasks we aim to create per thread of the pool. */
+    private static final int TASKS_PER_THREAD = 8;
+
+    /**
+     * A loop body to be run over the indices from (inclusive) to to
+     * (exclusive).  Different ranges may be run on different threads at
+     * the same time, so the body must only write to state owned by its
+     * own indices.
+     */
+    public interface RangeAction {
+        public void apply(int from, int to);
+    }
+
+    /**
+     * Runs the given action over the indices 0 (inclusive) to n (exclusive),
+     * split into disjoint ranges that are run on the given pool.  The call
+     * returns once every range has been run.
+     * @param pool the pool to run on, or null to run on the calling thread
+     * @param n the number of indices
+     * @param minGrain the smallest range worth running as a separate task
+     * @param action the loop body
+     */
+    public static void forRange(ForkJoinPool pool, int n, int minGrain, RangeAction action) {
+        int grain = pool == null ? n
+                : Math.max(Math.max(minGrain, 1), n / (pool.getParallelism() * TASKS_PER_THREAD));
+        if (n <= grain) {
+            action.apply(0, n);
+        } else {
+            pool.invoke(new RangeTask(action, 0, n, grain));
+        }
+    }
+
+    /** Splits its range in half until it is no larger than the grain. */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeAction action;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeTask(RangeAction action, int from, int to, int grain) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                action.apply(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeTask(action, from, mid, grain),
+                        new RangeTask(action, mid, to, grain));
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package edu.grinnell.celestialvisualizer.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A merge sort of long keys that carries an int value along with every key,
+ * run in parallel on a ForkJoinPool.  The sort is stable and allocates
+ * nothing beyond its tasks; callers provide the scratch space.
+ */
+public class ParallelSort {
+
+    /** Ranges shorter than this are insertion sorted. */
+    private static final int INSERTION_THRESHOLD = 32;
+    /** Ranges shorter than this are sorted without forking. */
+    private static final int SEQUENTIAL_THRESHOLD = 8192;
+
+    /**
+     * Sorts the first n keys into ascending order, applying the same
+     * permutation to the first n values.
+     * @param keys the keys to sort
+     * @param values the values paired with the keys
+     * @param keyScratch scratch space of at least n longs
+     * @param valueScratch scratch space of at least n ints
+     * @param n the number of entries to sort
+     * @param pool the pool to sort on, or null to sort on the calling thread
+     */
+    public static void sort(long[] keys, int[] values, long[] keyScratch, int[] valueScratch,
+            int n, ForkJoinPool pool) {
+        if (keyScratch.length < n || valueScratch.length < n) {
+            throw new IllegalArgumentException("Scratch space is smaller than " + n);
+        }
+        SortTask task = new SortTask(keys, values, keyScratch, valueScratch, 0, n);
+        if (pool == null || n < SEQUENTIAL_THRESHOLD) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    private static class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] keys;
+        private final int[] values;
+        private final long[] keyScratch;
+        private final int[] valueScratch;
+        private final int from;
+        private final int to;
+
+        SortTask(long[] keys, int[] values, long[] keyScratch, int[] valueScratch,
+                int from, int to) {
+            this.keys = keys;
+            this.values = values;
+            this.keyScratch = keyScratch;
+            this.valueScratch = valueScratch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < SEQUENTIAL_THRESHOLD) {
+                sortSequentially(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SortTask(keys, values, keyScratch, valueScratch, from, mid),
+                        new SortTask(keys, values, keyScratch, valueScratch, mid, to));
+                merge(from, mid, to);
+            }
+        }
+
+        private void sortSequentially(int lo, int hi) {
+            if (hi - lo < INSERTION_THRESHOLD) {
+                insertionSort(lo, hi);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                sortSequentially(lo, mid);
+                sortSequentially(mid, hi);
+                merge(lo, mid, hi);
+            }
+        }
+
+        private void insertionSort(int lo, int hi) {
+            for (int i = lo + 1; i < hi; i++) {
+                long key = keys[i];
+                int value = values[i];
+                int j = i - 1;
+                while (j >= lo && keys[j] > key) {
+                    keys[j + 1] = keys[j];
+                    values[j + 1] = values[j];
+                    j--;
+                }
+                keys[j + 1] = key;
+                values[j + 1] = value;
+            }
+        }
+
+        /** Merges the sorted ranges [lo, mid) and [mid, hi). */
+        private void merge(int lo, int mid, int hi) {
+            if (keys[mid - 1] <= keys[mid]) {
+                return;
+            }
+            int i = lo;
+            int j = mid;
+            for (int k = lo; k < hi; k++) {
+                if (j >= hi || (i < mid && keys[i] <= keys[j])) {
+                    keyScratch[k] = keys[i];
+                    valueScratch[k] = values[i++];
+                } else {
+                    keyScratch[k] = keys[j];
+                    valueScratch[k] = values[j++];
+                }
+            }
+            System.arraycopy(keyScratch, lo, keys, lo, hi - lo);
+            System.arraycopy(valueScratch, lo, values, lo, hi - lo);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package edu.grinnell.celestialvisualizer.util;
+
+/**
+ * A space-filling curve visits every cell of a square grid exactly once.
+ * Sorting points by their position along such a curve places points that
+ * are close in space close together in the sorted order.
+ */
+public enum SpaceFillingCurve {
+    /** The Z-order curve, which interleaves the bits of the coordinates. */
+    MORTON {
+        @Override
+        public long index(int x, int y) {
+            return spread(x) | (spread(y) << 1);
+        }
+    },
+    /** The Hilbert curve, which never jumps between non-adjacent cells. */
+    HILBERT {
+        @Override
+        public long index(int x, int y) {
+            long d = 0;
+            for (int s = 1 << (BITS - 1); s > 0; s >>= 1) {
+                int rx = (x & s) != 0 ? 1 : 0;
+                int ry = (y & s) != 0 ? 1 : 0;
+                d += (long) s * s * ((3 * rx) ^ ry);
+                // Rotate the quadrant so the curve stays continuous.
+                if (ry == 0) {
+                    if (rx == 1) {
+                        x = s - 1 - (x & (s - 1));
+                        y = s - 1 - (y & (s - 1));
+                    }
+                    int t = x;
+                    x = y;
+                    y = t;
+                }
+                x &= s - 1;
+                y &= s - 1;
+            }
+            return d;
+        }
+    };
+
+    /** The number of bits per coordinate of the grid the curve fills. */
+    public static final int BITS = 31;
+
+    private static final double CELLS = (double) (1L << BITS);
+
+    /**
+     * @return the position along the curve of the given grid cell, whose
+     * coordinates must lie in [0, 2^BITS).
+     */
+    public abstract long index(int x, int y);
+
+    /**
+     * @return the position along the curve of the cell containing the given
+     * point, on a grid laid over the given bounding box.  Points outside the
+     * box are clamped to its edges.
+     */
+    public long key(double x, double y, BoundingBox bb) {
+        double size = Math.max(bb.getMaxX() - bb.getMinX(), bb.getMaxY() - bb.getMinY());
+        double scale = size > 0 ? CELLS / size : 0.0;
+        return index(toCell((x - bb.getMinX()) * scale), toCell((y - bb.getMinY()) * scale));
+    }
+
+    private static int toCell(double d) {
+        return (int) Math.max(0.0, Math.min(CELLS - 1, d));
+    }
+
+    /** @return the bits of v spread out to the even bits of a long */
+    private static long spread(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+}
@@ -49,7 +49,7 @@ public class Vector2d {
     
     /** @return the magnitude of this vector, squared (x^2 + y^2) */
     public double magnitudeSquared() {
-        return Math.pow(x,  2) + Math.pow(y,  2);
+        return x * x + y * y;
     }
     
     /** @return the magnitude of this vector, sqrt(x^2 + y ^2) */